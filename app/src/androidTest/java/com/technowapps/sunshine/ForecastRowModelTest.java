@@ -0,0 +1,79 @@
+package com.technowapps.sunshine;
+
+import android.content.Context;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.technowapps.sunshine.data.Weather;
+import com.technowapps.sunshine.utilities.SunshineDateUtils;
+import com.technowapps.sunshine.utilities.SunshineWeatherUtils;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class ForecastRowModelTest {
+
+    private final Context mContext = ApplicationProvider.getApplicationContext();
+    private final long mToday = SunshineDateUtils.getNormalizedUtcDateForToday();
+
+    @Test
+    public void rowHoldsWhatTheAdapterUsedToFormatOnBind() {
+        Weather weather = new Weather(mToday, 500, 10.0, 20.0, 50, 1010.0, 2.0, 0.0);
+
+        ForecastRowModel row =
+                ForecastRowModel.fromWeatherList(mContext, Arrays.asList(weather)).get(0);
+
+        assertEquals(mToday, row.getDate());
+        assertEquals(SunshineDateUtils.getFriendlyDateString(mContext, mToday, false),
+                row.getDateString());
+        assertEquals(SunshineWeatherUtils.getStringForWeatherCondition(mContext, 500),
+                row.getDescription());
+        assertEquals(SunshineWeatherUtils.formatTemperature(mContext, 20.0), row.getHighString());
+        assertEquals(SunshineWeatherUtils.formatTemperature(mContext, 10.0), row.getLowString());
+        assertEquals(SunshineWeatherUtils.getLargeArtResourceIdForWeatherCondition(500),
+                row.getLargeIconResId());
+        assertEquals(SunshineWeatherUtils.getSmallArtResourceIdForWeatherCondition(500),
+                row.getSmallIconResId());
+    }
+
+    @Test
+    public void rowsKeepTheOrderOfTheWeather() {
+        List<ForecastRowModel> rows = ForecastRowModel.fromWeatherList(mContext, Arrays.asList(
+                new Weather(mToday, 800, 10.0, 20.0, 50, 1010.0, 2.0, 0.0),
+                new Weather(mToday + SunshineDateUtils.DAY_IN_MILLIS, 801, 11.0, 21.0, 50,
+                        1010.0, 2.0, 0.0)));
+
+        assertEquals(2, rows.size());
+        assertEquals(mToday, rows.get(0).getDate());
+        assertEquals(mToday + SunshineDateUtils.DAY_IN_MILLIS, rows.get(1).getDate());
+    }
+
+    @Test
+    public void temperatureChangeOnlyAffectsTheTemperatures() {
+        List<ForecastRowModel> rows = ForecastRowModel.fromWeatherList(mContext, Arrays.asList(
+                new Weather(mToday, 800, 10.0, 20.0, 50, 1010.0, 2.0, 0.0),
+                new Weather(mToday, 800, 12.0, 25.0, 50, 1010.0, 2.0, 0.0)));
+
+        assertTrue(rows.get(0).hasSameConditionsAs(rows.get(1)));
+        assertFalse(rows.get(0).hasSameTemperaturesAs(rows.get(1)));
+    }
+
+    @Test
+    public void conditionChangeIsNotTheSameConditions() {
+        List<ForecastRowModel> rows = ForecastRowModel.fromWeatherList(mContext, Arrays.asList(
+                new Weather(mToday, 800, 10.0, 20.0, 50, 1010.0, 2.0, 0.0),
+                new Weather(mToday, 500, 10.0, 20.0, 50, 1010.0, 2.0, 0.0)));
+
+        assertFalse(rows.get(0).hasSameConditionsAs(rows.get(1)));
+        assertTrue(rows.get(0).hasSameTemperaturesAs(rows.get(1)));
+    }
+}
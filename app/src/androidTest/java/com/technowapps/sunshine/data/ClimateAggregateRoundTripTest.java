@@ -0,0 +1,175 @@
+package com.technowapps.sunshine.data;
+
+import androidx.room.Room;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that dropping a location takes its forecast days back out of the climate aggregates,
+ * so syncing it again afterwards leaves the same statistics as if it had never been dropped, and
+ * that pruning past days without a merge leaves them counted.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ClimateAggregateRoundTripTest {
+
+    private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+    /* 8 January 2022, UTC; its week started two days earlier */
+    private static final long TODAY = 19_000 * DAY_MILLIS;
+    private static final long FIRST_SYNC_DAY = TODAY - 2 * DAY_MILLIS;
+    private static final int FORECAST_DAYS = 12;
+
+    private static final double DELTA = 1e-6;
+
+    private WeatherDatabase mDb;
+    private long mKeptId;
+    private long mDroppedId;
+
+    @Before
+    public void setUp() {
+        mDb = Room.inMemoryDatabaseBuilder(ApplicationProvider.getApplicationContext(),
+                WeatherDatabase.class).build();
+        mKeptId = mDb.locationDao().getOrCreateLocationId(new WeatherLocation(51.5, -0.12));
+        mDroppedId = mDb.locationDao().getOrCreateLocationId(new WeatherLocation(48.85, 2.35));
+
+        /* Both locations were synced two days ago, so their first two days are now past */
+        mDb.weatherDao().mergeWeatherData(mKeptId, FIRST_SYNC_DAY, forecastFrom(FIRST_SYNC_DAY));
+        mDb.weatherDao().mergeWeatherData(mDroppedId, FIRST_SYNC_DAY,
+                forecastFrom(FIRST_SYNC_DAY));
+    }
+
+    @After
+    public void tearDown() {
+        mDb.close();
+    }
+
+    @Test
+    public void droppingKeepsOnlyTheArchivedDays() {
+        mDb.weatherDao().retainWeatherDataOf(Collections.singletonList(mKeptId), TODAY);
+
+        List<ClimateAggregate> weeks = loadClimate(mDroppedId, ClimateAggregate.PERIOD_WEEK);
+        /* The second week held nothing but dropped days, so its row is gone */
+        assertEquals(1, weeks.size());
+        assertEquals(FIRST_SYNC_DAY, weeks.get(0).getPeriodStart());
+        assertOnlyArchivedDays(weeks.get(0));
+
+        List<ClimateAggregate> months = loadClimate(mDroppedId, ClimateAggregate.PERIOD_MONTH);
+        assertEquals(1, months.size());
+        assertOnlyArchivedDays(months.get(0));
+    }
+
+    @Test
+    public void droppingLeavesKeptLocationsAlone() {
+        List<ClimateAggregate> weeks = loadClimate(mKeptId, ClimateAggregate.PERIOD_WEEK);
+        List<ClimateAggregate> months = loadClimate(mKeptId, ClimateAggregate.PERIOD_MONTH);
+
+        mDb.weatherDao().retainWeatherDataOf(Collections.singletonList(mKeptId), TODAY);
+
+        assertSameClimate(weeks, loadClimate(mKeptId, ClimateAggregate.PERIOD_WEEK));
+        assertSameClimate(months, loadClimate(mKeptId, ClimateAggregate.PERIOD_MONTH));
+    }
+
+    @Test
+    public void droppingThenSyncingAgainRestoresTheAggregates() {
+        List<ClimateAggregate> weeks = loadClimate(mDroppedId, ClimateAggregate.PERIOD_WEEK);
+        List<ClimateAggregate> months = loadClimate(mDroppedId, ClimateAggregate.PERIOD_MONTH);
+
+        mDb.weatherDao().retainWeatherDataOf(Collections.singletonList(mKeptId), TODAY);
+        /* The same forecast comes back, now starting today */
+        mDb.weatherDao().mergeWeatherData(mDroppedId, TODAY, forecastFrom(TODAY));
+
+        assertSameClimate(weeks, loadClimate(mDroppedId, ClimateAggregate.PERIOD_WEEK));
+        assertSameClimate(months, loadClimate(mDroppedId, ClimateAggregate.PERIOD_MONTH));
+    }
+
+    @Test
+    public void pruningWithoutAMergeArchivesPastDaysAndKeepsTheAggregates() {
+        List<ClimateAggregate> weeks = loadClimate(mKeptId, ClimateAggregate.PERIOD_WEEK);
+        List<ClimateAggregate> months = loadClimate(mKeptId, ClimateAggregate.PERIOD_MONTH);
+
+        /* What a sync does for a location whose forecast hasn't changed */
+        assertEquals(2, mDb.weatherDao().pruneWeatherDataBefore(mKeptId, TODAY));
+        assertEquals(0, mDb.weatherDao().pruneWeatherDataBefore(mKeptId, TODAY));
+
+        assertEquals(FORECAST_DAYS - 2,
+                mDb.weatherDao().loadWeatherDataFrom(mKeptId, FIRST_SYNC_DAY).size());
+        List<ArchivedWeather> archived = mDb.archiveDao().loadArchiveBefore(mKeptId, TODAY);
+        assertEquals(2, archived.size());
+        assertEquals(FIRST_SYNC_DAY, archived.get(0).getDate());
+        /* Archived days stay counted; they only left the forecast table */
+        assertSameClimate(weeks, loadClimate(mKeptId, ClimateAggregate.PERIOD_WEEK));
+        assertSameClimate(months, loadClimate(mKeptId, ClimateAggregate.PERIOD_MONTH));
+    }
+
+    private List<ClimateAggregate> loadClimate(long locationId, int period) {
+        return mDb.climateDao().loadClimate(locationId, period, 0, Long.MAX_VALUE);
+    }
+
+    /*
+     * Values rise day by day from the first synced day, so the two archived days hold every
+     * minimum and the last dropped day every maximum, which then has to be recomputed.
+     */
+    private static Weather[] forecastFrom(long firstDate) {
+        int skipped = (int) ((firstDate - FIRST_SYNC_DAY) / DAY_MILLIS);
+        Weather[] weathers = new Weather[FORECAST_DAYS - skipped];
+        for (int i = 0; i < weathers.length; i++) {
+            weathers[i] = day(skipped + i);
+        }
+        return weathers;
+    }
+
+    private static Weather day(int index) {
+        return new Weather(FIRST_SYNC_DAY + index * DAY_MILLIS, 800, 5 + index, 15 + 2 * index,
+                50 + index, 1000 + index, 1 + 0.5 * index, 180);
+    }
+
+    private static void assertOnlyArchivedDays(ClimateAggregate aggregate) {
+        ClimateAggregate expected = new ClimateAggregate(aggregate.getLocationId(),
+                aggregate.getPeriod(), aggregate.getPeriodStart());
+        expected.add(day(0));
+        expected.add(day(1));
+        assertSameClimate(expected, aggregate);
+    }
+
+    private static void assertSameClimate(List<ClimateAggregate> expected,
+                                          List<ClimateAggregate> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertSameClimate(expected.get(i), actual.get(i));
+        }
+    }
+
+    private static void assertSameClimate(ClimateAggregate expected, ClimateAggregate actual) {
+        String where = "Period " + actual.getPeriod() + " from " + actual.getPeriodStart();
+        assertEquals(where, expected.getPeriodStart(), actual.getPeriodStart());
+        assertEquals(where, expected.getDayCount(), actual.getDayCount());
+        assertEquals(where, expected.getTempSum(), actual.getTempSum(), DELTA);
+        assertEquals(where, expected.getTempSumOfSquares(), actual.getTempSumOfSquares(), DELTA);
+        assertEquals(where, expected.getTempMin(), actual.getTempMin(), DELTA);
+        assertEquals(where, expected.getTempMax(), actual.getTempMax(), DELTA);
+        assertEquals(where, expected.getHumiditySum(), actual.getHumiditySum(), DELTA);
+        assertEquals(where, expected.getHumiditySumOfSquares(),
+                actual.getHumiditySumOfSquares(), DELTA);
+        assertEquals(where, expected.getHumidityMin(), actual.getHumidityMin(), DELTA);
+        assertEquals(where, expected.getHumidityMax(), actual.getHumidityMax(), DELTA);
+        assertEquals(where, expected.getPressureSum(), actual.getPressureSum(), DELTA);
+        assertEquals(where, expected.getPressureSumOfSquares(),
+                actual.getPressureSumOfSquares(), DELTA);
+        assertEquals(where, expected.getPressureMin(), actual.getPressureMin(), DELTA);
+        assertEquals(where, expected.getPressureMax(), actual.getPressureMax(), DELTA);
+        assertEquals(where, expected.getWindSum(), actual.getWindSum(), DELTA);
+        assertEquals(where, expected.getWindSumOfSquares(), actual.getWindSumOfSquares(), DELTA);
+        assertEquals(where, expected.getWindMin(), actual.getWindMin(), DELTA);
+        assertEquals(where, expected.getWindMax(), actual.getWindMax(), DELTA);
+    }
+}
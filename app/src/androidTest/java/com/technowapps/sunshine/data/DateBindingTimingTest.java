@@ -0,0 +1,132 @@
+package com.technowapps.sunshine.data;
+
+import android.database.Cursor;
+import android.util.Log;
+
+import androidx.room.Room;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Times the forecast query with its date bound as a String, the way the DAO used to pass it, and
+ * as a long, the way it does now. SQLite converts the String to the column's INTEGER affinity
+ * before comparing, so both return the same rows; the numbers show what the conversion costs.
+ * They are written to logcat under this class's name rather than asserted, as they depend on the
+ * device.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DateBindingTimingTest {
+
+    private static final String TAG = DateBindingTimingTest.class.getSimpleName();
+
+    private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+    private static final long TODAY = 19_000 * DAY_MILLIS;
+
+    /* Enough rows that the index search, not the query setup, dominates */
+    private static final int LOCATIONS = 20;
+    private static final int DAYS_PER_LOCATION = 60;
+
+    private static final int WARM_UP_QUERIES = 50;
+    private static final int ROUNDS = 5;
+    private static final int QUERIES_PER_ROUND = 200;
+
+    private static final WeatherLocation LOCATION = new WeatherLocation(0.5, 0.5);
+
+    private WeatherDatabase mDb;
+    private SupportSQLiteDatabase mSqlite;
+
+    @Before
+    public void setUp() {
+        mDb = Room.inMemoryDatabaseBuilder(ApplicationProvider.getApplicationContext(),
+                WeatherDatabase.class).build();
+        mSqlite = mDb.getOpenHelper().getWritableDatabase();
+
+        for (int i = 0; i < LOCATIONS; i++) {
+            WeatherLocation location = new WeatherLocation(i + 0.5, i + 0.5);
+            long locationId = mDb.locationDao().getOrCreateLocationId(location);
+            Weather[] weathers = new Weather[DAYS_PER_LOCATION];
+            /* Half of each forecast lies in the past, so the date comparison has work to do */
+            for (int day = 0; day < DAYS_PER_LOCATION; day++) {
+                long date = TODAY + (day - DAYS_PER_LOCATION / 2) * DAY_MILLIS;
+                weathers[day] = new Weather(0, locationId, date, 800, 10, 20, 50, 1010, 2, 0);
+            }
+            mDb.weatherDao().insertAllWeatherData(weathers);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        mDb.close();
+    }
+
+    @Test
+    public void longBoundDatesMatchStringBoundOnes() {
+        Object[] stringBound = args(String.valueOf(TODAY));
+        Object[] longBound = args(TODAY);
+
+        int rows = countRows(stringBound);
+        assertEquals(DAYS_PER_LOCATION / 2, rows);
+        assertEquals(rows, countRows(longBound));
+
+        for (int i = 0; i < WARM_UP_QUERIES; i++) {
+            countRows(stringBound);
+            countRows(longBound);
+        }
+
+        /* Rounds alternate, so neither binding is favored by the device warming up */
+        long[] stringNanos = new long[ROUNDS];
+        long[] longNanos = new long[ROUNDS];
+        for (int round = 0; round < ROUNDS; round++) {
+            stringNanos[round] = timeQueries(stringBound);
+            longNanos[round] = timeQueries(longBound);
+        }
+
+        double stringMicros = medianMicrosPerQuery(stringNanos);
+        double longMicros = medianMicrosPerQuery(longNanos);
+        Log.i(TAG, String.format(Locale.US,
+                "forecast query: String-bound %.1fus, long-bound %.1fus per query (%d rows)",
+                stringMicros, longMicros, rows));
+        assertTrue(stringMicros > 0 && longMicros > 0);
+    }
+
+    private static Object[] args(Object date) {
+        return new Object[]{LOCATION.getLatitude(), LOCATION.getLongitude(), date};
+    }
+
+    private int countRows(Object[] args) {
+        int rows = 0;
+        try (Cursor cursor = mSqlite.query(WeatherDao.QUERY_FORECAST_FROM, args)) {
+            while (cursor.moveToNext()) {
+                rows++;
+            }
+        }
+        return rows;
+    }
+
+    private long timeQueries(Object[] args) {
+        long startedAt = System.nanoTime();
+        for (int i = 0; i < QUERIES_PER_ROUND; i++) {
+            countRows(args);
+        }
+        return System.nanoTime() - startedAt;
+    }
+
+    private static double medianMicrosPerQuery(long[] roundNanos) {
+        long[] sorted = roundNanos.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2] / 1000.0 / QUERIES_PER_ROUND;
+    }
+}
@@ -0,0 +1,135 @@
+package com.technowapps.sunshine.data;
+
+import androidx.room.Room;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Checks that the forecast queries the screens and the sync run most often find their rows
+ * through the location indexes rather than by scanning the weather table, with the date compared
+ * inside the index search, and that dates bound as longs match the stored rows.
+ */
+@RunWith(AndroidJUnit4.class)
+public class WeatherQueryPlanTest {
+
+    private static final String WEATHER_INDEX = "index_weather_location_id_date";
+    private static final String LOCATION_INDEX = "index_location_lat_lon";
+
+    private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+    private static final long TODAY = 19_000 * DAY_MILLIS;
+
+    /* Older SQLite versions say "SCAN TABLE weather", newer ones "SCAN weather" */
+    private static final Pattern WEATHER_SCAN = Pattern.compile("\\bSCAN (TABLE )?weather\\b");
+
+    private WeatherDatabase mDb;
+
+    @Before
+    public void setUp() {
+        mDb = Room.inMemoryDatabaseBuilder(ApplicationProvider.getApplicationContext(),
+                WeatherDatabase.class).build();
+    }
+
+    @After
+    public void tearDown() {
+        mDb.close();
+    }
+
+    @Test
+    public void forecastByCoordinatesUsesBothIndexes() {
+        List<String> plan = explain(WeatherDao.QUERY_FORECAST_FROM);
+
+        assertUses(plan, LOCATION_INDEX);
+        assertUses(plan, WEATHER_INDEX);
+        assertUses(plan, "date>?");
+        assertNoWeatherScan(plan);
+    }
+
+    @Test
+    public void forecastForDayUsesBothIndexes() {
+        List<String> plan = explain(WeatherDao.QUERY_FORECAST_FOR_DAY);
+
+        assertUses(plan, LOCATION_INDEX);
+        assertUses(plan, WEATHER_INDEX);
+        assertUses(plan, "date=?");
+        assertNoWeatherScan(plan);
+    }
+
+    @Test
+    public void storedForecastUsesTheLocationDateIndex() {
+        List<String> plan = explain(WeatherDao.QUERY_STORED_FORECAST_FROM);
+
+        assertUses(plan, WEATHER_INDEX);
+        assertUses(plan, "date>?");
+        assertNoWeatherScan(plan);
+        /* The index already returns the rows in date order */
+        for (String detail : plan) {
+            assertFalse(plan.toString(), detail.contains("TEMP B-TREE"));
+        }
+    }
+
+    @Test
+    public void pruningPastDaysUsesTheLocationDateIndex() {
+        List<String> plan = explain(WeatherDao.QUERY_DELETE_FORECAST_BEFORE);
+
+        assertUses(plan, WEATHER_INDEX);
+        assertUses(plan, "date<?");
+        assertNoWeatherScan(plan);
+    }
+
+    @Test
+    public void datesBoundAsLongsMatchStoredRows() {
+        WeatherLocation location = new WeatherLocation(51.51, -0.13);
+        long locationId = mDb.locationDao().getOrCreateLocationId(location);
+        mDb.weatherDao().insertAllWeatherData(
+                weather(locationId, TODAY - DAY_MILLIS, 800),
+                weather(locationId, TODAY, 801),
+                weather(locationId, TODAY + DAY_MILLIS, 802));
+
+        List<Weather> fromToday = mDb.weatherDao().loadWeatherDataFrom(locationId, TODAY);
+        assertEquals(2, fromToday.size());
+        assertEquals(TODAY, fromToday.get(0).getDate());
+        assertEquals(TODAY + DAY_MILLIS, fromToday.get(1).getDate());
+
+        Weather today = mDb.weatherDao().loadWeatherDataForDay(location.getLatitude(),
+                location.getLongitude(), TODAY);
+        assertNotNull(today);
+        assertEquals(801, today.getWeatherIdFromServer());
+
+        assertEquals(1, mDb.weatherDao().deleteWeatherDataBefore(locationId, TODAY));
+    }
+
+    private static Weather weather(long locationId, long date, int weatherId) {
+        return new Weather(0, locationId, date, weatherId, 10, 20, 50, 1010, 2, 0);
+    }
+
+    private List<String> explain(String sql) {
+        return WeatherDatabase.explainQueryPlan(mDb.getOpenHelper().getReadableDatabase(), sql);
+    }
+
+    private static void assertUses(List<String> plan, String index) {
+        for (String detail : plan) {
+            if (detail.contains(index)) return;
+        }
+        throw new AssertionError("Expected " + index + " in " + plan);
+    }
+
+    private static void assertNoWeatherScan(List<String> plan) {
+        for (String detail : plan) {
+            assertFalse(plan.toString(), WEATHER_SCAN.matcher(detail).find());
+        }
+        assertFalse("No plan", plan.isEmpty());
+    }
+}
@@ -0,0 +1,120 @@
+package com.technowapps.sunshine.sync;
+
+import android.content.Context;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.technowapps.sunshine.data.ForecastSnapshot;
+import com.technowapps.sunshine.data.Weather;
+import com.technowapps.sunshine.data.WeatherLocation;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the sync keeps the cold start snapshot on the preferred location, including after
+ * switching to a location whose stored forecast hasn't changed.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ForecastSnapshotRefreshTest {
+
+    private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+    private static final long TODAY = 19_000 * DAY_MILLIS;
+
+    private static final WeatherLocation LONDON = new WeatherLocation(51.5, -0.12);
+    private static final WeatherLocation PARIS = new WeatherLocation(48.85, 2.35);
+
+    private Context mContext;
+
+    @Before
+    public void setUp() {
+        mContext = ApplicationProvider.getApplicationContext();
+        deleteSnapshot();
+    }
+
+    @After
+    public void tearDown() {
+        deleteSnapshot();
+    }
+
+    @Test
+    public void snapshotIsOnlyForTheLocationItWasWrittenFor() {
+        assertFalse(ForecastSnapshot.isFor(mContext, LONDON));
+
+        SunshineSyncTask.refreshForecastSnapshot(mContext, LONDON, forecast(10), true);
+
+        assertTrue(ForecastSnapshot.isFor(mContext, LONDON));
+        assertFalse(ForecastSnapshot.isFor(mContext, PARIS));
+        assertNull(ForecastSnapshot.read(mContext, PARIS, TODAY));
+    }
+
+    @Test
+    public void unchangedForecastIsWrittenWhenThereIsNoSnapshot() {
+        SunshineSyncTask.refreshForecastSnapshot(mContext, LONDON, forecast(10), false);
+
+        assertFirstMinTemp(LONDON, 10);
+    }
+
+    @Test
+    public void unchangedForecastOfAnotherLocationReplacesTheSnapshot() {
+        SunshineSyncTask.refreshForecastSnapshot(mContext, LONDON, forecast(10), true);
+
+        /* Paris was already on the watch list, so its digest matches and nothing else is written */
+        SunshineSyncTask.refreshForecastSnapshot(mContext, PARIS, forecast(20), false);
+
+        assertFalse(ForecastSnapshot.isFor(mContext, LONDON));
+        assertFirstMinTemp(PARIS, 20);
+    }
+
+    @Test
+    public void unchangedForecastOfTheSameLocationKeepsTheSnapshot() {
+        SunshineSyncTask.refreshForecastSnapshot(mContext, LONDON, forecast(10), true);
+
+        /* An unchanged forecast is the one already in the snapshot, so the file isn't touched */
+        SunshineSyncTask.refreshForecastSnapshot(mContext, LONDON, forecast(30), false);
+
+        assertFirstMinTemp(LONDON, 10);
+    }
+
+    @Test
+    public void changedForecastReplacesTheSnapshot() {
+        SunshineSyncTask.refreshForecastSnapshot(mContext, LONDON, forecast(10), true);
+
+        SunshineSyncTask.refreshForecastSnapshot(mContext, LONDON, forecast(30), true);
+
+        assertFirstMinTemp(LONDON, 30);
+    }
+
+    private void assertFirstMinTemp(WeatherLocation location, double minTemp) {
+        List<Weather> weathers = ForecastSnapshot.read(mContext, location, TODAY);
+        assertNotNull(weathers);
+        assertEquals(3, weathers.size());
+        assertEquals(minTemp, weathers.get(0).getMinTemp(), 0);
+    }
+
+    private void deleteSnapshot() {
+        new File(mContext.getFilesDir(), "forecast.snapshot").delete();
+    }
+
+    private static Weather[] forecast(double firstMinTemp) {
+        Weather[] weathers = new Weather[3];
+        for (int i = 0; i < weathers.length; i++) {
+            weathers[i] = new Weather(TODAY + i * DAY_MILLIS, 800, firstMinTemp + i,
+                    firstMinTemp + 10 + i, 60, 1013, 3.5, 180);
+        }
+        return weathers;
+    }
+}
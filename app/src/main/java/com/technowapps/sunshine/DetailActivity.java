@@ -24,12 +24,14 @@ import android.os.Bundle;
 import androidx.core.app.ShareCompat;
 import androidx.appcompat.app.AppCompatActivity;
 
+import android.util.Log;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
 
 import com.example.android.sunshine.R;
 import com.example.android.sunshine.databinding.ActivityDetailBinding;
+import com.technowapps.sunshine.data.SunshinePreferences;
 import com.technowapps.sunshine.data.Weather;
 import com.technowapps.sunshine.data.WeatherDatabase;
 import com.technowapps.sunshine.utilities.AppExecutors;
@@ -38,6 +40,11 @@ import com.technowapps.sunshine.utilities.SunshineWeatherUtils;
 
 public class DetailActivity extends AppCompatActivity {
 
+    private static final String TAG = DetailActivity.class.getSimpleName();
+
+    /* The normalized UTC date, as a long, of the day to show */
+    public static final String EXTRA_DATE = "date";
+
     /*
      * In this Activity, you can share the selected day's forecast. No social sharing is complete
      * without using a hashtag. #BeTogetherNotTheSame
@@ -68,11 +75,24 @@ public class DetailActivity extends AppCompatActivity {
         /* Getting the "date" data from the intent that launched this activity
          * which can either be main activity or notification intent
          */
-        String date = getIntent().getStringExtra("date");
-        AppExecutors.getInstance().diskIO().execute(() -> {
-            Weather weather = mDb.weatherDao().loadWeatherDataForDay(date);
-            runOnUiThread(() -> loadDataIntoViews(weather));
-        });
+        long date = getIntent().getLongExtra(EXTRA_DATE, 0);
+        /* The list only ever shows the preferred location's forecast */
+        double[] coords = SunshinePreferences.getLocationCoordinates(this);
+
+        /* The query is dropped if the user leaves before it completes */
+        AppExecutors.getInstance().loadResultInBackground(this, AppExecutors.TASK_DETAIL,
+                () -> mDb.weatherDao().loadWeatherDataForDay(coords[0], coords[1], date),
+                new AppExecutors.ResultCallback<Weather>() {
+                    @Override
+                    public void onResult(Weather weather) {
+                        loadDataIntoViews(weather);
+                    }
+
+                    @Override
+                    public void onError(Exception e) {
+                        Log.e(TAG, "Couldn't load the weather for " + date, e);
+                    }
+                });
     }
 
     /**
@@ -18,6 +18,9 @@ package com.technowapps.sunshine;
 import android.content.Context;
 
 import androidx.annotation.NonNull;
+import androidx.core.os.TraceCompat;
+import androidx.recyclerview.widget.AsyncListDiffer;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 
 import android.view.LayoutInflater;
@@ -27,9 +30,6 @@ import android.widget.ImageView;
 import android.widget.TextView;
 
 import com.example.android.sunshine.R;
-import com.technowapps.sunshine.data.Weather;
-import com.technowapps.sunshine.utilities.SunshineDateUtils;
-import com.technowapps.sunshine.utilities.SunshineWeatherUtils;
 
 import java.util.List;
 
@@ -45,7 +45,43 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
     /* The context we use to utility methods, app resources and layout inflaters */
     private final Context mContext;
 
-    private List<Weather> mWeatherList;
+    /* Name of the trace section around each bind, visible in systrace and Perfetto */
+    private static final String BIND_TRACE_SECTION = "ForecastAdapter.bind";
+
+    /*
+     * Payload sent with a change that only affects the temperatures of a row, typically a change
+     * of units. Rows bound with it only update their temperature views.
+     */
+    private static final Object PAYLOAD_TEMPERATURE = new Object();
+
+    /*
+     * Rows are the same item when they are for the same day. Rows that only differ in their
+     * temperatures are updated with PAYLOAD_TEMPERATURE rather than rebound completely.
+     */
+    private static final DiffUtil.ItemCallback<ForecastRowModel> DIFF_CALLBACK =
+            new DiffUtil.ItemCallback<ForecastRowModel>() {
+                @Override
+                public boolean areItemsTheSame(@NonNull ForecastRowModel oldRow,
+                                               @NonNull ForecastRowModel newRow) {
+                    return oldRow.getDate() == newRow.getDate();
+                }
+
+                @Override
+                public boolean areContentsTheSame(@NonNull ForecastRowModel oldRow,
+                                                  @NonNull ForecastRowModel newRow) {
+                    return oldRow.hasSameConditionsAs(newRow)
+                            && oldRow.hasSameTemperaturesAs(newRow);
+                }
+
+                @Override
+                public Object getChangePayload(@NonNull ForecastRowModel oldRow,
+                                               @NonNull ForecastRowModel newRow) {
+                    return oldRow.hasSameConditionsAs(newRow) ? PAYLOAD_TEMPERATURE : null;
+                }
+            };
+
+    /* Diffs each new list against the one on screen on a background thread */
+    private final AsyncListDiffer<ForecastRowModel> mDiffer;
     /*
      * Below, we've defined an interface to handle clicks on items within this Adapter. In the
      * constructor of our ForecastAdapter, we receive an instance of a class that has implemented
@@ -61,7 +97,7 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
      * The interface that receives onClick messages.
      */
     public interface ForecastAdapterOnClickHandler {
-        void onClick(String date);
+        void onClick(long date);
     }
 
     /*
@@ -85,6 +121,8 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
         mContext = context;
         mClickHandler = clickHandler;
         mUseTodayLayout = mContext.getResources().getBoolean(R.bool.use_today_layout);
+        mDiffer = new AsyncListDiffer<>(this, DIFF_CALLBACK);
+        mDiffer.addListListener(this::onRowsChanged);
     }
 
 
@@ -139,90 +177,95 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
      */
     @Override
     public void onBindViewHolder(ForecastAdapterViewHolder forecastAdapterViewHolder, int position) {
-        Weather weather = mWeatherList.get(position);
+        /* Shows up as its own slice in a system trace, so bind time can be measured on a device */
+        TraceCompat.beginSection(BIND_TRACE_SECTION);
+        try {
+            bindRow(forecastAdapterViewHolder, getRow(position), getItemViewType(position));
+        } finally {
+            TraceCompat.endSection();
+        }
+    }
+
+    /**
+     * Called instead of {@link #onBindViewHolder(ForecastAdapterViewHolder, int)} when the row
+     * was changed in place. If the only change is to its temperatures, only those views are
+     * updated.
+     *
+     * @param forecastAdapterViewHolder The ViewHolder which should be updated
+     * @param position                  The position of the item within the adapter's data set.
+     * @param payloads                  The payloads of every change since the last bind
+     */
+    @Override
+    public void onBindViewHolder(@NonNull ForecastAdapterViewHolder forecastAdapterViewHolder,
+                                 int position, @NonNull List<Object> payloads) {
+        if (payloads.isEmpty() || !onlyTemperaturesChanged(payloads)) {
+            onBindViewHolder(forecastAdapterViewHolder, position);
+            return;
+        }
+
+        TraceCompat.beginSection(BIND_TRACE_SECTION);
+        try {
+            bindTemperatures(forecastAdapterViewHolder, getRow(position));
+        } finally {
+            TraceCompat.endSection();
+        }
+    }
+
+    private static boolean onlyTemperaturesChanged(List<Object> payloads) {
+        for (Object payload : payloads) {
+            if (payload != PAYLOAD_TEMPERATURE) return false;
+        }
+        return true;
+    }
 
+    /*
+     * Everything shown here was formatted ahead of time by ForecastRowModel, so binding only
+     * copies values into the views.
+     */
+    private void bindRow(ForecastAdapterViewHolder holder, ForecastRowModel row, int viewType) {
         /****************
          * Weather Icon *
          ****************/
-        int weatherId = weather.getWeatherIdFromServer();
-        int weatherImageId;
-
-        int viewType = getItemViewType(position);
-
         switch (viewType) {
 
             case VIEW_TYPE_TODAY:
-                weatherImageId = SunshineWeatherUtils
-                        .getLargeArtResourceIdForWeatherCondition(weatherId);
+                holder.iconView.setImageResource(row.getLargeIconResId());
                 break;
 
             case VIEW_TYPE_FUTURE_DAY:
-                weatherImageId = SunshineWeatherUtils
-                        .getSmallArtResourceIdForWeatherCondition(weatherId);
+                holder.iconView.setImageResource(row.getSmallIconResId());
                 break;
 
             default:
                 throw new IllegalArgumentException("Invalid view type, value of " + viewType);
         }
 
-        forecastAdapterViewHolder.iconView.setImageResource(weatherImageId);
-
         /****************
          * Weather Date *
          ****************/
-        /* Read date from the cursor */
-        long dateInMillis = weather.getDate();
-        /* Get human readable string using our utility method */
-        String dateString = SunshineDateUtils.getFriendlyDateString(mContext, dateInMillis, false);
-
-        /* Display friendly date string */
-        forecastAdapterViewHolder.dateView.setText(dateString);
+        holder.dateView.setText(row.getDateString());
 
         /***********************
          * Weather Description *
          ***********************/
-        String description = SunshineWeatherUtils.getStringForWeatherCondition(mContext, weatherId);
-        /* Create the accessibility (a11y) String from the weather description */
-        String descriptionA11y = mContext.getString(R.string.a11y_forecast, description);
+        holder.descriptionView.setText(row.getDescription());
+        holder.descriptionView.setContentDescription(row.getDescriptionA11y());
 
-        /* Set the text and content description (for accessibility purposes) */
-        forecastAdapterViewHolder.descriptionView.setText(description);
-        forecastAdapterViewHolder.descriptionView.setContentDescription(descriptionA11y);
+        bindTemperatures(holder, row);
+    }
 
+    private void bindTemperatures(ForecastAdapterViewHolder holder, ForecastRowModel row) {
         /**************************
          * High (max) temperature *
          **************************/
-        /* Read high temperature from the cursor (in degrees celsius) */
-        double highInCelsius = weather.getMaxTemp();
-        /*
-         * If the user's preference for weather is fahrenheit, formatTemperature will convert
-         * the temperature. This method will also append either °C or °F to the temperature
-         * String.
-         */
-        String highString = SunshineWeatherUtils.formatTemperature(mContext, highInCelsius);
-        /* Create the accessibility (a11y) String from the weather description */
-        String highA11y = mContext.getString(R.string.a11y_high_temp, highString);
-
-        /* Set the text and content description (for accessibility purposes) */
-        forecastAdapterViewHolder.highTempView.setText(highString);
-        forecastAdapterViewHolder.highTempView.setContentDescription(highA11y);
+        holder.highTempView.setText(row.getHighString());
+        holder.highTempView.setContentDescription(row.getHighA11y());
 
         /*************************
          * Low (min) temperature *
          *************************/
-        /* Read low temperature from the cursor (in degrees celsius) */
-        double lowInCelsius = weather.getMinTemp();
-        /*
-         * If the user's preference for weather is fahrenheit, formatTemperature will convert
-         * the temperature. This method will also append either °C or °F to the temperature
-         * String.
-         */
-        String lowString = SunshineWeatherUtils.formatTemperature(mContext, lowInCelsius);
-        String lowA11y = mContext.getString(R.string.a11y_low_temp, lowString);
-
-        /* Set the text and content description (for accessibility purposes) */
-        forecastAdapterViewHolder.lowTempView.setText(lowString);
-        forecastAdapterViewHolder.lowTempView.setContentDescription(lowA11y);
+        holder.lowTempView.setText(row.getLowString());
+        holder.lowTempView.setContentDescription(row.getLowA11y());
     }
 
     /**
@@ -233,8 +276,7 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
      */
     @Override
     public int getItemCount() {
-        if (null == mWeatherList) return 0;
-        return mWeatherList.size();
+        return mDiffer.getCurrentList().size();
     }
 
     /**
@@ -258,9 +300,32 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
 
 
 
-    public void setWeatherList(List<Weather> mWeatherList) {
-        this.mWeatherList = mWeatherList;
-        notifyDataSetChanged();
+    /**
+     * Replaces the rows shown by this adapter. The rows are built off the main thread with
+     * {@link ForecastRowModel#fromWeatherList}, and compared with the rows on screen on a
+     * background thread, so only the rows that actually changed are rebound.
+     *
+     * @param rows The formatted rows to display
+     */
+    public void setRows(List<ForecastRowModel> rows) {
+        mDiffer.submitList(rows);
+    }
+
+    private ForecastRowModel getRow(int position) {
+        return mDiffer.getCurrentList().get(position);
+    }
+
+    /*
+     * The "today" layout belongs to whichever row is first. When a new day pushes yesterday out of
+     * the list, the new first row isn't changed itself, so the diff leaves its layout alone; rebind
+     * it so it picks up the right view type.
+     */
+    private void onRowsChanged(@NonNull List<ForecastRowModel> previousRows,
+                               @NonNull List<ForecastRowModel> currentRows) {
+        if (!mUseTodayLayout || previousRows.isEmpty() || currentRows.isEmpty()) return;
+        if (previousRows.get(0).getDate() != currentRows.get(0).getDate()) {
+            notifyItemChanged(0);
+        }
     }
 
     /**
@@ -298,8 +363,9 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
         @Override
         public void onClick(View v) {
             int adapterPosition = getAbsoluteAdapterPosition();
-            long dateInMillis = mWeatherList.get(adapterPosition).getDate();
-            mClickHandler.onClick(String.valueOf(dateInMillis));
+            if (adapterPosition == RecyclerView.NO_POSITION) return;
+            long dateInMillis = getRow(adapterPosition).getDate();
+            mClickHandler.onClick(dateInMillis);
         }
 
 
@@ -0,0 +1,162 @@
+package com.technowapps.sunshine;
+
+import android.content.Context;
+import android.text.TextUtils;
+
+import androidx.annotation.AnyThread;
+
+import com.example.android.sunshine.R;
+import com.technowapps.sunshine.data.Weather;
+import com.technowapps.sunshine.utilities.SunshineDateUtils;
+import com.technowapps.sunshine.utilities.SunshineWeatherUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Everything a row of the forecast list displays, already formatted. Rows are built off the main
+ * thread whenever the weather data or the preferences change, so that binding a row in
+ * {@link ForecastAdapter} only has to copy these fields into its views.
+ */
+final class ForecastRowModel {
+
+    private final long mDate;
+
+    /* Large art is used for the "today" layout, small art for every other row */
+    private final int mLargeIconResId;
+    private final int mSmallIconResId;
+
+    private final String mDateString;
+    private final String mDescription;
+    private final String mDescriptionA11y;
+    private final String mHighString;
+    private final String mHighA11y;
+    private final String mLowString;
+    private final String mLowA11y;
+
+    private ForecastRowModel(long date, int largeIconResId, int smallIconResId, String dateString,
+                             String description, String descriptionA11y, String highString,
+                             String highA11y, String lowString, String lowA11y) {
+        mDate = date;
+        mLargeIconResId = largeIconResId;
+        mSmallIconResId = smallIconResId;
+        mDateString = dateString;
+        mDescription = description;
+        mDescriptionA11y = descriptionA11y;
+        mHighString = highString;
+        mHighA11y = highA11y;
+        mLowString = lowString;
+        mLowA11y = lowA11y;
+    }
+
+    /**
+     * Formats every weather entry into a row, in the user's current units and locale. A full
+     * forecast is formatted off the main thread; the few rows of the forecast snapshot are
+     * formatted on it so they appear in the first frame.
+     *
+     * @param context  Used to access resources and preferences
+     * @param weathers The weather to display
+     * @return One row per weather entry, in the same order
+     */
+    @AnyThread
+    static List<ForecastRowModel> fromWeatherList(Context context, List<Weather> weathers) {
+        List<ForecastRowModel> rows = new ArrayList<>(weathers.size());
+        for (Weather weather : weathers) {
+            rows.add(fromWeather(context, weather));
+        }
+        return rows;
+    }
+
+    private static ForecastRowModel fromWeather(Context context, Weather weather) {
+        int weatherId = weather.getWeatherIdFromServer();
+        long dateInMillis = weather.getDate();
+
+        /* Get human readable string using our utility method */
+        String dateString = SunshineDateUtils.getFriendlyDateString(context, dateInMillis, false);
+
+        String description = SunshineWeatherUtils.getStringForWeatherCondition(context, weatherId);
+        /* Create the accessibility (a11y) String from the weather description */
+        String descriptionA11y = context.getString(R.string.a11y_forecast, description);
+
+        /*
+         * If the user's preference for weather is fahrenheit, formatTemperature will convert
+         * the temperature. This method will also append either °C or °F to the temperature
+         * String.
+         */
+        String highString = SunshineWeatherUtils.formatTemperature(context, weather.getMaxTemp());
+        String highA11y = context.getString(R.string.a11y_high_temp, highString);
+
+        String lowString = SunshineWeatherUtils.formatTemperature(context, weather.getMinTemp());
+        String lowA11y = context.getString(R.string.a11y_low_temp, lowString);
+
+        return new ForecastRowModel(dateInMillis,
+                SunshineWeatherUtils.getLargeArtResourceIdForWeatherCondition(weatherId),
+                SunshineWeatherUtils.getSmallArtResourceIdForWeatherCondition(weatherId),
+                dateString, description, descriptionA11y, highString, highA11y, lowString,
+                lowA11y);
+    }
+
+    /**
+     * @param other The row to compare with
+     * @return True if both rows show the same thing, apart from their temperatures
+     */
+    boolean hasSameConditionsAs(ForecastRowModel other) {
+        return mDate == other.mDate
+                && mLargeIconResId == other.mLargeIconResId
+                && mSmallIconResId == other.mSmallIconResId
+                && TextUtils.equals(mDateString, other.mDateString)
+                && TextUtils.equals(mDescription, other.mDescription)
+                && TextUtils.equals(mDescriptionA11y, other.mDescriptionA11y);
+    }
+
+    /**
+     * @param other The row to compare with
+     * @return True if both rows show the same high and low temperatures
+     */
+    boolean hasSameTemperaturesAs(ForecastRowModel other) {
+        return TextUtils.equals(mHighString, other.mHighString)
+                && TextUtils.equals(mHighA11y, other.mHighA11y)
+                && TextUtils.equals(mLowString, other.mLowString)
+                && TextUtils.equals(mLowA11y, other.mLowA11y);
+    }
+
+    long getDate() {
+        return mDate;
+    }
+
+    int getLargeIconResId() {
+        return mLargeIconResId;
+    }
+
+    int getSmallIconResId() {
+        return mSmallIconResId;
+    }
+
+    String getDateString() {
+        return mDateString;
+    }
+
+    String getDescription() {
+        return mDescription;
+    }
+
+    String getDescriptionA11y() {
+        return mDescriptionA11y;
+    }
+
+    String getHighString() {
+        return mHighString;
+    }
+
+    String getHighA11y() {
+        return mHighA11y;
+    }
+
+    String getLowString() {
+        return mLowString;
+    }
+
+    String getLowA11y() {
+        return mLowA11y;
+    }
+}
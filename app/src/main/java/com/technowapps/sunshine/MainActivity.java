@@ -15,6 +15,7 @@
  */
 package com.technowapps.sunshine;
 
+import android.content.Context;
 import android.content.Intent;
 import android.net.Uri;
 import android.os.Bundle;
@@ -33,12 +34,24 @@ import android.view.View;
 import android.widget.ProgressBar;
 
 import com.example.android.sunshine.R;
+import com.technowapps.sunshine.data.ForecastSnapshot;
+import com.technowapps.sunshine.data.PreferencesSnapshot;
 import com.technowapps.sunshine.data.SunshinePreferences;
 import com.technowapps.sunshine.data.Weather;
 import com.technowapps.sunshine.data.WeatherDatabase;
+import com.technowapps.sunshine.data.WeatherLocation;
+import com.technowapps.sunshine.sync.AdaptiveSyncScheduler;
 import com.technowapps.sunshine.sync.SunshineSyncUtils;
+import com.technowapps.sunshine.sync.SyncTelemetry;
+import com.technowapps.sunshine.utilities.AppExecutors;
+import com.technowapps.sunshine.utilities.InstrumentedExecutor;
+import com.technowapps.sunshine.utilities.NetworkUtils;
+import com.technowapps.sunshine.utilities.QuotaGovernor;
 import com.technowapps.sunshine.utilities.SunshineDateUtils;
+import com.technowapps.sunshine.utilities.SunshineMetrics;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.List;
 
 public class MainActivity extends AppCompatActivity implements ForecastAdapter.ForecastAdapterOnClickHandler {
@@ -52,6 +65,21 @@ public class MainActivity extends AppCompatActivity implements ForecastAdapter.F
 
     private WeatherDatabase mDb;
 
+    /* The preferences the list was last bound with, used to spot a change of units */
+    private PreferencesSnapshot mBoundPreferences;
+
+    /* The weather currently on screen, kept so the rows can be rebuilt when the units change */
+    private List<Weather> mWeatherList;
+    /*
+     * Incremented every time rows are requested. Rows built for an older request than the latest
+     * one are dropped instead of replacing newer rows on screen.
+     */
+    private int mRowsGeneration;
+
+    /* The stored forecast of the location on screen, which is replaced when the location changes */
+    private LiveData<List<Weather>> mWeatherLiveData;
+    private WeatherLocation mObservedLocation;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -110,6 +138,7 @@ public class MainActivity extends AppCompatActivity implements ForecastAdapter.F
          * is also an instance of that type of handler.
          */
         mForecastAdapter = new ForecastAdapter(this, this);
+        mBoundPreferences = SunshinePreferences.getSnapshot(this);
 
         /* Setting the adapter attaches it to the RecyclerView in our layout. */
         mRecyclerView.setAdapter(mForecastAdapter);
@@ -119,20 +148,11 @@ public class MainActivity extends AppCompatActivity implements ForecastAdapter.F
          * */
         showLoading();
 
-        /* Fetching today's normalized date to query data from database */
-        String date = getNormalizedUtcNow();
-
-
-        final LiveData<List<Weather>> weatherLiveData = mDb.weatherDao().loadWeatherDataForTodayOnwards(date);
-        weatherLiveData.observe(this, weathers -> {
-                    if (weathers == null || weathers.size() == 0) {
-                        SunshineSyncUtils.startImmediateSync(this);
-                    } else {
-                        mForecastAdapter.setWeatherList(weathers);
-                        showWeatherDataView();
-                    }
-                }
-        );
+        /*
+         * Show the forecast the last sync left on disk right away. Room's LiveData below takes
+         * over as soon as its query has run, and only the rows that differ get redrawn.
+         */
+        showForecastSnapshot();
 
         /*
          * Putting the coordinates of New York as default coordinates to fetch and display data until
@@ -146,6 +166,16 @@ public class MainActivity extends AppCompatActivity implements ForecastAdapter.F
 
         }
 
+        observeForecast();
+
+        /*
+         * How often the app is opened is one of the inputs to the sync schedule. Recreating the
+         * activity, on rotation for example, isn't the user opening the app again.
+         */
+        if (savedInstanceState == null) {
+            AdaptiveSyncScheduler.recordAppOpen(this);
+        }
+
         /* Initializing the work manager to perform periodic refresh of data */
         SunshineSyncUtils.initializeWorkManager(this);
 
@@ -171,9 +201,9 @@ public class MainActivity extends AppCompatActivity implements ForecastAdapter.F
 
     /* This method will be called whenever an item of recyclerview is clicked */
     @Override
-    public void onClick(String date) {
+    public void onClick(long date) {
         Intent weatherDetailIntent = new Intent(MainActivity.this, DetailActivity.class);
-        weatherDetailIntent.putExtra("date", date);
+        weatherDetailIntent.putExtra(DetailActivity.EXTRA_DATE, date);
         startActivity(weatherDetailIntent);
     }
 
@@ -249,8 +279,8 @@ public class MainActivity extends AppCompatActivity implements ForecastAdapter.F
         return super.onOptionsItemSelected(item);
     }
 
-    public static String getNormalizedUtcNow() {
-        return String.valueOf(SunshineDateUtils.normalizeDate(System.currentTimeMillis()));
+    public static long getNormalizedUtcNow() {
+        return SunshineDateUtils.normalizeDate(System.currentTimeMillis());
     }
 
 
@@ -258,8 +288,119 @@ public class MainActivity extends AppCompatActivity implements ForecastAdapter.F
     @Override
     protected void onResume() {
         super.onResume();
-        if (SunshinePreferences.isMetricChanged) {
-            mForecastAdapter.notifyDataSetChanged();
+        PreferencesSnapshot preferences = SunshinePreferences.getSnapshot(this);
+        if (preferences.getVersion() != mBoundPreferences.getVersion()
+                && preferences.isMetric() != mBoundPreferences.isMetric()) {
+            if (mWeatherList != null) presentWeather(mWeatherList);
+        }
+        mBoundPreferences = preferences;
+
+        /* The user may have picked another location, whose forecast is stored in its own rows */
+        observeForecast();
+    }
+
+    /*
+     * Starts observing the stored forecast of the preferred location, unless it is already being
+     * observed. A location without stored rows is synced right away.
+     */
+    private void observeForecast() {
+        double[] coords = SunshinePreferences.getLocationCoordinates(this);
+        WeatherLocation location = new WeatherLocation(coords[0], coords[1]);
+        if (location.equals(mObservedLocation)) return;
+
+        if (mWeatherLiveData != null) {
+            mWeatherLiveData.removeObservers(this);
+            mWeatherList = null;
+            showLoading();
         }
+        mObservedLocation = location;
+
+        /* Fetching today's normalized date to query data from database */
+        long date = getNormalizedUtcNow();
+
+        mWeatherLiveData = mDb.weatherDao().loadWeatherDataForTodayOnwards(location.getLatitude(),
+                location.getLongitude(), date);
+        mWeatherLiveData.observe(this, weathers -> {
+                    if (weathers == null || weathers.size() == 0) {
+                        SunshineSyncUtils.startImmediateSync(this);
+                    } else {
+                        presentWeather(weathers);
+                    }
+                }
+        );
+    }
+
+    /*
+     * Reads and formats the snapshot on the main thread: it's a handful of rows from a memory
+     * mapped file, and doing it here lets them appear in the very first frame.
+     */
+    private void showForecastSnapshot() {
+        double[] coords = SunshinePreferences.getLocationCoordinates(this);
+        List<Weather> weathers = ForecastSnapshot.read(this,
+                new WeatherLocation(coords[0], coords[1]),
+                SunshineDateUtils.normalizeDate(System.currentTimeMillis()));
+        if (weathers == null || weathers.isEmpty()) return;
+
+        mWeatherList = weathers;
+        mForecastAdapter.setRows(ForecastRowModel.fromWeatherList(this, weathers));
+        showWeatherDataView();
+    }
+
+    /**
+     * Formats the weather into list rows on a background thread and hands them to the adapter
+     * once they are ready.
+     *
+     * @param weathers The weather to display
+     */
+    private void presentWeather(final List<Weather> weathers) {
+        mWeatherList = weathers;
+        final int generation = ++mRowsGeneration;
+        final Context appContext = getApplicationContext();
+        final AppExecutors executors = AppExecutors.getInstance();
+
+        /* The user is looking at an empty or outdated list, so this runs ahead of other disk work */
+        executors.diskIO().execute(AppExecutors.TASK_FORECAST_ROWS,
+                InstrumentedExecutor.PRIORITY_USER, () -> {
+                    final List<ForecastRowModel> rows =
+                            ForecastRowModel.fromWeatherList(appContext, weathers);
+                    executors.mainThread().execute(() -> {
+                        if (generation != mRowsGeneration || isFinishing()) return;
+                        mForecastAdapter.setRows(rows);
+                        showWeatherDataView();
+                    });
+                });
+    }
+
+    /* Lets us read Sunshine's counters and sync history with "adb shell dumpsys activity <component>" */
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        writer.print(prefix);
+        writer.println("Metrics:");
+        SunshineMetrics.dump(prefix + "  ", writer);
+        writer.print(prefix);
+        writer.println("Sync telemetry:");
+        SyncTelemetry.dump(this, prefix + "  ", writer);
+        writer.print(prefix);
+        writer.println("Sync schedule:");
+        AdaptiveSyncScheduler.dump(this, prefix + "  ", writer);
+        writer.print(prefix);
+        writer.println("API quota:");
+        QuotaGovernor.dump(this, prefix + "  ", writer);
+        writer.print(prefix);
+        writer.println("Endpoints:");
+        NetworkUtils.dump(prefix + "  ", writer);
+        writer.print(prefix);
+        writer.println("Executors:");
+        AppExecutors.getInstance().dump(prefix + "  ", writer);
+        writer.print(prefix);
+        writer.println("Query plans:");
+        mDb.dumpQueryPlans(prefix + "  ", writer);
+        writer.print(prefix);
+        writer.println("Archive:");
+        mDb.dumpArchive(prefix + "  ", writer);
+        writer.print(prefix);
+        writer.println("Climate:");
+        mDb.dumpClimate(prefix + "  ", writer);
     }
 }
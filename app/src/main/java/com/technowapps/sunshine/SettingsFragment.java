@@ -23,28 +23,39 @@ import android.widget.Toast;
 
 import androidx.annotation.NonNull;
 import androidx.preference.CheckBoxPreference;
+import androidx.preference.EditTextPreference;
 import androidx.preference.ListPreference;
+import androidx.preference.MultiSelectListPreference;
 import androidx.preference.Preference;
 import androidx.preference.PreferenceFragmentCompat;
+import androidx.preference.PreferenceManager;
 import androidx.preference.PreferenceScreen;
 
 import com.example.android.sunshine.R;
+import com.technowapps.sunshine.data.GeocodeCache;
+import com.technowapps.sunshine.data.GeocodeEntry;
 import com.technowapps.sunshine.data.SunshinePreferences;
+import com.technowapps.sunshine.data.WeatherLocation;
 import com.technowapps.sunshine.sync.SunshineSyncUtils;
 import com.technowapps.sunshine.utilities.AppExecutors;
 import com.technowapps.sunshine.utilities.NetworkUtils;
+import com.technowapps.sunshine.utilities.OpenWeatherJsonUtils;
+import com.technowapps.sunshine.utilities.TaskHandle;
 
-import org.json.JSONArray;
 import org.json.JSONException;
-import org.json.JSONObject;
 
 import java.net.URL;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
 
 /**
  * The SettingsFragment serves as the display for all of the user's settings. In Sunshine, the
  * user will be able to change their preference for units of measurement from metric to imperial,
  * set their preferred weather location, and indicate whether or not they'd like to see
- * notifications.
+ * notifications. They can also watch other locations, whose forecasts every sync refreshes too,
+ * and choose how many forecasts a sync downloads at once.
  * <p>
  * Please note: If you are using our dummy weather services, the location returned will always be
  * Mountain View, California.
@@ -52,6 +63,16 @@ import java.net.URL;
 public class SettingsFragment extends PreferenceFragmentCompat implements
         Preference.OnPreferenceChangeListener {
 
+    /*
+     * Cancelling a lookup can't stop one that is already past its network call, so each location
+     * change takes a new generation and only the latest one may write the preferences.
+     */
+    private static final Object LOCATION_CHANGE_LOCK = new Object();
+    private static long sLocationChangeGeneration;
+
+    /* The location lookup currently running in the background, if any */
+    private TaskHandle mPendingLocationChange;
+
 
 
 
@@ -85,11 +106,40 @@ public class SettingsFragment extends PreferenceFragmentCompat implements
             Preference p = prefScreen.getPreference(i);
             p.setOnPreferenceChangeListener(this);
 
-            if (!(p instanceof CheckBoxPreference)) {
+            /* The watch list preferences describe themselves; they have no single value to show */
+            if (!(p instanceof CheckBoxPreference) && !(p instanceof MultiSelectListPreference)
+                    && p.isPersistent()) {
                 String value = sharedPreferences.getString(p.getKey(), "");
                 setPreferenceSummary(p, value);
             }
         }
+        refreshWatchList();
+    }
+
+    /**
+     * Lists the watched locations by the names they were added under, all of them ticked.
+     */
+    private void refreshWatchList() {
+        MultiSelectListPreference preference =
+                findPreference(getString(R.string.pref_watch_list_key));
+        if (preference == null) return;
+
+        List<WeatherLocation> watchList = SunshinePreferences.getWatchList(requireContext());
+        CharSequence[] labels = new CharSequence[watchList.size()];
+        CharSequence[] keys = new CharSequence[watchList.size()];
+        Set<String> values = new HashSet<>();
+        for (int i = 0; i < watchList.size(); i++) {
+            labels[i] = SunshinePreferences.getWatchListLabel(requireContext(), watchList.get(i));
+            keys[i] = watchList.get(i).toKey();
+            values.add(watchList.get(i).toKey());
+        }
+        preference.setEntries(labels);
+        preference.setEntryValues(keys);
+        preference.setValues(values);
+        preference.setEnabled(!watchList.isEmpty());
+        preference.setSummary(watchList.isEmpty()
+                ? getString(R.string.pref_watch_list_empty)
+                : getString(R.string.pref_watch_list_summary, watchList.size()));
     }
 
 
@@ -101,26 +151,90 @@ public class SettingsFragment extends PreferenceFragmentCompat implements
 
         if (key.equals(getString(R.string.pref_location_key))) {
 
-            try {
-
-                fetchAndStoreLonLat(activity, newValue.toString());
-                SunshineSyncUtils.startImmediateSync(activity);
-
-            } catch (Exception e) {
+            /*
+             * Resolving a location takes a network round-trip, so we don't block the UI waiting
+             * for it. The change is rejected for now; once the location has been geocoded and
+             * stored in the background, the new value is set on the preference from the main
+             * thread. A newer location replaces any lookup still in flight, and leaving the
+             * screen drops it.
+             */
+            if (mPendingLocationChange != null) {
+                mPendingLocationChange.cancel();
+            }
 
-                if (e instanceof JSONException) {
-                    Toast.makeText(activity, "Invalid Location", Toast.LENGTH_SHORT).show();
-                } else {
-                    Toast.makeText(activity, "An error has occurred.", Toast.LENGTH_SHORT).show();
+            final Context appContext = activity.getApplicationContext();
+            final String newLocation = newValue.toString();
+            final long generation;
+            synchronized (LOCATION_CHANGE_LOCK) {
+                generation = ++sLocationChangeGeneration;
+            }
+            mPendingLocationChange = AppExecutors.getInstance().fetchResultInBackground(this,
+                    AppExecutors.TASK_LOCATION_CHANGE,
+                    () -> changeLocation(appContext, key, newLocation, generation),
+                    new AppExecutors.ResultCallback<GeocodeEntry>() {
+                        @Override
+                        public void onResult(GeocodeEntry result) {
+                            mPendingLocationChange = null;
+                            ((EditTextPreference) preference).setText(newLocation);
+                            setPreferenceSummary(preference, newLocation);
+                        }
+
+                        @Override
+                        public void onError(Exception e) {
+                            mPendingLocationChange = null;
+                            if (e instanceof JSONException) {
+                                Toast.makeText(appContext, "Invalid Location", Toast.LENGTH_SHORT).show();
+                            } else {
+                                Toast.makeText(appContext, "An error has occurred.", Toast.LENGTH_SHORT).show();
+                            }
+                        }
+                    });
+
+            /* Returning false so the preference is only saved once the location has been validated */
+            return false;
 
+        }
+        if (key.equals(getString(R.string.pref_watch_add_key))) {
+
+            /* Geocoded in the background like the preferred location, then added to the watch list */
+            final Context appContext = activity.getApplicationContext();
+            final String watchedLocation = newValue.toString().trim();
+            if (watchedLocation.isEmpty()) return false;
+
+            AppExecutors.getInstance().fetchResultInBackground(this,
+                    AppExecutors.TASK_LOCATION_CHANGE,
+                    () -> watchLocation(appContext, watchedLocation),
+                    new AppExecutors.ResultCallback<GeocodeEntry>() {
+                        @Override
+                        public void onResult(GeocodeEntry result) {
+                            refreshWatchList();
+                        }
+
+                        @Override
+                        public void onError(Exception e) {
+                            if (e instanceof JSONException) {
+                                Toast.makeText(appContext, "Invalid Location", Toast.LENGTH_SHORT).show();
+                            } else {
+                                Toast.makeText(appContext, "An error has occurred.", Toast.LENGTH_SHORT).show();
+                            }
+                        }
+                    });
+
+            /* The text field only collects the name; the watch list itself is stored elsewhere */
+            return false;
+        }
+        if (key.equals(getString(R.string.pref_watch_list_key))) {
+
+            /* Every location the user unticked stops being watched; the next sync drops its rows */
+            @SuppressWarnings("unchecked")
+            Set<String> keptKeys = (Set<String>) newValue;
+            for (WeatherLocation location : SunshinePreferences.getWatchList(activity)) {
+                if (!keptKeys.contains(location.toKey())) {
+                    SunshinePreferences.removeLocationFromWatchList(activity, location);
                 }
-                /* Returning false to avoid saving preference when it is invalid or an error has occurred*/
-                return false;
             }
-
-
-        } else if(key.equals(getString(R.string.pref_units_key))){
-            SunshinePreferences.isMetricChanged = true;
+            refreshWatchList();
+            return false;
         }
         if (!(preference instanceof CheckBoxPreference)) {
             setPreferenceSummary(preference, newValue);
@@ -128,23 +242,76 @@ public class SettingsFragment extends PreferenceFragmentCompat implements
         return true;
     }
 
-    public static void fetchAndStoreLonLat(Context context, String newLocation) throws Exception {
-
-        URL urlForLonLat = NetworkUtils.getUrlForLongLatQuery(context, newLocation);
+    /**
+     * Geocodes the new location, stores its coordinates along with the location itself and
+     * starts a sync for it. Runs on a background thread.
+     *
+     * @param context     Used to access the geocode cache, the network and SharedPreferences
+     * @param key         Key of the location preference
+     * @param newLocation The location typed by the user
+     * @param generation  The location change this lookup belongs to
+     * @return The coordinates the location resolved to
+     * @throws Exception JSONException if the location couldn't be resolved, IOException if the
+     *                   lookup failed, CancellationException if a newer location was typed since
+     */
+    private static GeocodeEntry changeLocation(Context context, String key, String newLocation,
+                                               long generation) throws Exception {
+
+        GeocodeEntry geocode = geocode(context, newLocation);
 
         /*
-         * Using fetchResultInBackgroundAndReturnResultOnMainThread() method to perform query on background thread and get result
-         * on main thread, and based on that result we will decide that whether we have to save preference or not
+         * Storing the latitude and longitude, and the location itself, in shared preferences. The
+         * location is saved here rather than on the main thread so it never disagrees with the
+         * stored coordinates, even if the screen goes away before the result is delivered. A
+         * lookup that was superseded while it waited on the network writes nothing.
          */
-        String response = AppExecutors.getInstance().fetchResultInBackgroundAndReturnResultOnMainThread(urlForLonLat);
+        synchronized (LOCATION_CHANGE_LOCK) {
+            if (generation != sLocationChangeGeneration) {
+                throw new CancellationException("Superseded by a newer location");
+            }
+            SunshinePreferences.setLocationDetails(context, geocode.getLatitude(),
+                    geocode.getLongitude());
+            PreferenceManager.getDefaultSharedPreferences(context).edit()
+                    .putString(key, newLocation)
+                    .apply();
+        }
 
-        /* Destructuring the result response and then storing the latitude and longitude in shared preferences */
-        JSONArray returnedArray = new JSONArray(response);
-        JSONObject geologicalResponseJson = returnedArray.getJSONObject(0);
-        double lat = Double.parseDouble(geologicalResponseJson.getString("lat"));
-        double lon = Double.parseDouble(geologicalResponseJson.getString("lon"));
-        SunshinePreferences.setLocationDetails(context, lat, lon);
+        SunshineSyncUtils.startImmediateSync(context);
 
+        return geocode;
+    }
+
+    /**
+     * Geocodes a location and adds it to the watch list, then starts a sync so its forecast is
+     * fetched. Runs on a background thread.
+     *
+     * @param context  Used to access the geocode cache, the network and SharedPreferences
+     * @param location The location typed by the user
+     * @return The coordinates the location resolved to
+     * @throws Exception JSONException if the location couldn't be resolved, IOException if the
+     *                   lookup failed
+     */
+    private static GeocodeEntry watchLocation(Context context, String location) throws Exception {
+        GeocodeEntry geocode = geocode(context, location);
+        SunshinePreferences.addLocationToWatchList(context,
+                new WeatherLocation(geocode.getLatitude(), geocode.getLongitude()), location);
+        SunshineSyncUtils.startImmediateSync(context);
+        return geocode;
+    }
+
+    /*
+     * Locations that were resolved before come straight from the geocode cache; only new ones
+     * are sent to the geocoding API.
+     */
+    private static GeocodeEntry geocode(Context context, String location) throws Exception {
+        GeocodeCache geocodeCache = GeocodeCache.getInstance(context);
+        GeocodeEntry geocode = geocodeCache.lookup(location);
+        if (geocode == null) {
+            URL urlForLonLat = NetworkUtils.getUrlForLongLatQuery(context, location);
+            String response = NetworkUtils.getResponseFromHttpUrl(context, urlForLonLat, true);
+            geocode = OpenWeatherJsonUtils.getGeocodeEntryFromJson(geocodeCache, location, response);
+        }
+        return geocode;
     }
 
 
@@ -0,0 +1,135 @@
+package com.technowapps.sunshine.data;
+
+import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.ForeignKey;
+
+import com.technowapps.sunshine.utilities.SunshineMetrics;
+
+import java.util.Calendar;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * A month of archived weather for one location, packed by {@link ArchiveBlockCodec}. The
+ * compaction moves months out of {@link ArchivedWeather} rows into blocks once they are over.
+ * <p>
+ * The block's row count and temperature range are kept as plain columns, so a query can skip
+ * whole months without decoding them.
+ */
+@Entity(tableName = "archive_block",
+        primaryKeys = {"location_id", "month_start"},
+        foreignKeys = {@ForeignKey(entity = LocationEntry.class, parentColumns = "id",
+                childColumns = "location_id", onDelete = ForeignKey.CASCADE)})
+public class ArchiveBlock {
+
+    /* This constructor will be used by Room */
+    public ArchiveBlock(long mLocationId, long mMonthStart, int mResolution, int mRowCount, double mMinTemp, double mMaxTemp, @NonNull byte[] mEncoded) {
+        this.mLocationId = mLocationId;
+        this.mMonthStart = mMonthStart;
+        this.mResolution = mResolution;
+        this.mRowCount = mRowCount;
+        this.mMinTemp = mMinTemp;
+        this.mMaxTemp = mMaxTemp;
+        this.mEncoded = mEncoded;
+    }
+
+    @ColumnInfo(name = "location_id")
+    private long mLocationId;
+
+    /* Normalized UTC date of the first day of the month */
+    @ColumnInfo(name = "month_start")
+    private long mMonthStart;
+
+    /* The coarsest resolution of the rows in the block, one of ArchivedWeather's constants */
+    @ColumnInfo(name = "resolution")
+    private int mResolution;
+
+    @ColumnInfo(name = "row_count")
+    private int mRowCount;
+
+    /* Lowest low and highest high of the month */
+    @ColumnInfo(name = "min_temp")
+    private double mMinTemp;
+
+    @ColumnInfo(name = "max_temp")
+    private double mMaxTemp;
+
+    @NonNull
+    @ColumnInfo(name = "encoded")
+    private byte[] mEncoded;
+
+    public long getLocationId() {
+        return mLocationId;
+    }
+
+    public long getMonthStart() {
+        return mMonthStart;
+    }
+
+    public int getResolution() {
+        return mResolution;
+    }
+
+    public int getRowCount() {
+        return mRowCount;
+    }
+
+    public double getMinTemp() {
+        return mMinTemp;
+    }
+
+    public double getMaxTemp() {
+        return mMaxTemp;
+    }
+
+    @NonNull
+    public byte[] getEncoded() {
+        return mEncoded;
+    }
+
+    /**
+     * Packs a month of rows into a block.
+     *
+     * @param locationId The location the rows belong to
+     * @param monthStart Normalized UTC date of the first day of the month
+     * @param rows       Rows of that month, in date order; must not be empty
+     * @return The block
+     */
+    static ArchiveBlock encode(long locationId, long monthStart, List<ArchivedWeather> rows) {
+        int resolution = ArchivedWeather.RESOLUTION_DAY;
+        double min = Double.MAX_VALUE;
+        double max = -Double.MAX_VALUE;
+        for (ArchivedWeather row : rows) {
+            resolution = Math.max(resolution, row.getResolution());
+            min = Math.min(min, row.getMinTemp());
+            max = Math.max(max, row.getMaxTemp());
+        }
+        return new ArchiveBlock(locationId, monthStart, resolution, rows.size(), min, max,
+                ArchiveBlockCodec.encode(monthStart, rows));
+    }
+
+    /**
+     * @return The rows of the block, column by column
+     */
+    public ArchiveSeries decode() {
+        long started = System.nanoTime();
+        ArchiveSeries series = ArchiveBlockCodec.decode(mMonthStart, mEncoded);
+        SunshineMetrics.add(SunshineMetrics.ARCHIVE_BLOCK_ROWS_DECODED, series.size());
+        SunshineMetrics.add(SunshineMetrics.ARCHIVE_BLOCK_DECODE_NANOS,
+                System.nanoTime() - started);
+        return series;
+    }
+
+    /**
+     * @param date A normalized UTC date
+     * @return Normalized UTC date of the first day of the date's month
+     */
+    public static long monthOf(long date) {
+        Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        calendar.setTimeInMillis(date);
+        calendar.set(Calendar.DAY_OF_MONTH, 1);
+        return calendar.getTimeInMillis();
+    }
+}
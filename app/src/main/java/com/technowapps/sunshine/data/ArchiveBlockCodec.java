@@ -0,0 +1,209 @@
+package com.technowapps.sunshine.data;
+
+import com.technowapps.sunshine.utilities.SunshineDateUtils;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Encodes a month of archived rows for one location into a compact byte array, and back.
+ * <p>
+ * The rows are stored column by column rather than row by row. Values are first turned into
+ * integers: dates into days since the epoch, and measurements into fixed point at the precision
+ * OpenWeatherMap reports them with. Each value is then stored as the difference from the one
+ * before it in its column, zigzag encoded so small negative differences stay small, and written
+ * as a varint. Consecutive days differ little, so most values take a single byte.
+ * <pre>
+ *   version (1) | row count (varint) | dates | resolutions | weather IDs | lows | highs
+ *   | humidities | pressures | winds | degrees
+ * </pre>
+ */
+final class ArchiveBlockCodec {
+
+    /* Bump whenever the layout changes */
+    private static final int VERSION = 1;
+
+    /* Fixed point scales: hundredths of a degree and of a m/s, tenths of a hPa and a degree */
+    private static final int TEMPERATURE_SCALE = 100;
+    private static final int PRESSURE_SCALE = 10;
+    private static final int WIND_SCALE = 100;
+    private static final int DEGREES_SCALE = 10;
+
+    /*
+     * Size of the same row's values stored plainly: location ID and date (8 each), resolution,
+     * weather ID and humidity (4 each) and five doubles (40). SQLite adds its own record header
+     * and primary key index on top, so this flatters plain rows.
+     */
+    static final int PLAIN_ROW_BYTES = 68;
+
+    private ArchiveBlockCodec() {
+    }
+
+    /**
+     * @param monthStart Normalized UTC date of the first day of the block's month
+     * @param rows       The rows of the month, in date order
+     * @return The encoded block
+     */
+    static byte[] encode(long monthStart, List<ArchivedWeather> rows) {
+        int count = rows.size();
+        long[] column = new long[count];
+        /* Most values take one byte; a couple of spare bytes per row avoids growing the buffer */
+        Output out = new Output(16 + count * 12);
+        out.writeByte(VERSION);
+        out.writeVarint(count);
+
+        for (int i = 0; i < count; i++) column[i] = toDay(rows.get(i).getDate());
+        out.writeDeltas(column, toDay(monthStart));
+        for (int i = 0; i < count; i++) column[i] = rows.get(i).getResolution();
+        out.writeDeltas(column, 0);
+        for (int i = 0; i < count; i++) column[i] = rows.get(i).getWeatherIdFromServer();
+        out.writeDeltas(column, 0);
+        for (int i = 0; i < count; i++) {
+            column[i] = Math.round(rows.get(i).getMinTemp() * TEMPERATURE_SCALE);
+        }
+        out.writeDeltas(column, 0);
+        for (int i = 0; i < count; i++) {
+            column[i] = Math.round(rows.get(i).getMaxTemp() * TEMPERATURE_SCALE);
+        }
+        out.writeDeltas(column, 0);
+        for (int i = 0; i < count; i++) column[i] = rows.get(i).getHumidity();
+        out.writeDeltas(column, 0);
+        for (int i = 0; i < count; i++) {
+            column[i] = Math.round(rows.get(i).getPressure() * PRESSURE_SCALE);
+        }
+        out.writeDeltas(column, 0);
+        for (int i = 0; i < count; i++) {
+            column[i] = Math.round(rows.get(i).getSpeed() * WIND_SCALE);
+        }
+        out.writeDeltas(column, 0);
+        for (int i = 0; i < count; i++) {
+            column[i] = Math.round(rows.get(i).getMeteorologicalDegrees() * DEGREES_SCALE);
+        }
+        out.writeDeltas(column, 0);
+
+        return out.toByteArray();
+    }
+
+    /**
+     * @param monthStart Normalized UTC date of the first day of the block's month
+     * @param encoded    A block written by {@link #encode}
+     * @return The rows of the block, column by column
+     * @throws IllegalStateException If the block isn't one this version can read
+     */
+    static ArchiveSeries decode(long monthStart, byte[] encoded) {
+        Input in = new Input(encoded);
+        int version = in.readByte();
+        if (version != VERSION) {
+            throw new IllegalStateException("Unknown archive block version " + version);
+        }
+
+        int count = (int) in.readVarint();
+        ArchiveSeries series = new ArchiveSeries(count);
+
+        long[] dates = series.getDates();
+        long day = toDay(monthStart);
+        for (int i = 0; i < count; i++) {
+            day += in.readSigned();
+            dates[i] = day * SunshineDateUtils.DAY_IN_MILLIS;
+        }
+        in.readInts(series.getResolutions());
+        in.readInts(series.getWeatherIds());
+        in.readScaled(series.getMinTemps(), TEMPERATURE_SCALE);
+        in.readScaled(series.getMaxTemps(), TEMPERATURE_SCALE);
+        in.readInts(series.getHumidities());
+        in.readScaled(series.getPressures(), PRESSURE_SCALE);
+        in.readScaled(series.getWinds(), WIND_SCALE);
+        in.readScaled(series.getDegrees(), DEGREES_SCALE);
+        return series;
+    }
+
+    private static long toDay(long normalizedUtcDate) {
+        return normalizedUtcDate / SunshineDateUtils.DAY_IN_MILLIS;
+    }
+
+    /* A byte array that grows as varints are appended to it */
+    private static final class Output {
+        private byte[] mBytes;
+        private int mSize;
+
+        Output(int capacity) {
+            mBytes = new byte[capacity];
+        }
+
+        void writeByte(int b) {
+            if (mSize == mBytes.length) {
+                mBytes = Arrays.copyOf(mBytes, mBytes.length * 2);
+            }
+            mBytes[mSize++] = (byte) b;
+        }
+
+        void writeVarint(long value) {
+            while ((value & ~0x7FL) != 0) {
+                writeByte((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            writeByte((int) value);
+        }
+
+        /* Writes each value as the zigzag encoded difference from the one before it */
+        void writeDeltas(long[] column, long first) {
+            long previous = first;
+            for (long value : column) {
+                long delta = value - previous;
+                writeVarint((delta << 1) ^ (delta >> 63));
+                previous = value;
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(mBytes, mSize);
+        }
+    }
+
+    private static final class Input {
+        private final byte[] mBytes;
+        private int mPosition;
+
+        Input(byte[] bytes) {
+            mBytes = bytes;
+        }
+
+        int readByte() {
+            if (mPosition >= mBytes.length) {
+                throw new IllegalStateException("Archive block is truncated");
+            }
+            return mBytes[mPosition++] & 0xFF;
+        }
+
+        long readVarint() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return value;
+            }
+            throw new IllegalStateException("Malformed varint in archive block");
+        }
+
+        long readSigned() {
+            long zigzag = readVarint();
+            return (zigzag >>> 1) ^ -(zigzag & 1);
+        }
+
+        void readInts(int[] column) {
+            long value = 0;
+            for (int i = 0; i < column.length; i++) {
+                value += readSigned();
+                column[i] = (int) value;
+            }
+        }
+
+        void readScaled(double[] column, int scale) {
+            long value = 0;
+            for (int i = 0; i < column.length; i++) {
+                value += readSigned();
+                column[i] = value / (double) scale;
+            }
+        }
+    }
+}
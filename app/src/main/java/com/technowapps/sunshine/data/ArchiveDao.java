@@ -0,0 +1,183 @@
+package com.technowapps.sunshine.data;
+
+
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
+import androidx.room.Query;
+import androidx.room.Transaction;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+@Dao
+public interface ArchiveDao {
+
+    /* Kept as a constant so WeatherDatabase#dumpQueryPlans can show how SQLite runs it */
+    String QUERY_ARCHIVE_RANGE = "SELECT * FROM weather_archive WHERE location_id = :locationId "
+            + "AND date >= :fromDate AND date < :toDate ORDER BY date";
+
+    /**
+     * Reads a location's rows between two dates in a single scan of the primary key index. Only
+     * the months not yet packed into blocks are still rows; see {@link #loadArchivedHistory}.
+     *
+     * @param locationId The location, from {@link LocationDao}
+     * @param fromDate   Normalized UTC date of the first day, inclusive
+     * @param toDate     Normalized UTC date of the last day, exclusive
+     * @return The archived rows in date order, daily or weekly depending on their age
+     */
+    @Query(QUERY_ARCHIVE_RANGE)
+    List<ArchivedWeather> loadArchive(long locationId, long fromDate, long toDate);
+
+    @Query("SELECT * FROM weather_archive WHERE location_id = :locationId "
+            + "AND date < :beforeDate ORDER BY date")
+    List<ArchivedWeather> loadArchiveBefore(long locationId, long beforeDate);
+
+    @Query("SELECT DISTINCT location_id FROM weather_archive "
+            + "UNION SELECT DISTINCT location_id FROM archive_block")
+    List<Long> loadArchivedLocationIds();
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void insertArchive(List<ArchivedWeather> archive);
+
+    @Query("DELETE FROM weather_archive WHERE location_id = :locationId AND date < :beforeDate")
+    int deleteArchiveBefore(long locationId, long beforeDate);
+
+    @Query("DELETE FROM weather_archive WHERE date < :beforeDate")
+    int deleteArchiveBefore(long beforeDate);
+
+    /* Kept as a constant so WeatherDatabase#dumpQueryPlans can show how SQLite runs it */
+    String QUERY_BLOCK_RANGE = "SELECT * FROM archive_block WHERE location_id = :locationId "
+            + "AND month_start >= :fromMonth AND month_start < :toDate ORDER BY month_start";
+
+    /**
+     * @param locationId The location, from {@link LocationDao}
+     * @param fromMonth  First day of the first month, inclusive
+     * @param toDate     Normalized UTC date of the last day, exclusive
+     * @return The blocks of the months overlapping the range, in date order
+     */
+    @Query(QUERY_BLOCK_RANGE)
+    List<ArchiveBlock> loadBlocks(long locationId, long fromMonth, long toDate);
+
+    /**
+     * Finds the months in which a location's temperature went outside the given range. The
+     * months that stayed inside it are ruled out from their block's header columns alone.
+     *
+     * @param locationId The location, from {@link LocationDao}
+     * @param low        Lowest temperature considered normal, in degrees Celsius
+     * @param high       Highest temperature considered normal, in degrees Celsius
+     * @return The blocks of those months, in date order
+     */
+    @Query("SELECT * FROM archive_block WHERE location_id = :locationId "
+            + "AND (min_temp < :low OR max_temp > :high) ORDER BY month_start")
+    List<ArchiveBlock> loadBlocksOutside(long locationId, double low, double high);
+
+    @Query("SELECT * FROM archive_block WHERE location_id = :locationId "
+            + "AND month_start < :beforeMonth AND resolution = " + ArchivedWeather.RESOLUTION_DAY
+            + " ORDER BY month_start")
+    List<ArchiveBlock> loadDailyBlocksBefore(long locationId, long beforeMonth);
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void insertBlock(ArchiveBlock block);
+
+    @Query("DELETE FROM archive_block WHERE month_start < :beforeMonth")
+    int deleteBlocksBefore(long beforeMonth);
+
+    /**
+     * Reads a location's history between two dates, from its blocks and from the rows not yet
+     * packed into one.
+     *
+     * @param locationId The location, from {@link LocationDao}
+     * @param fromDate   Normalized UTC date of the first day, inclusive
+     * @param toDate     Normalized UTC date of the last day, exclusive
+     * @return The archived rows in date order, daily or weekly depending on their age
+     */
+    @Transaction
+    default List<ArchivedWeather> loadArchivedHistory(long locationId, long fromDate,
+                                                      long toDate) {
+        List<ArchivedWeather> history = new ArrayList<>();
+        for (ArchiveBlock block : loadBlocks(locationId, ArchiveBlock.monthOf(fromDate), toDate)) {
+            for (ArchivedWeather row : block.decode().toArchivedWeather(locationId)) {
+                if (row.getDate() >= fromDate && row.getDate() < toDate) history.add(row);
+            }
+        }
+        /* Rows are only packed once their month is over, so they all come after the blocks */
+        history.addAll(loadArchive(locationId, fromDate, toDate));
+        return history;
+    }
+
+    /**
+     * Packs a location's rows of every month that ended before the given date into one block per
+     * month, in a single transaction, and deletes the packed rows. A month that already has a
+     * block, because a sync archived a late day, is merged into it.
+     *
+     * @param locationId The location to pack
+     * @param packBefore Months ending before the month of this date are packed
+     * @return The number of rows packed
+     */
+    @Transaction
+    default int packArchive(long locationId, long packBefore) {
+        long monthBoundary = ArchiveBlock.monthOf(packBefore);
+        List<ArchivedWeather> rows = loadArchiveBefore(locationId, monthBoundary);
+        if (rows.isEmpty()) return 0;
+
+        int monthStart = 0;
+        for (int i = 1; i <= rows.size(); i++) {
+            long month = ArchiveBlock.monthOf(rows.get(monthStart).getDate());
+            if (i < rows.size() && ArchiveBlock.monthOf(rows.get(i).getDate()) == month) continue;
+
+            /* Rows already in the block win; the archive never rewrites a day */
+            TreeMap<Long, ArchivedWeather> merged = new TreeMap<>();
+            for (ArchiveBlock block : loadBlocks(locationId, month, month + 1)) {
+                for (ArchivedWeather row : block.decode().toArchivedWeather(locationId)) {
+                    merged.put(row.getDate(), row);
+                }
+            }
+            for (ArchivedWeather row : rows.subList(monthStart, i)) {
+                if (!merged.containsKey(row.getDate())) merged.put(row.getDate(), row);
+            }
+            insertBlock(ArchiveBlock.encode(locationId, month,
+                    new ArrayList<>(merged.values())));
+            monthStart = i;
+        }
+
+        return deleteArchiveBefore(locationId, monthBoundary);
+    }
+
+    /**
+     * Downsamples a location's daily blocks for months before the given date into one row per
+     * week, in a single transaction. A week that straddles two months is split between their
+     * blocks, each part dated from the first day of its own month.
+     * <p>
+     * A week keeps its lowest low and highest high, the averages of humidity, pressure and wind,
+     * the average wind direction and its most severe condition.
+     *
+     * @param locationId       The location to compact
+     * @param downsampleBefore Months ending before the month of this date are merged into weeks
+     * @return The number of daily rows merged
+     */
+    @Transaction
+    default int compactArchive(long locationId, long downsampleBefore) {
+        int merged = 0;
+        for (ArchiveBlock block : loadDailyBlocksBefore(locationId,
+                ArchiveBlock.monthOf(downsampleBefore))) {
+            List<ArchivedWeather> days = block.decode().toArchivedWeather(locationId);
+            List<ArchivedWeather> weeks = new ArrayList<>();
+            int weekStart = 0;
+            for (int i = 1; i <= days.size(); i++) {
+                if (i == days.size() || ArchivedWeather.weekOf(days.get(i).getDate())
+                        != ArchivedWeather.weekOf(days.get(weekStart).getDate())) {
+                    ArchivedWeather week = ArchivedWeather.mergeWeek(days.subList(weekStart, i));
+                    week.setDate(Math.max(week.getDate(), block.getMonthStart()));
+                    weeks.add(week);
+                    weekStart = i;
+                }
+            }
+
+            insertBlock(ArchiveBlock.encode(locationId, block.getMonthStart(), weeks));
+            merged += days.size();
+        }
+        return merged;
+    }
+}
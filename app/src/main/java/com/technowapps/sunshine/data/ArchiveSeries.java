@@ -0,0 +1,89 @@
+package com.technowapps.sunshine.data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The rows of one archive block, decoded column by column into primitive arrays. Scanning a
+ * column, for example every high of a month, touches only that array and creates no objects.
+ * <p>
+ * The getters return the arrays themselves, not copies; callers must not modify them.
+ */
+public final class ArchiveSeries {
+
+    private final long[] mDates;
+    private final int[] mResolutions;
+    private final int[] mWeatherIds;
+    private final double[] mMinTemps;
+    private final double[] mMaxTemps;
+    private final int[] mHumidities;
+    private final double[] mPressures;
+    private final double[] mWinds;
+    private final double[] mDegrees;
+
+    ArchiveSeries(int size) {
+        mDates = new long[size];
+        mResolutions = new int[size];
+        mWeatherIds = new int[size];
+        mMinTemps = new double[size];
+        mMaxTemps = new double[size];
+        mHumidities = new int[size];
+        mPressures = new double[size];
+        mWinds = new double[size];
+        mDegrees = new double[size];
+    }
+
+    public int size() {
+        return mDates.length;
+    }
+
+    public long[] getDates() {
+        return mDates;
+    }
+
+    public int[] getResolutions() {
+        return mResolutions;
+    }
+
+    public int[] getWeatherIds() {
+        return mWeatherIds;
+    }
+
+    public double[] getMinTemps() {
+        return mMinTemps;
+    }
+
+    public double[] getMaxTemps() {
+        return mMaxTemps;
+    }
+
+    public int[] getHumidities() {
+        return mHumidities;
+    }
+
+    public double[] getPressures() {
+        return mPressures;
+    }
+
+    public double[] getWinds() {
+        return mWinds;
+    }
+
+    public double[] getDegrees() {
+        return mDegrees;
+    }
+
+    /**
+     * @param locationId The location the block belongs to
+     * @return The series as archive rows, for code that needs whole rows rather than columns
+     */
+    public List<ArchivedWeather> toArchivedWeather(long locationId) {
+        List<ArchivedWeather> rows = new ArrayList<>(mDates.length);
+        for (int i = 0; i < mDates.length; i++) {
+            rows.add(new ArchivedWeather(locationId, mDates[i], mResolutions[i], mWeatherIds[i],
+                    mMinTemps[i], mMaxTemps[i], mHumidities[i], mPressures[i], mWinds[i],
+                    mDegrees[i]));
+        }
+        return rows;
+    }
+}
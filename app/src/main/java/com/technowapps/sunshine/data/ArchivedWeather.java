@@ -0,0 +1,203 @@
+package com.technowapps.sunshine.data;
+
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.ForeignKey;
+
+import com.technowapps.sunshine.utilities.SunshineDateUtils;
+import com.technowapps.sunshine.utilities.WeatherConditionTable;
+
+import java.util.List;
+
+/**
+ * A past day, or once compacted a past week, of weather for one location. Rows are only ever
+ * added, downsampled or expired, never rewritten by a sync.
+ * <p>
+ * The primary key is (location_id, date), so its index keeps each location's history in date
+ * order and any range of it is read in a single index scan.
+ */
+@Entity(tableName = "weather_archive",
+        primaryKeys = {"location_id", "date"},
+        foreignKeys = {@ForeignKey(entity = LocationEntry.class, parentColumns = "id",
+                childColumns = "location_id", onDelete = ForeignKey.CASCADE)})
+public class ArchivedWeather {
+
+    /* Number of days a row covers */
+    public static final int RESOLUTION_DAY = 1;
+    public static final int RESOLUTION_WEEK = 7;
+
+    /* Compaction merges daily rows into weeks starting at multiples of a week since the epoch */
+    static final long WEEK_IN_MILLIS = RESOLUTION_WEEK * SunshineDateUtils.DAY_IN_MILLIS;
+
+    /* This constructor will be used by Room */
+    public ArchivedWeather(long mLocationId, long mDate, int mResolution, int mWeatherIdFromServer, double mMinTemp, double mMaxTemp, int mHumidity, double mPressure, double mSpeed, double mMeteorologicalDegrees) {
+        this.mLocationId = mLocationId;
+        this.mDate = mDate;
+        this.mResolution = mResolution;
+        this.mWeatherIdFromServer = mWeatherIdFromServer;
+        this.mMinTemp = mMinTemp;
+        this.mMaxTemp = mMaxTemp;
+        this.mHumidity = mHumidity;
+        this.mPressure = mPressure;
+        this.mSpeed = mSpeed;
+        this.mMeteorologicalDegrees = mMeteorologicalDegrees;
+    }
+
+    @ColumnInfo(name = "location_id")
+    private long mLocationId;
+
+    /* Normalized UTC date of the first day the row covers */
+    @ColumnInfo(name = "date")
+    private long mDate;
+
+    /* One of the RESOLUTION_ constants */
+    @ColumnInfo(name = "resolution")
+    private int mResolution;
+
+    @ColumnInfo(name = "weather_id")
+    private int mWeatherIdFromServer;
+
+    @ColumnInfo(name = "min")
+    private double mMinTemp;
+
+    @ColumnInfo(name = "max")
+    private double mMaxTemp;
+
+    @ColumnInfo(name = "humidity")
+    private int mHumidity;
+
+    @ColumnInfo(name = "pressure")
+    private double mPressure;
+
+    @ColumnInfo(name = "wind")
+    private double mSpeed;
+
+    @ColumnInfo(name = "degrees")
+    private double mMeteorologicalDegrees;
+
+    public long getLocationId() {
+        return mLocationId;
+    }
+
+    public void setLocationId(long mLocationId) {
+        this.mLocationId = mLocationId;
+    }
+
+    public long getDate() {
+        return mDate;
+    }
+
+    public void setDate(long mDate) {
+        this.mDate = mDate;
+    }
+
+    public int getResolution() {
+        return mResolution;
+    }
+
+    public void setResolution(int mResolution) {
+        this.mResolution = mResolution;
+    }
+
+    public int getWeatherIdFromServer() {
+        return mWeatherIdFromServer;
+    }
+
+    public void setWeatherIdFromServer(int mWeatherIdFromServer) {
+        this.mWeatherIdFromServer = mWeatherIdFromServer;
+    }
+
+    public double getMinTemp() {
+        return mMinTemp;
+    }
+
+    public void setMinTemp(double mMinTemp) {
+        this.mMinTemp = mMinTemp;
+    }
+
+    public double getMaxTemp() {
+        return mMaxTemp;
+    }
+
+    public void setMaxTemp(double mMaxTemp) {
+        this.mMaxTemp = mMaxTemp;
+    }
+
+    public int getHumidity() {
+        return mHumidity;
+    }
+
+    public void setHumidity(int mHumidity) {
+        this.mHumidity = mHumidity;
+    }
+
+    public double getPressure() {
+        return mPressure;
+    }
+
+    public void setPressure(double mPressure) {
+        this.mPressure = mPressure;
+    }
+
+    public double getSpeed() {
+        return mSpeed;
+    }
+
+    public void setSpeed(double mSpeed) {
+        this.mSpeed = mSpeed;
+    }
+
+    public double getMeteorologicalDegrees() {
+        return mMeteorologicalDegrees;
+    }
+
+    public void setMeteorologicalDegrees(double mMeteorologicalDegrees) {
+        this.mMeteorologicalDegrees = mMeteorologicalDegrees;
+    }
+
+    /**
+     * @param date A normalized UTC date
+     * @return The start of the compaction week the date falls into
+     */
+    static long weekOf(long date) {
+        return date - date % WEEK_IN_MILLIS;
+    }
+
+    /**
+     * Merges the days of one compaction week into a single weekly row.
+     *
+     * @param days Daily rows of one location, all in the same week
+     * @return The weekly row
+     */
+    static ArchivedWeather mergeWeek(List<ArchivedWeather> days) {
+        double min = Double.MAX_VALUE;
+        double max = -Double.MAX_VALUE;
+        double humidity = 0;
+        double pressure = 0;
+        double wind = 0;
+        /* Directions are averaged as vectors, so 350° and 10° give 0° rather than 180° */
+        double windX = 0;
+        double windY = 0;
+        int weatherId = days.get(0).getWeatherIdFromServer();
+
+        for (ArchivedWeather day : days) {
+            min = Math.min(min, day.getMinTemp());
+            max = Math.max(max, day.getMaxTemp());
+            humidity += day.getHumidity();
+            pressure += day.getPressure();
+            wind += day.getSpeed();
+            windX += Math.cos(Math.toRadians(day.getMeteorologicalDegrees()));
+            windY += Math.sin(Math.toRadians(day.getMeteorologicalDegrees()));
+            if (WeatherConditionTable.getSeverity(day.getWeatherIdFromServer())
+                    > WeatherConditionTable.getSeverity(weatherId)) {
+                weatherId = day.getWeatherIdFromServer();
+            }
+        }
+
+        int count = days.size();
+        double degrees = (Math.toDegrees(Math.atan2(windY, windX)) + 360) % 360;
+        return new ArchivedWeather(days.get(0).getLocationId(), weekOf(days.get(0).getDate()),
+                RESOLUTION_WEEK, weatherId, min, max,
+                (int) Math.round(humidity / count), pressure / count, wind / count, degrees);
+    }
+}
@@ -0,0 +1,392 @@
+package com.technowapps.sunshine.data;
+
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.ForeignKey;
+import androidx.room.Ignore;
+
+import com.technowapps.sunshine.utilities.SunshineDateUtils;
+
+/**
+ * Running statistics of one location's weather over one week or month, kept up to date by
+ * {@link WeatherDao#mergeWeatherData} as days are inserted or revised, and by
+ * {@link WeatherDao#retainWeatherDataOf} as a dropped location's forecast days are deleted. Trend
+ * screens read one of these per period instead of every day in it.
+ * <p>
+ * Each measurement keeps its count, sum, sum of squares, min and max, so the mean and standard
+ * deviation can be derived and a revised day can be taken back out of the sums. Temperature
+ * sums use each day's midpoint between low and high; its min and max are the lowest low and the
+ * highest high.
+ */
+@Entity(tableName = "climate_aggregate",
+        primaryKeys = {"location_id", "period", "period_start"},
+        foreignKeys = {@ForeignKey(entity = LocationEntry.class, parentColumns = "id",
+                childColumns = "location_id", onDelete = ForeignKey.CASCADE)})
+public class ClimateAggregate {
+
+    /* Length of the period a row covers */
+    public static final int PERIOD_WEEK = 1;
+    public static final int PERIOD_MONTH = 2;
+
+    static final int[] PERIODS = {PERIOD_WEEK, PERIOD_MONTH};
+
+    /* This constructor will be used by Room */
+    public ClimateAggregate(long mLocationId, int mPeriod, long mPeriodStart, int mDayCount, double mTempSum, double mTempSumOfSquares, double mTempMin, double mTempMax, double mHumiditySum, double mHumiditySumOfSquares, double mHumidityMin, double mHumidityMax, double mPressureSum, double mPressureSumOfSquares, double mPressureMin, double mPressureMax, double mWindSum, double mWindSumOfSquares, double mWindMin, double mWindMax) {
+        this.mLocationId = mLocationId;
+        this.mPeriod = mPeriod;
+        this.mPeriodStart = mPeriodStart;
+        this.mDayCount = mDayCount;
+        this.mTempSum = mTempSum;
+        this.mTempSumOfSquares = mTempSumOfSquares;
+        this.mTempMin = mTempMin;
+        this.mTempMax = mTempMax;
+        this.mHumiditySum = mHumiditySum;
+        this.mHumiditySumOfSquares = mHumiditySumOfSquares;
+        this.mHumidityMin = mHumidityMin;
+        this.mHumidityMax = mHumidityMax;
+        this.mPressureSum = mPressureSum;
+        this.mPressureSumOfSquares = mPressureSumOfSquares;
+        this.mPressureMin = mPressureMin;
+        this.mPressureMax = mPressureMax;
+        this.mWindSum = mWindSum;
+        this.mWindSumOfSquares = mWindSumOfSquares;
+        this.mWindMin = mWindMin;
+        this.mWindMax = mWindMax;
+    }
+
+    /* This constructor will be used by us, for a period with no days yet */
+    @Ignore
+    public ClimateAggregate(long mLocationId, int mPeriod, long mPeriodStart) {
+        this(mLocationId, mPeriod, mPeriodStart, 0,
+                0, 0, Double.MAX_VALUE, -Double.MAX_VALUE,
+                0, 0, Double.MAX_VALUE, -Double.MAX_VALUE,
+                0, 0, Double.MAX_VALUE, -Double.MAX_VALUE,
+                0, 0, Double.MAX_VALUE, -Double.MAX_VALUE);
+    }
+
+    @ColumnInfo(name = "location_id")
+    private long mLocationId;
+
+    /* One of the PERIOD_ constants */
+    @ColumnInfo(name = "period")
+    private int mPeriod;
+
+    /* Normalized UTC date of the first day of the period */
+    @ColumnInfo(name = "period_start")
+    private long mPeriodStart;
+
+    @ColumnInfo(name = "day_count")
+    private int mDayCount;
+
+    @ColumnInfo(name = "temp_sum")
+    private double mTempSum;
+
+    @ColumnInfo(name = "temp_sum_sq")
+    private double mTempSumOfSquares;
+
+    @ColumnInfo(name = "temp_min")
+    private double mTempMin;
+
+    @ColumnInfo(name = "temp_max")
+    private double mTempMax;
+
+    @ColumnInfo(name = "humidity_sum")
+    private double mHumiditySum;
+
+    @ColumnInfo(name = "humidity_sum_sq")
+    private double mHumiditySumOfSquares;
+
+    @ColumnInfo(name = "humidity_min")
+    private double mHumidityMin;
+
+    @ColumnInfo(name = "humidity_max")
+    private double mHumidityMax;
+
+    @ColumnInfo(name = "pressure_sum")
+    private double mPressureSum;
+
+    @ColumnInfo(name = "pressure_sum_sq")
+    private double mPressureSumOfSquares;
+
+    @ColumnInfo(name = "pressure_min")
+    private double mPressureMin;
+
+    @ColumnInfo(name = "pressure_max")
+    private double mPressureMax;
+
+    @ColumnInfo(name = "wind_sum")
+    private double mWindSum;
+
+    @ColumnInfo(name = "wind_sum_sq")
+    private double mWindSumOfSquares;
+
+    @ColumnInfo(name = "wind_min")
+    private double mWindMin;
+
+    @ColumnInfo(name = "wind_max")
+    private double mWindMax;
+
+    /* Set when a removed day held one of the extremes, which then have to be recomputed */
+    @Ignore
+    private boolean mExtremesStale;
+
+    public long getLocationId() {
+        return mLocationId;
+    }
+
+    public int getPeriod() {
+        return mPeriod;
+    }
+
+    public long getPeriodStart() {
+        return mPeriodStart;
+    }
+
+    public int getDayCount() {
+        return mDayCount;
+    }
+
+    public double getTempSum() {
+        return mTempSum;
+    }
+
+    public double getTempSumOfSquares() {
+        return mTempSumOfSquares;
+    }
+
+    public double getTempMin() {
+        return mTempMin;
+    }
+
+    public double getTempMax() {
+        return mTempMax;
+    }
+
+    public double getHumiditySum() {
+        return mHumiditySum;
+    }
+
+    public double getHumiditySumOfSquares() {
+        return mHumiditySumOfSquares;
+    }
+
+    public double getHumidityMin() {
+        return mHumidityMin;
+    }
+
+    public double getHumidityMax() {
+        return mHumidityMax;
+    }
+
+    public double getPressureSum() {
+        return mPressureSum;
+    }
+
+    public double getPressureSumOfSquares() {
+        return mPressureSumOfSquares;
+    }
+
+    public double getPressureMin() {
+        return mPressureMin;
+    }
+
+    public double getPressureMax() {
+        return mPressureMax;
+    }
+
+    public double getWindSum() {
+        return mWindSum;
+    }
+
+    public double getWindSumOfSquares() {
+        return mWindSumOfSquares;
+    }
+
+    public double getWindMin() {
+        return mWindMin;
+    }
+
+    public double getWindMax() {
+        return mWindMax;
+    }
+
+    public double getMeanTemp() {
+        return mean(mTempSum);
+    }
+
+    public double getTempStandardDeviation() {
+        return standardDeviation(mTempSum, mTempSumOfSquares);
+    }
+
+    public double getMeanHumidity() {
+        return mean(mHumiditySum);
+    }
+
+    public double getHumidityStandardDeviation() {
+        return standardDeviation(mHumiditySum, mHumiditySumOfSquares);
+    }
+
+    public double getMeanPressure() {
+        return mean(mPressureSum);
+    }
+
+    public double getPressureStandardDeviation() {
+        return standardDeviation(mPressureSum, mPressureSumOfSquares);
+    }
+
+    public double getMeanWind() {
+        return mean(mWindSum);
+    }
+
+    public double getWindStandardDeviation() {
+        return standardDeviation(mWindSum, mWindSumOfSquares);
+    }
+
+    /**
+     * @return Normalized UTC date of the first day after the period
+     */
+    public long getPeriodEnd() {
+        if (mPeriod == PERIOD_WEEK) return mPeriodStart + ArchivedWeather.WEEK_IN_MILLIS;
+        /* Every month is shorter than 32 days, so this always lands in the next one */
+        return ArchiveBlock.monthOf(mPeriodStart + 31 * SunshineDateUtils.DAY_IN_MILLIS);
+    }
+
+    /**
+     * @param period One of the PERIOD_ constants
+     * @param date   A normalized UTC date
+     * @return The start of the period of that length the date falls into
+     */
+    static long periodStart(int period, long date) {
+        return period == PERIOD_WEEK ? ArchivedWeather.weekOf(date) : ArchiveBlock.monthOf(date);
+    }
+
+    void add(Weather day) {
+        add(day.getMinTemp(), day.getMaxTemp(), day.getHumidity(), day.getPressure(),
+                day.getSpeed());
+    }
+
+    /**
+     * Adds one day to the statistics.
+     */
+    void add(double low, double high, double humidity, double pressure, double wind) {
+        double temp = (low + high) / 2;
+        mDayCount++;
+        mTempSum += temp;
+        mTempSumOfSquares += temp * temp;
+        mTempMin = Math.min(mTempMin, low);
+        mTempMax = Math.max(mTempMax, high);
+        mHumiditySum += humidity;
+        mHumiditySumOfSquares += humidity * humidity;
+        mHumidityMin = Math.min(mHumidityMin, humidity);
+        mHumidityMax = Math.max(mHumidityMax, humidity);
+        mPressureSum += pressure;
+        mPressureSumOfSquares += pressure * pressure;
+        mPressureMin = Math.min(mPressureMin, pressure);
+        mPressureMax = Math.max(mPressureMax, pressure);
+        mWindSum += wind;
+        mWindSumOfSquares += wind * wind;
+        mWindMin = Math.min(mWindMin, wind);
+        mWindMax = Math.max(mWindMax, wind);
+    }
+
+    /**
+     * Takes a day previously added back out of the statistics, before its revised values are
+     * added or once the day is deleted. Sums can be undone; an extreme can't, so if the day held
+     * one, {@link #hasStaleExtremes()} turns true and the caller recomputes them.
+     */
+    void remove(Weather day) {
+        double low = day.getMinTemp();
+        double high = day.getMaxTemp();
+        double humidity = day.getHumidity();
+        double pressure = day.getPressure();
+        double wind = day.getSpeed();
+        double temp = (low + high) / 2;
+
+        mDayCount--;
+        mTempSum -= temp;
+        mTempSumOfSquares -= temp * temp;
+        mHumiditySum -= humidity;
+        mHumiditySumOfSquares -= humidity * humidity;
+        mPressureSum -= pressure;
+        mPressureSumOfSquares -= pressure * pressure;
+        mWindSum -= wind;
+        mWindSumOfSquares -= wind * wind;
+
+        if (low <= mTempMin || high >= mTempMax
+                || humidity <= mHumidityMin || humidity >= mHumidityMax
+                || pressure <= mPressureMin || pressure >= mPressureMax
+                || wind <= mWindMin || wind >= mWindMax) {
+            mExtremesStale = true;
+        }
+    }
+
+    boolean hasStaleExtremes() {
+        return mExtremesStale;
+    }
+
+    void setExtremes(Extremes extremes) {
+        mTempMin = extremes.mTempMin;
+        mTempMax = extremes.mTempMax;
+        mHumidityMin = extremes.mHumidityMin;
+        mHumidityMax = extremes.mHumidityMax;
+        mPressureMin = extremes.mPressureMin;
+        mPressureMax = extremes.mPressureMax;
+        mWindMin = extremes.mWindMin;
+        mWindMax = extremes.mWindMax;
+        mExtremesStale = false;
+    }
+
+    private double mean(double sum) {
+        return mDayCount == 0 ? 0 : sum / mDayCount;
+    }
+
+    private double standardDeviation(double sum, double sumOfSquares) {
+        if (mDayCount == 0) return 0;
+        double mean = sum / mDayCount;
+        /* Rounding in the running sums can take the variance just below zero */
+        return Math.sqrt(Math.max(0, sumOfSquares / mDayCount - mean * mean));
+    }
+
+    /**
+     * The extremes of a period, recomputed from its days by
+     * {@link WeatherDao#loadClimateExtremes}.
+     */
+    public static class Extremes {
+
+        /* This constructor will be used by Room */
+        public Extremes(double mTempMin, double mTempMax, double mHumidityMin, double mHumidityMax, double mPressureMin, double mPressureMax, double mWindMin, double mWindMax) {
+            this.mTempMin = mTempMin;
+            this.mTempMax = mTempMax;
+            this.mHumidityMin = mHumidityMin;
+            this.mHumidityMax = mHumidityMax;
+            this.mPressureMin = mPressureMin;
+            this.mPressureMax = mPressureMax;
+            this.mWindMin = mWindMin;
+            this.mWindMax = mWindMax;
+        }
+
+        @ColumnInfo(name = "temp_min")
+        private final double mTempMin;
+
+        @ColumnInfo(name = "temp_max")
+        private final double mTempMax;
+
+        @ColumnInfo(name = "humidity_min")
+        private final double mHumidityMin;
+
+        @ColumnInfo(name = "humidity_max")
+        private final double mHumidityMax;
+
+        @ColumnInfo(name = "pressure_min")
+        private final double mPressureMin;
+
+        @ColumnInfo(name = "pressure_max")
+        private final double mPressureMax;
+
+        @ColumnInfo(name = "wind_min")
+        private final double mWindMin;
+
+        @ColumnInfo(name = "wind_max")
+        private final double mWindMax;
+    }
+}
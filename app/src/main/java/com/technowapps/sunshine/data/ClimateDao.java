@@ -0,0 +1,33 @@
+package com.technowapps.sunshine.data;
+
+
+import androidx.room.Dao;
+import androidx.room.Query;
+
+import java.util.List;
+
+/*
+ * Read side of the climate aggregates. They are written by WeatherDao#mergeWeatherData and
+ * WeatherDao#retainWeatherDataOf, in the same transaction as the forecast they summarize.
+ */
+@Dao
+public interface ClimateDao {
+
+    /* Kept as a constant so WeatherDatabase#dumpQueryPlans can show how SQLite runs it */
+    String QUERY_CLIMATE_RANGE = "SELECT * FROM climate_aggregate WHERE location_id = :locationId "
+            + "AND period = :period AND period_start >= :fromDate AND period_start < :toDate "
+            + "ORDER BY period_start";
+
+    /**
+     * Reads a location's statistics, one row per period, in a single scan of the primary key
+     * index.
+     *
+     * @param locationId The location, from {@link LocationDao}
+     * @param period     One of the ClimateAggregate.PERIOD_ constants
+     * @param fromDate   Normalized UTC date; periods starting before it are left out
+     * @param toDate     Normalized UTC date; periods starting on or after it are left out
+     * @return The statistics of each period in date order
+     */
+    @Query(QUERY_CLIMATE_RANGE)
+    List<ClimateAggregate> loadClimate(long locationId, int period, long fromDate, long toDate);
+}
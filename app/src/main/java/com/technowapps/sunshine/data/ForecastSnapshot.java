@@ -0,0 +1,196 @@
+package com.technowapps.sunshine.data;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A small binary copy of the preferred location's forecast, written by the sync next to the
+ * database. Reading it only takes a memory map of a few hundred bytes, so MainActivity can show
+ * the forecast on a cold start without waiting for Room to open the database and run its query.
+ * <p>
+ * The file holds a header followed by one fixed-width record per day:
+ * <pre>
+ *   header: magic (4) | version (4) | latitude (8) | longitude (8) | record count (4)
+ *   record: date (8) | weather ID (4) | min (8) | max (8) | humidity (4) | pressure (8)
+ *           | wind (8) | degrees (8)
+ * </pre>
+ * The database remains the source of truth; the snapshot is only ever shown until Room delivers.
+ */
+public final class ForecastSnapshot {
+
+    private static final String TAG = ForecastSnapshot.class.getSimpleName();
+
+    private static final String FILE_NAME = "forecast.snapshot";
+    private static final String TEMP_FILE_NAME = FILE_NAME + ".tmp";
+
+    /* "SNFS", identifies a snapshot file */
+    private static final int MAGIC = 0x534E4653;
+    /* Bump whenever the layout of the header or the records changes */
+    private static final int VERSION = 1;
+
+    private static final int HEADER_BYTES = 28;
+    /* date (8) + weather ID (4) + 5 doubles (40) + humidity (4) */
+    public static final int RECORD_BYTES = 56;
+
+    /* Forecasts are a couple of weeks long; anything much bigger is not a file we wrote */
+    private static final int MAX_RECORDS = 64;
+
+    private ForecastSnapshot() {
+    }
+
+    /**
+     * Writes the values of a day's forecast (not its row ID) as one record.
+     *
+     * @param buffer  Where to write, must have {@link #RECORD_BYTES} remaining
+     * @param weather The day to write
+     */
+    public static void putRecord(ByteBuffer buffer, Weather weather) {
+        buffer.putLong(weather.getDate())
+                .putInt(weather.getWeatherIdFromServer())
+                .putDouble(weather.getMinTemp())
+                .putDouble(weather.getMaxTemp())
+                .putInt(weather.getHumidity())
+                .putDouble(weather.getPressure())
+                .putDouble(weather.getSpeed())
+                .putDouble(weather.getMeteorologicalDegrees());
+    }
+
+    private static Weather getRecord(ByteBuffer buffer) {
+        long date = buffer.getLong();
+        int weatherId = buffer.getInt();
+        double min = buffer.getDouble();
+        double max = buffer.getDouble();
+        int humidity = buffer.getInt();
+        double pressure = buffer.getDouble();
+        double wind = buffer.getDouble();
+        double degrees = buffer.getDouble();
+        return new Weather(date, weatherId, min, max, humidity, pressure, wind, degrees);
+    }
+
+    /**
+     * Checks the header of the snapshot without reading its records. A snapshot written for
+     * another location is of no use to this one, so the sync rewrites it when this is false.
+     *
+     * @param context  Used to find the app's files directory
+     * @param location The location the forecast should be for
+     * @return True if there is a valid snapshot for the given location
+     */
+    public static boolean isFor(Context context, WeatherLocation location) {
+        File file = new File(context.getFilesDir(), FILE_NAME);
+        if (!file.exists()) return false;
+
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+            return mapRecordsFor(randomAccessFile.getChannel(), location) != null;
+        } catch (IOException e) {
+            Log.e(TAG, "Couldn't read the forecast snapshot", e);
+            return false;
+        }
+    }
+
+    /**
+     * Replaces the snapshot with the given forecast. The new file is written and synced to disk
+     * under a temporary name, then renamed over the old one, so a reader sees either the old
+     * snapshot or the new one, never a partial file.
+     *
+     * @param context  Used to find the app's files directory
+     * @param location The location the forecast is for
+     * @param weathers The forecast, one entry per day
+     * @throws IOException If the snapshot couldn't be written
+     */
+    public static synchronized void write(Context context, WeatherLocation location,
+                                          Weather[] weathers) throws IOException {
+        int count = Math.min(weathers.length, MAX_RECORDS);
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + count * RECORD_BYTES);
+        buffer.putInt(MAGIC)
+                .putInt(VERSION)
+                .putDouble(location.getLatitude())
+                .putDouble(location.getLongitude())
+                .putInt(count);
+        for (int i = 0; i < count; i++) {
+            putRecord(buffer, weathers[i]);
+        }
+        buffer.flip();
+
+        File directory = context.getFilesDir();
+        File tempFile = new File(directory, TEMP_FILE_NAME);
+        try (FileOutputStream out = new FileOutputStream(tempFile)) {
+            FileChannel channel = out.getChannel();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            out.getFD().sync();
+        }
+
+        if (!tempFile.renameTo(new File(directory, FILE_NAME))) {
+            tempFile.delete();
+            throw new IOException("Couldn't replace " + FILE_NAME);
+        }
+    }
+
+    /**
+     * Reads the snapshot, if there is a valid one for the given location.
+     *
+     * @param context            Used to find the app's files directory
+     * @param location           The location the forecast should be for
+     * @param normalizedUtcToday Days before this date are left out
+     * @return The forecast from today onwards, or null if there is no usable snapshot
+     */
+    public static List<Weather> read(Context context, WeatherLocation location,
+                                     long normalizedUtcToday) {
+        File file = new File(context.getFilesDir(), FILE_NAME);
+        if (!file.exists()) return null;
+
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+            ByteBuffer buffer = mapRecordsFor(randomAccessFile.getChannel(), location);
+            if (buffer == null) return null;
+
+            int count = buffer.remaining() / RECORD_BYTES;
+            List<Weather> weathers = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                Weather weather = getRecord(buffer);
+                if (weather.getDate() >= normalizedUtcToday) {
+                    weathers.add(weather);
+                }
+            }
+            return weathers;
+        } catch (IOException e) {
+            Log.e(TAG, "Couldn't read the forecast snapshot", e);
+            return null;
+        }
+    }
+
+    /*
+     * Maps the file and checks its header against the location and its size against the record
+     * count. Returns the buffer positioned at the first record, or null if the file isn't a
+     * complete snapshot for the location.
+     */
+    private static ByteBuffer mapRecordsFor(FileChannel channel, WeatherLocation location)
+            throws IOException {
+        long size = channel.size();
+        if (size < HEADER_BYTES) return null;
+
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) return null;
+
+        WeatherLocation snapshotLocation =
+                new WeatherLocation(buffer.getDouble(), buffer.getDouble());
+        if (!snapshotLocation.equals(location)) return null;
+
+        int count = buffer.getInt();
+        if (count < 0 || count > MAX_RECORDS
+                || size != HEADER_BYTES + (long) count * RECORD_BYTES) {
+            return null;
+        }
+        return buffer;
+    }
+}
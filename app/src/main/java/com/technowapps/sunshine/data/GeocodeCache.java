@@ -0,0 +1,140 @@
+package com.technowapps.sunshine.data;
+
+import android.content.Context;
+import android.util.LruCache;
+
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers the coordinates of locations the user has typed before, so that only locations we
+ * have never resolved have to go to OpenWeatherMap's geocoding API.
+ * <p>
+ * Lookups go through three levels: an in-memory LRU of recent queries, the geocode table in the
+ * database for a query typed before, and finally the names the API gave every cached place, so
+ * "London" is found after "london, gb" was resolved. Only whole names match; a query that merely
+ * starts one ("spring" for "springfield") may well be another place, so it goes to the API.
+ * Entries older than {@link #ENTRY_TIME_TO_LIVE_MILLIS} are ignored and eventually deleted.
+ */
+public class GeocodeCache {
+
+    /* Places don't move, but the API's idea of the best match for a query might */
+    private static final long ENTRY_TIME_TO_LIVE_MILLIS = TimeUnit.DAYS.toMillis(30);
+
+    private static final int RECENT_LOOKUPS_SIZE = 32;
+
+    // For Singleton instantiation
+    private static final Object LOCK = new Object();
+    private static GeocodeCache sInstance;
+
+    private final GeocodeDao mGeocodeDao;
+    private final LruCache<String, GeocodeEntry> mRecentLookups =
+            new LruCache<>(RECENT_LOOKUPS_SIZE);
+    /* Normalized place names, each mapped to the most recently fetched entry with that name */
+    private final Map<String, GeocodeEntry> mPlaceNames = new HashMap<>();
+    private boolean mPlaceNamesLoaded;
+
+    @VisibleForTesting
+    GeocodeCache(GeocodeDao geocodeDao) {
+        mGeocodeDao = geocodeDao;
+    }
+
+    public static GeocodeCache getInstance(Context context) {
+        if (sInstance == null) {
+            synchronized (LOCK) {
+                if (sInstance == null) {
+                    sInstance = new GeocodeCache(WeatherDatabase.getInstance(context).geocodeDao());
+                }
+            }
+        }
+        return sInstance;
+    }
+
+    /**
+     * Looks up the coordinates of a location the user typed.
+     *
+     * @param query The location as typed by the user
+     * @return The cached entry, or null if the query has to be resolved by the API
+     */
+    @WorkerThread
+    public synchronized GeocodeEntry lookup(String query) {
+        String key = normalize(query);
+        long fetchedAfter = System.currentTimeMillis() - ENTRY_TIME_TO_LIVE_MILLIS;
+
+        GeocodeEntry entry = mRecentLookups.get(key);
+        if (entry != null && entry.getFetchedAt() >= fetchedAfter) {
+            return entry;
+        }
+
+        entry = mGeocodeDao.loadGeocode(key, fetchedAfter);
+        if (entry == null) {
+            loadPlaceNamesIfNeeded(fetchedAfter);
+            entry = mPlaceNames.get(key);
+            if (entry != null && entry.getFetchedAt() < fetchedAfter) {
+                entry = null;
+            }
+        }
+
+        if (entry != null) {
+            mRecentLookups.put(key, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Remembers what the API resolved a query to.
+     *
+     * @param query     The location as typed by the user
+     * @param placeName The name of the place returned by the API
+     * @param latitude  The latitude of the place
+     * @param longitude The longitude of the place
+     * @return The cached entry
+     */
+    @WorkerThread
+    public synchronized GeocodeEntry put(String query, String placeName, double latitude,
+                                         double longitude) {
+        String key = normalize(query);
+        GeocodeEntry entry = new GeocodeEntry(key, placeName, latitude, longitude,
+                System.currentTimeMillis());
+
+        mGeocodeDao.insertGeocode(entry);
+        mRecentLookups.put(key, entry);
+        index(entry);
+        return entry;
+    }
+
+    /*
+     * The place names are loaded from the database the first time they are needed. Expired entries
+     * are dropped from the database at the same time so the table doesn't grow without bound.
+     */
+    private void loadPlaceNamesIfNeeded(long fetchedAfter) {
+        if (mPlaceNamesLoaded) return;
+
+        mGeocodeDao.deleteGeocodesFetchedBefore(fetchedAfter);
+        mPlaceNames.clear();
+        for (GeocodeEntry entry : mGeocodeDao.loadAllGeocodes(fetchedAfter)) {
+            index(entry);
+        }
+        mPlaceNamesLoaded = true;
+    }
+
+    /* The query itself is found through the table, so only the place name needs indexing */
+    private void index(GeocodeEntry entry) {
+        if (entry.getPlaceName() == null) return;
+
+        String name = normalize(entry.getPlaceName());
+        GeocodeEntry indexed = mPlaceNames.get(name);
+        if (indexed == null || indexed.getFetchedAt() <= entry.getFetchedAt()) {
+            mPlaceNames.put(name, entry);
+        }
+    }
+
+    private static String normalize(String query) {
+        return query.trim().toLowerCase(Locale.ROOT);
+    }
+}
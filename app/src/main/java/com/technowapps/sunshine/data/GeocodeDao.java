@@ -0,0 +1,25 @@
+package com.technowapps.sunshine.data;
+
+
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
+import androidx.room.Query;
+
+import java.util.List;
+
+@Dao
+public interface GeocodeDao {
+
+    @Query("SELECT * FROM geocode WHERE `query` = :query AND fetched_at >= :fetchedAfter")
+    GeocodeEntry loadGeocode(String query, long fetchedAfter);
+
+    @Query("SELECT * FROM geocode WHERE fetched_at >= :fetchedAfter")
+    List<GeocodeEntry> loadAllGeocodes(long fetchedAfter);
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void insertGeocode(GeocodeEntry entry);
+
+    @Query("DELETE FROM geocode WHERE fetched_at < :fetchedBefore")
+    int deleteGeocodesFetchedBefore(long fetchedBefore);
+}
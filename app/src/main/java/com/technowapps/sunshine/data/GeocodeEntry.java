@@ -0,0 +1,83 @@
+package com.technowapps.sunshine.data;
+
+import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.PrimaryKey;
+
+/**
+ * A location query the user typed, and the coordinates OpenWeatherMap's geocoding API resolved it
+ * to.
+ */
+@Entity(tableName = "geocode")
+public class GeocodeEntry {
+
+    public GeocodeEntry(@NonNull String mQuery, String mPlaceName, double mLatitude, double mLongitude, long mFetchedAt) {
+        this.mQuery = mQuery;
+        this.mPlaceName = mPlaceName;
+        this.mLatitude = mLatitude;
+        this.mLongitude = mLongitude;
+        this.mFetchedAt = mFetchedAt;
+    }
+
+    /* The normalized query (trimmed and lower case) */
+    @NonNull
+    @ColumnInfo(name = "query")
+    @PrimaryKey
+    private String mQuery;
+
+    /* The name of the place as returned by the API, e.g. "London" */
+    @ColumnInfo(name = "name")
+    private String mPlaceName;
+
+    @ColumnInfo(name = "lat")
+    private double mLatitude;
+
+    @ColumnInfo(name = "lon")
+    private double mLongitude;
+
+    /* When the API resolved the query, in milliseconds since the epoch */
+    @ColumnInfo(name = "fetched_at")
+    private long mFetchedAt;
+
+    @NonNull
+    public String getQuery() {
+        return mQuery;
+    }
+
+    public void setQuery(@NonNull String mQuery) {
+        this.mQuery = mQuery;
+    }
+
+    public String getPlaceName() {
+        return mPlaceName;
+    }
+
+    public void setPlaceName(String mPlaceName) {
+        this.mPlaceName = mPlaceName;
+    }
+
+    public double getLatitude() {
+        return mLatitude;
+    }
+
+    public void setLatitude(double mLatitude) {
+        this.mLatitude = mLatitude;
+    }
+
+    public double getLongitude() {
+        return mLongitude;
+    }
+
+    public void setLongitude(double mLongitude) {
+        this.mLongitude = mLongitude;
+    }
+
+    public long getFetchedAt() {
+        return mFetchedAt;
+    }
+
+    public void setFetchedAt(long mFetchedAt) {
+        this.mFetchedAt = mFetchedAt;
+    }
+}
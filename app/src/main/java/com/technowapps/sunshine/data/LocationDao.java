@@ -0,0 +1,48 @@
+package com.technowapps.sunshine.data;
+
+
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
+import androidx.room.Query;
+import androidx.room.Transaction;
+
+import java.util.List;
+
+@Dao
+public interface LocationDao {
+
+    @Query("SELECT * FROM location")
+    List<LocationEntry> loadAllLocations();
+
+    @Query("SELECT id FROM location WHERE lat = :latitude AND lon = :longitude")
+    Long loadLocationId(double latitude, double longitude);
+
+    /**
+     * Returns the digest of the forecast last merged for a location.
+     *
+     * @param locationId The location
+     * @return The digest, or null if the location has no forecast stored
+     */
+    @Query("SELECT forecast_digest FROM location WHERE id = :locationId")
+    String loadForecastDigest(long locationId);
+
+    @Query("UPDATE location SET forecast_digest = :digest WHERE id = :locationId")
+    void updateForecastDigest(long locationId, String digest);
+
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    long insertLocation(LocationEntry entry);
+
+    /**
+     * Looks up the row of a location, adding one the first time the location is seen.
+     *
+     * @param location The location
+     * @return The ID weather rows for the location are stored under
+     */
+    @Transaction
+    default long getOrCreateLocationId(WeatherLocation location) {
+        Long id = loadLocationId(location.getLatitude(), location.getLongitude());
+        if (id != null) return id;
+        return insertLocation(new LocationEntry(location));
+    }
+}
@@ -0,0 +1,86 @@
+package com.technowapps.sunshine.data;
+
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.Ignore;
+import androidx.room.Index;
+import androidx.room.PrimaryKey;
+
+/**
+ * A place whose forecast is stored in the weather table: the preferred location or one on the
+ * watch list. Weather rows refer to it by ID, so each location keeps its own forecast.
+ * <p>
+ * Rows are never deleted, even once a location is no longer synced, so a location keeps the same
+ * ID, and its archived history, if the user picks it again.
+ * <p>
+ * The digest of the forecast last merged for the location is kept on its row and written in the
+ * same transaction as the forecast, so it can never outlive the rows it describes.
+ */
+@Entity(tableName = "location", indices = {@Index(value = {"lat", "lon"}, unique = true)})
+public class LocationEntry {
+
+    /* This constructor will be used by Room */
+    public LocationEntry(long mId, double mLatitude, double mLongitude, String mForecastDigest) {
+        this.mId = mId;
+        this.mLatitude = mLatitude;
+        this.mLongitude = mLongitude;
+        this.mForecastDigest = mForecastDigest;
+    }
+
+    /* This constructor will be used by us */
+    @Ignore
+    public LocationEntry(WeatherLocation location) {
+        this.mLatitude = location.getLatitude();
+        this.mLongitude = location.getLongitude();
+    }
+
+    @ColumnInfo(name = "id")
+    @PrimaryKey(autoGenerate = true)
+    private long mId;
+
+    @ColumnInfo(name = "lat")
+    private double mLatitude;
+
+    @ColumnInfo(name = "lon")
+    private double mLongitude;
+
+    /* Null until a forecast is merged, and again once the location's forecast is dropped */
+    @ColumnInfo(name = "forecast_digest")
+    private String mForecastDigest;
+
+    public long getId() {
+        return mId;
+    }
+
+    public void setId(long mId) {
+        this.mId = mId;
+    }
+
+    public double getLatitude() {
+        return mLatitude;
+    }
+
+    public void setLatitude(double mLatitude) {
+        this.mLatitude = mLatitude;
+    }
+
+    public double getLongitude() {
+        return mLongitude;
+    }
+
+    public void setLongitude(double mLongitude) {
+        this.mLongitude = mLongitude;
+    }
+
+    public String getForecastDigest() {
+        return mForecastDigest;
+    }
+
+    public void setForecastDigest(String mForecastDigest) {
+        this.mForecastDigest = mForecastDigest;
+    }
+
+    public WeatherLocation toWeatherLocation() {
+        return new WeatherLocation(mLatitude, mLongitude);
+    }
+}
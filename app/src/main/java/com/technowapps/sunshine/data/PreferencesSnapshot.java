@@ -0,0 +1,104 @@
+package com.technowapps.sunshine.data;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import com.example.android.sunshine.R;
+
+/**
+ * An immutable copy of the user's preferences, taken whenever they change. Code that runs often
+ * (binding list items, formatting temperatures) reads these fields instead of going through
+ * SharedPreferences and string resources on every call.
+ * <p>
+ * Every snapshot carries a version that increases each time the preferences are read again, so
+ * callers can tell cheaply whether anything changed since they last looked.
+ */
+public final class PreferencesSnapshot {
+
+    private final int mVersion;
+    private final boolean mIsMetric;
+    private final boolean mLocationLatLonAvailable;
+    private final double mLatitude;
+    private final double mLongitude;
+    private final boolean mNotificationsEnabled;
+    private final long mLastNotificationTimeMillis;
+
+    private PreferencesSnapshot(int version, boolean isMetric, boolean locationLatLonAvailable,
+                                double latitude, double longitude, boolean notificationsEnabled,
+                                long lastNotificationTimeMillis) {
+        mVersion = version;
+        mIsMetric = isMetric;
+        mLocationLatLonAvailable = locationLatLonAvailable;
+        mLatitude = latitude;
+        mLongitude = longitude;
+        mNotificationsEnabled = notificationsEnabled;
+        mLastNotificationTimeMillis = lastNotificationTimeMillis;
+    }
+
+    /**
+     * Reads every preference Sunshine cares about into a new snapshot.
+     *
+     * @param context Used to access SharedPreferences and the preference keys
+     * @param version Version of the new snapshot
+     * @return The snapshot
+     */
+    static PreferencesSnapshot read(Context context, int version) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+
+        String keyForUnits = context.getString(R.string.pref_units_key);
+        String metric = context.getString(R.string.pref_units_metric);
+        boolean isMetric = metric.equals(sp.getString(keyForUnits, metric));
+
+        boolean locationLatLonAvailable = sp.contains(SunshinePreferences.PREF_COORD_LAT)
+                && sp.contains(SunshinePreferences.PREF_COORD_LONG);
+
+        /*
+         * This is a hack we have to resort to since you can't store doubles in SharedPreferences.
+         * Double.longBitsToDouble converts the long written by SunshinePreferences back into the
+         * double itself.
+         */
+        double latitude = Double.longBitsToDouble(
+                sp.getLong(SunshinePreferences.PREF_COORD_LAT, Double.doubleToRawLongBits(0.0)));
+        double longitude = Double.longBitsToDouble(
+                sp.getLong(SunshinePreferences.PREF_COORD_LONG, Double.doubleToRawLongBits(0.0)));
+
+        boolean notificationsEnabled = sp.getBoolean(
+                context.getString(R.string.pref_enable_notifications_key),
+                context.getResources().getBoolean(R.bool.show_notifications_by_default));
+
+        long lastNotificationTimeMillis =
+                sp.getLong(context.getString(R.string.pref_last_notification), 0);
+
+        return new PreferencesSnapshot(version, isMetric, locationLatLonAvailable, latitude,
+                longitude, notificationsEnabled, lastNotificationTimeMillis);
+    }
+
+    public int getVersion() {
+        return mVersion;
+    }
+
+    public boolean isMetric() {
+        return mIsMetric;
+    }
+
+    public boolean isLocationLatLonAvailable() {
+        return mLocationLatLonAvailable;
+    }
+
+    public double getLatitude() {
+        return mLatitude;
+    }
+
+    public double getLongitude() {
+        return mLongitude;
+    }
+
+    public boolean areNotificationsEnabled() {
+        return mNotificationsEnabled;
+    }
+
+    public long getLastNotificationTimeMillis() {
+        return mLastNotificationTimeMillis;
+    }
+}
@@ -21,6 +21,12 @@ import android.preference.PreferenceManager;
 
 import com.example.android.sunshine.R;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
 public final class SunshinePreferences {
 
     /*
@@ -30,9 +36,73 @@ public final class SunshinePreferences {
      */
     public static final String PREF_COORD_LAT = "coord_lat";
     public static final String PREF_COORD_LONG = "coord_long";
+    /*
+     * Besides the preferred location, the user can keep a watch list of other places whose
+     * forecasts are refreshed with every sync. Each entry is stored as a "lat,lon" String. The
+     * name the user typed for each entry lives in its own file, keyed the same way, so the
+     * settings screen can show it. Same key as R.string.pref_watch_list_key.
+     */
+    public static final String PREF_WATCH_LIST = "watch_list";
+    private static final String WATCH_LIST_LABELS_FILE = "watch_list_labels";
+
+    /*
+     * Upper bound on the number of forecast requests a sync runs at the same time. Stored as a
+     * String by its ListPreference. Same key as R.string.pref_sync_concurrency_key.
+     */
+    public static final String PREF_SYNC_CONCURRENCY = "sync_concurrency";
+    private static final int DEFAULT_SYNC_CONCURRENCY = 4;
+
+    /* Bookkeeping of the sync itself, kept apart from the user's preferences */
+    private static final String SYNC_STATE_FILE = "sync_state";
+    private static final String KEY_FIRST_SYNC_FAILURE = "first_sync_failure";
+
     private static final String TAG = SunshinePreferences.class.getSimpleName();
 
-    public static boolean isMetricChanged = false;
+    // Guards the creation of new snapshots
+    private static final Object SNAPSHOT_LOCK = new Object();
+    private static volatile PreferencesSnapshot sSnapshot;
+    private static int sSnapshotVersion;
+
+    /*
+     * SharedPreferences only keeps a weak reference to its listeners, so we hold on to ours for
+     * the lifetime of the process.
+     */
+    private static SharedPreferences.OnSharedPreferenceChangeListener sSnapshotUpdater;
+
+    /**
+     * Returns the current snapshot of the user's preferences. The snapshot is replaced whenever a
+     * preference changes, so this is cheap enough to call from onBindViewHolder.
+     *
+     * @param context Used to read the preferences the first time
+     * @return The current snapshot
+     */
+    public static PreferencesSnapshot getSnapshot(Context context) {
+        PreferencesSnapshot snapshot = sSnapshot;
+        if (snapshot == null) {
+            synchronized (SNAPSHOT_LOCK) {
+                if (sSnapshot == null) {
+                    final Context appContext = context.getApplicationContext();
+                    sSnapshotUpdater = (sharedPreferences, key) -> refreshSnapshot(appContext);
+                    PreferenceManager.getDefaultSharedPreferences(appContext)
+                            .registerOnSharedPreferenceChangeListener(sSnapshotUpdater);
+                    refreshSnapshot(appContext);
+                }
+                snapshot = sSnapshot;
+            }
+        }
+        return snapshot;
+    }
+
+    /*
+     * Listeners are only told about changes on the main thread, after apply() has returned.
+     * Setters call this straight away so a background thread that writes a preference and then
+     * reads it back sees its own write.
+     */
+    private static void refreshSnapshot(Context context) {
+        synchronized (SNAPSHOT_LOCK) {
+            sSnapshot = PreferencesSnapshot.read(context, ++sSnapshotVersion);
+        }
+    }
 
     /**
      * Helper method to handle setting location details in Preferences (city name, latitude,
@@ -51,6 +121,7 @@ public final class SunshinePreferences {
         editor.putLong(PREF_COORD_LONG, Double.doubleToRawLongBits(lon));
 
         editor.apply();
+        refreshSnapshot(context.getApplicationContext());
     }
 
 
@@ -62,19 +133,7 @@ public final class SunshinePreferences {
      * @return true if metric display should be used, false if imperial display should be used
      */
     public static boolean isMetric(Context context) {
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
-
-        String keyForUnits = context.getString(R.string.pref_units_key);
-        String defaultUnits = context.getString(R.string.pref_units_metric);
-        String preferredUnits = sp.getString(keyForUnits, defaultUnits);
-        String metric = context.getString(R.string.pref_units_metric);
-
-        boolean userPrefersMetric = false;
-        if (metric.equals(preferredUnits)) {
-            userPrefersMetric = true;
-        }
-
-        return userPrefersMetric;
+        return getSnapshot(context).isMetric();
     }
 
     /**
@@ -86,26 +145,126 @@ public final class SunshinePreferences {
      * @return an array containing the two coordinate values for the user's preferred location
      */
     public static double[] getLocationCoordinates(Context context) {
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        PreferencesSnapshot snapshot = getSnapshot(context);
 
         double[] preferredCoordinates = new double[2];
-
-        /*
-         * This is a hack we have to resort to since you can't store doubles in SharedPreferences.
-         *
-         * Double.doubleToLongBits returns an integer corresponding to the bits of the given
-         * IEEE 754 double precision value.
-         *
-         * Double.longBitsToDouble does the opposite, converting a long (that represents a double)
-         * into the double itself.
-         */
-        preferredCoordinates[0] = Double
-                .longBitsToDouble(sp.getLong(PREF_COORD_LAT, Double.doubleToRawLongBits(0.0)));
-        preferredCoordinates[1] = Double
-                .longBitsToDouble(sp.getLong(PREF_COORD_LONG, Double.doubleToRawLongBits(0.0)));
+        preferredCoordinates[0] = snapshot.getLatitude();
+        preferredCoordinates[1] = snapshot.getLongitude();
         return preferredCoordinates;
     }
 
+    /**
+     * Returns every location a sync should fetch a forecast for. The user's preferred location
+     * always comes first, followed by the watch list in a stable order.
+     *
+     * @param context used to access SharedPreferences
+     * @return the preferred location followed by the watch list, without duplicates
+     */
+    public static List<WeatherLocation> getLocationsToSync(Context context) {
+        double[] preferredCoordinates = getLocationCoordinates(context);
+        WeatherLocation preferredLocation =
+                new WeatherLocation(preferredCoordinates[0], preferredCoordinates[1]);
+
+        List<WeatherLocation> watchList = getWatchList(context);
+        List<WeatherLocation> locations = new ArrayList<>(watchList.size() + 1);
+        locations.add(preferredLocation);
+        for (WeatherLocation location : watchList) {
+            if (!locations.contains(location)) {
+                locations.add(location);
+            }
+        }
+        return locations;
+    }
+
+    /**
+     * @param context used to access SharedPreferences
+     * @return the watched locations, in a stable order
+     */
+    public static List<WeatherLocation> getWatchList(Context context) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        List<String> keys = new ArrayList<>(
+                sp.getStringSet(PREF_WATCH_LIST, Collections.<String>emptySet()));
+        Collections.sort(keys);
+
+        List<WeatherLocation> watchList = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            WeatherLocation location = WeatherLocation.fromKey(key);
+            if (location != null) {
+                watchList.add(location);
+            }
+        }
+        return watchList;
+    }
+
+    /**
+     * Returns the name a watched location was added under.
+     *
+     * @param context  Context used to get the SharedPreferences
+     * @param location a location on the watch list
+     * @return the name the user typed, or the coordinates if there is none
+     */
+    public static String getWatchListLabel(Context context, WeatherLocation location) {
+        return context.getSharedPreferences(WATCH_LIST_LABELS_FILE, Context.MODE_PRIVATE)
+                .getString(location.toKey(), location.toKey());
+    }
+
+    /**
+     * Adds a location to the watch list so its forecast is refreshed along with the preferred
+     * location's.
+     *
+     * @param context  Context used to get the SharedPreferences
+     * @param location the location to watch
+     * @param label    the name to show for it in settings
+     */
+    public static void addLocationToWatchList(Context context, WeatherLocation location,
+                                              String label) {
+        context.getSharedPreferences(WATCH_LIST_LABELS_FILE, Context.MODE_PRIVATE).edit()
+                .putString(location.toKey(), label)
+                .apply();
+
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        /* The Set returned by getStringSet must not be modified, so we work on a copy */
+        Set<String> watchList = new HashSet<>(
+                sp.getStringSet(PREF_WATCH_LIST, Collections.<String>emptySet()));
+        if (watchList.add(location.toKey())) {
+            sp.edit().putStringSet(PREF_WATCH_LIST, watchList).apply();
+        }
+    }
+
+    /**
+     * Removes a location from the watch list.
+     *
+     * @param context  Context used to get the SharedPreferences
+     * @param location the location to stop watching
+     */
+    public static void removeLocationFromWatchList(Context context, WeatherLocation location) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        Set<String> watchList = new HashSet<>(
+                sp.getStringSet(PREF_WATCH_LIST, Collections.<String>emptySet()));
+        if (watchList.remove(location.toKey())) {
+            sp.edit().putStringSet(PREF_WATCH_LIST, watchList).apply();
+        }
+        context.getSharedPreferences(WATCH_LIST_LABELS_FILE, Context.MODE_PRIVATE).edit()
+                .remove(location.toKey())
+                .apply();
+    }
+
+    /**
+     * Returns how many forecast requests a sync may have in flight at once.
+     *
+     * @param context used to access SharedPreferences
+     * @return the maximum number of concurrent forecast requests, at least 1
+     */
+    public static int getSyncConcurrency(Context context) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        try {
+            return Math.max(1, Integer.parseInt(sp.getString(PREF_SYNC_CONCURRENCY,
+                    String.valueOf(DEFAULT_SYNC_CONCURRENCY))));
+        } catch (NumberFormatException e) {
+            return DEFAULT_SYNC_CONCURRENCY;
+        }
+    }
+
     /**
      * Returns true if the latitude and longitude values are available. The latitude and
      * longitude will not be available until the lesson where the PlacePicker API is taught.
@@ -114,16 +273,7 @@ public final class SunshinePreferences {
      * @return true if lat/long are saved in SharedPreferences
      */
     public static boolean isLocationLatLonAvailable(Context context) {
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
-
-        boolean spContainLatitude = sp.contains(PREF_COORD_LAT);
-        boolean spContainLongitude = sp.contains(PREF_COORD_LONG);
-
-        boolean spContainBothLatitudeAndLongitude = false;
-        if (spContainLatitude && spContainLongitude) {
-            spContainBothLatitudeAndLongitude = true;
-        }
-        return spContainBothLatitudeAndLongitude;
+        return getSnapshot(context).isLocationLatLonAvailable();
     }
 
     /**
@@ -134,26 +284,12 @@ public final class SunshinePreferences {
      * @return true if the user prefers to see notifications, false otherwise
      */
     public static boolean areNotificationsEnabled(Context context) {
-        /* Key for accessing the preference for showing notifications */
-        String displayNotificationsKey = context.getString(R.string.pref_enable_notifications_key);
-
         /*
          * In Sunshine, the user has the ability to say whether she would like notifications
-         * enabled or not. If no preference has been chosen, we want to be able to determine
-         * whether or not to show them. To do this, we reference a bool stored in bools.xml.
+         * enabled or not. If no preference has been chosen, the snapshot falls back to the bool
+         * stored in bools.xml.
          */
-        boolean shouldDisplayNotificationsByDefault = context
-                .getResources()
-                .getBoolean(R.bool.show_notifications_by_default);
-
-        /* As usual, we use the default SharedPreferences to access the user's preferences */
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
-
-        /* If a value is stored with the key, we extract it here. If not, use a default. */
-        boolean shouldDisplayNotifications = sp
-                .getBoolean(displayNotificationsKey, shouldDisplayNotificationsByDefault);
-
-        return shouldDisplayNotifications;
+        return getSnapshot(context).areNotificationsEnabled();
     }
 
     /**
@@ -163,24 +299,13 @@ public final class SunshinePreferences {
      * @return UNIX time of when the last notification was shown
      */
     public static long getLastNotificationTimeInMillis(Context context) {
-        /* Key for accessing the time at which Sunshine last displayed a notification */
-        String lastNotificationKey = context.getString(R.string.pref_last_notification);
-
-        /* As usual, we use the default SharedPreferences to access the user's preferences */
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
-
         /*
-         * Here, we retrieve the time in milliseconds when the last notification was shown. If
-         * SharedPreferences doesn't have a value for lastNotificationKey, we return 0. The reason
-         * we return 0 is because we compare the value returned from this method to the current
-         * system time. If the difference between the last notification time and the current time
-         * is greater than one day, we will show a notification again. When we compare the two
-         * values, we subtract the last notification time from the current system time. If the
-         * time of the last notification was 0, the difference will always be greater than the
+         * If no notification has been shown yet, the snapshot holds 0. The reason we use 0 is
+         * because we compare the value returned from this method to the current system time. If
+         * the time of the last notification was 0, the difference will always be greater than the
          * number of milliseconds in a day and we will show another notification.
          */
-        long lastNotificationTime = sp.getLong(lastNotificationKey, 0);
-        return lastNotificationTime;
+        return getSnapshot(context).getLastNotificationTimeMillis();
     }
 
     /**
@@ -211,5 +336,42 @@ public final class SunshinePreferences {
         String lastNotificationKey = context.getString(R.string.pref_last_notification);
         editor.putLong(lastNotificationKey, timeOfNotification);
         editor.apply();
+        refreshSnapshot(context.getApplicationContext());
+    }
+
+    /**
+     * Returns when syncs started failing, if the last sync failed.
+     *
+     * @param context Used to access SharedPreferences
+     * @return Time of the first failure since the last successful sync, 0 if the last sync worked
+     */
+    public static long getFirstSyncFailureTime(Context context) {
+        SharedPreferences sp =
+                context.getSharedPreferences(SYNC_STATE_FILE, Context.MODE_PRIVATE);
+        return sp.getLong(KEY_FIRST_SYNC_FAILURE, 0);
+    }
+
+    /**
+     * Saves when syncs started failing. Only the first failure of a run of failures is kept.
+     *
+     * @param context       Used to access SharedPreferences
+     * @param timeOfFailure Time of the failed sync
+     */
+    public static void saveFirstSyncFailureTime(Context context, long timeOfFailure) {
+        if (getFirstSyncFailureTime(context) != 0) return;
+        SharedPreferences sp =
+                context.getSharedPreferences(SYNC_STATE_FILE, Context.MODE_PRIVATE);
+        sp.edit().putLong(KEY_FIRST_SYNC_FAILURE, timeOfFailure).apply();
+    }
+
+    /**
+     * Forgets the first failure time, once a sync has worked again.
+     *
+     * @param context Used to access SharedPreferences
+     */
+    public static void clearFirstSyncFailureTime(Context context) {
+        SharedPreferences sp =
+                context.getSharedPreferences(SYNC_STATE_FILE, Context.MODE_PRIVATE);
+        sp.edit().remove(KEY_FIRST_SYNC_FAILURE).apply();
     }
-}
\ No newline at end of file
+}
@@ -2,17 +2,26 @@ package com.technowapps.sunshine.data;
 
 import androidx.room.ColumnInfo;
 import androidx.room.Entity;
+import androidx.room.ForeignKey;
 import androidx.room.Ignore;
 import androidx.room.Index;
 import androidx.room.PrimaryKey;
 
-@Entity(tableName = "weather", indices = {@Index(value = {"date"}, unique = true)})
+/*
+ * Each location has at most one row per day. The composite index also serves every query scoped
+ * to a location, and the foreign key check when rows are written.
+ */
+@Entity(tableName = "weather",
+        foreignKeys = {@ForeignKey(entity = LocationEntry.class, parentColumns = "id",
+                childColumns = "location_id", onDelete = ForeignKey.CASCADE)},
+        indices = {@Index(value = {"location_id", "date"}, unique = true)})
 
 public class Weather {
 
     /* This constructor will be used by Room */
-    public Weather(int mWeatherId, long mDate, int mWeatherIdFromServer, double mMinTemp, double mMaxTemp, int mHumidity, double mPressure, double mSpeed, double mMeteorologicalDegrees) {
+    public Weather(int mWeatherId, long mLocationId, long mDate, int mWeatherIdFromServer, double mMinTemp, double mMaxTemp, int mHumidity, double mPressure, double mSpeed, double mMeteorologicalDegrees) {
         this.mWeatherId = mWeatherId;
+        this.mLocationId = mLocationId;
         this.mDate = mDate;
         this.mWeatherIdFromServer = mWeatherIdFromServer;
         this.mMinTemp = mMinTemp;
@@ -40,6 +49,10 @@ public class Weather {
     @PrimaryKey(autoGenerate = true)
     private int mWeatherId;
 
+    /* The location the forecast is for; set when the row is merged into the table */
+    @ColumnInfo(name = "location_id")
+    private long mLocationId;
+
     @ColumnInfo(name = "date")
     private long mDate;
 
@@ -72,6 +85,14 @@ public class Weather {
         this.mWeatherId = mWeatherId;
     }
 
+    public long getLocationId() {
+        return mLocationId;
+    }
+
+    public void setLocationId(long mLocationId) {
+        this.mLocationId = mLocationId;
+    }
+
     public long getDate() {
         return mDate;
     }
@@ -135,4 +156,21 @@ public class Weather {
     public void setMeteorologicalDegrees(double mMeteorologicalDegrees) {
         this.mMeteorologicalDegrees = mMeteorologicalDegrees;
     }
+
+    /**
+     * Compares the forecast values of two rows, ignoring the row ID.
+     *
+     * @param other The row to compare with
+     * @return true if both rows hold the same forecast for the same day
+     */
+    public boolean hasSameValuesAs(Weather other) {
+        return mDate == other.mDate
+                && mWeatherIdFromServer == other.mWeatherIdFromServer
+                && Double.compare(mMinTemp, other.mMinTemp) == 0
+                && Double.compare(mMaxTemp, other.mMaxTemp) == 0
+                && mHumidity == other.mHumidity
+                && Double.compare(mPressure, other.mPressure) == 0
+                && Double.compare(mSpeed, other.mSpeed) == 0
+                && Double.compare(mMeteorologicalDegrees, other.mMeteorologicalDegrees) == 0;
+    }
 }
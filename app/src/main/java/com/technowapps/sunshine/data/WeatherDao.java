@@ -3,25 +3,263 @@ package com.technowapps.sunshine.data;
 
 import androidx.lifecycle.LiveData;
 import androidx.room.Dao;
+import androidx.room.Delete;
 import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
 import androidx.room.Query;
+import androidx.room.Transaction;
+import androidx.room.Update;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 @Dao
 public interface WeatherDao {
 
+    /*
+     * The SQL of the queries that run most often, kept as constants so
+     * WeatherDatabase#dumpQueryPlans can show how SQLite runs them.
+     *
+     * Dates are bound as longs, the type of the date column, so SQLite compares them directly
+     * against the index instead of converting a String through the column's affinity.
+     */
+    String QUERY_FORECAST_FROM =
+            "SELECT weather.* FROM weather INNER JOIN location ON weather.location_id = location.id "
+                    + "WHERE location.lat = :latitude AND location.lon = :longitude "
+                    + "AND weather.date >= :normalizedUtcNow ORDER BY weather.date";
+    String QUERY_FORECAST_FOR_DAY =
+            "SELECT weather.* FROM weather INNER JOIN location ON weather.location_id = location.id "
+                    + "WHERE location.lat = :latitude AND location.lon = :longitude "
+                    + "AND weather.date = :normalizedUtc";
+    String QUERY_STORED_FORECAST_FROM =
+            "SELECT * FROM weather WHERE location_id = :locationId AND date >= :normalizedUtcStart "
+                    + "ORDER BY date";
+    String QUERY_DELETE_FORECAST_BEFORE =
+            "DELETE FROM weather WHERE location_id = :locationId AND date < :normalizedUtcToday";
 
-    @Query("SELECT * FROM weather WHERE date >= :normalizedUtcNow")
-    LiveData<List<Weather>> loadWeatherDataForTodayOnwards(String normalizedUtcNow);
+    /*
+     * The screens show the preferred location, which they know by its coordinates. Joining on
+     * location finds its row through the unique (lat, lon) index, and then its forecast through
+     * the (location_id, date) index.
+     */
+    @Query(QUERY_FORECAST_FROM)
+    LiveData<List<Weather>> loadWeatherDataForTodayOnwards(double latitude, double longitude,
+                                                           long normalizedUtcNow);
 
-    @Query("SELECT * FROM weather WHERE date = :normalizedUtc")
-    Weather loadWeatherDataForDay(String normalizedUtc);
-
-
-    @Query("DELETE FROM weather")
-    void deleteWeatherData();
+    @Query(QUERY_FORECAST_FOR_DAY)
+    Weather loadWeatherDataForDay(double latitude, double longitude, long normalizedUtc);
 
     @Insert
     long[] insertAllWeatherData(Weather... weathers);
+
+    @Query(QUERY_STORED_FORECAST_FROM)
+    List<Weather> loadWeatherDataFrom(long locationId, long normalizedUtcStart);
+
+    @Query(QUERY_DELETE_FORECAST_BEFORE)
+    int deleteWeatherDataBefore(long locationId, long normalizedUtcToday);
+
+    /*
+     * Days that have passed are copied to the archive before they are pruned. The archive is
+     * append-only: a day already archived keeps its first copy.
+     */
+    @Query("INSERT OR IGNORE INTO weather_archive (location_id, date, resolution, weather_id, "
+            + "min, max, humidity, pressure, wind, degrees) "
+            + "SELECT location_id, date, " + ArchivedWeather.RESOLUTION_DAY + ", weather_id, "
+            + "min, max, humidity, pressure, wind, degrees FROM weather "
+            + "WHERE location_id = :locationId AND date < :normalizedUtcToday")
+    void archiveWeatherDataBefore(long locationId, long normalizedUtcToday);
+
+    /**
+     * Moves a location's days that have passed to the archive. Both steps go through the
+     * (location_id, date) index, and touch no rows until a day has passed, so this is cheap to
+     * run on every sync, including the ones that bring back an unchanged forecast.
+     *
+     * @param locationId         The location, from {@link LocationDao}
+     * @param normalizedUtcToday Today's normalized date; earlier rows are archived and deleted
+     * @return The number of rows deleted
+     */
+    @Transaction
+    default int pruneWeatherDataBefore(long locationId, long normalizedUtcToday) {
+        archiveWeatherDataBefore(locationId, normalizedUtcToday);
+        return deleteWeatherDataBefore(locationId, normalizedUtcToday);
+    }
+
+    @Query("INSERT OR IGNORE INTO weather_archive (location_id, date, resolution, weather_id, "
+            + "min, max, humidity, pressure, wind, degrees) "
+            + "SELECT location_id, date, " + ArchivedWeather.RESOLUTION_DAY + ", weather_id, "
+            + "min, max, humidity, pressure, wind, degrees FROM weather "
+            + "WHERE location_id NOT IN (:locationIds) AND date < :normalizedUtcToday")
+    void archiveWeatherDataOfLocationsExcept(List<Long> locationIds, long normalizedUtcToday);
+
+    /* The days of dropped locations that leave the database altogether, as they aren't archived */
+    @Query("SELECT * FROM weather WHERE location_id NOT IN (:locationIds) "
+            + "AND date >= :normalizedUtcToday")
+    List<Weather> loadWeatherDataOfLocationsExceptFrom(List<Long> locationIds,
+                                                       long normalizedUtcToday);
+
+    @Query("DELETE FROM weather WHERE location_id NOT IN (:locationIds)")
+    int deleteWeatherDataOfLocationsExcept(List<Long> locationIds);
+
+    /* Digests already cleared are left alone, so a sync that drops nothing touches no rows */
+    @Query("UPDATE location SET forecast_digest = NULL "
+            + "WHERE id NOT IN (:locationIds) AND forecast_digest IS NOT NULL")
+    void clearForecastDigestsOfLocationsExcept(List<Long> locationIds);
+
+    /**
+     * Drops the forecasts of every location not in the given list, archiving their past days
+     * first. Their digests are cleared too, so if one of them is synced again its forecast is
+     * written even if it hasn't changed since.
+     * <p>
+     * Days from today on aren't archived, so they are taken back out of their
+     * {@link ClimateAggregate} rows in the same transaction; otherwise they would be counted a
+     * second time when the location is synced again. A period left with no days loses its row.
+     *
+     * @param locationIds        The locations whose forecasts are kept
+     * @param normalizedUtcToday Today's normalized date; earlier rows are archived
+     * @return The number of rows deleted
+     */
+    @Transaction
+    default int retainWeatherDataOf(List<Long> locationIds, long normalizedUtcToday) {
+        archiveWeatherDataOfLocationsExcept(locationIds, normalizedUtcToday);
+        List<Weather> dropped = loadWeatherDataOfLocationsExceptFrom(locationIds,
+                normalizedUtcToday);
+        clearForecastDigestsOfLocationsExcept(locationIds);
+        int rowsDeleted = deleteWeatherDataOfLocationsExcept(locationIds);
+
+        Map<String, ClimateAggregate> aggregates = new HashMap<>();
+        for (Weather weather : dropped) {
+            for (int period : ClimateAggregate.PERIODS) {
+                long periodStart = ClimateAggregate.periodStart(period, weather.getDate());
+                String key = weather.getLocationId() + ":" + period + ":" + periodStart;
+                ClimateAggregate aggregate = aggregates.get(key);
+                if (aggregate == null) {
+                    aggregate = loadClimateAggregate(weather.getLocationId(), period,
+                            periodStart);
+                    /* Nothing was ever counted for the period */
+                    if (aggregate == null) continue;
+                    aggregates.put(key, aggregate);
+                }
+                aggregate.remove(weather);
+            }
+        }
+
+        /* The rows are all deleted by now, so recomputed extremes only see the days left */
+        List<ClimateAggregate> emptied = new ArrayList<>();
+        List<ClimateAggregate> changed = new ArrayList<>();
+        for (ClimateAggregate aggregate : aggregates.values()) {
+            if (aggregate.getDayCount() <= 0) {
+                emptied.add(aggregate);
+                continue;
+            }
+            if (aggregate.hasStaleExtremes()) {
+                aggregate.setExtremes(loadClimateExtremes(aggregate.getLocationId(),
+                        aggregate.getPeriodStart(), aggregate.getPeriodEnd()));
+            }
+            changed.add(aggregate);
+        }
+        if (!emptied.isEmpty()) deleteClimateAggregates(emptied);
+        if (!changed.isEmpty()) insertClimateAggregates(changed);
+        return rowsDeleted;
+    }
+
+    @Update
+    int updateWeatherData(Weather... weathers);
+
+    @Query("SELECT * FROM climate_aggregate WHERE location_id = :locationId "
+            + "AND period = :period AND period_start = :periodStart")
+    ClimateAggregate loadClimateAggregate(long locationId, int period, long periodStart);
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void insertClimateAggregates(List<ClimateAggregate> aggregates);
+
+    @Delete
+    void deleteClimateAggregates(List<ClimateAggregate> aggregates);
+
+    /*
+     * Revisions and drops only reach days from today on, so the period being recomputed is the
+     * current week or month or a later one. Its past days are still daily rows in weather_archive,
+     * none of them packed into a block yet, and none of them also in weather once the merge or the
+     * drop has pruned it.
+     */
+    @Query("SELECT MIN(min) AS temp_min, MAX(max) AS temp_max, "
+            + "MIN(humidity) AS humidity_min, MAX(humidity) AS humidity_max, "
+            + "MIN(pressure) AS pressure_min, MAX(pressure) AS pressure_max, "
+            + "MIN(wind) AS wind_min, MAX(wind) AS wind_max FROM ("
+            + "SELECT min, max, humidity, pressure, wind FROM weather "
+            + "WHERE location_id = :locationId AND date >= :fromDate AND date < :toDate "
+            + "UNION ALL SELECT min, max, humidity, pressure, wind FROM weather_archive "
+            + "WHERE location_id = :locationId AND date >= :fromDate AND date < :toDate)")
+    ClimateAggregate.Extremes loadClimateExtremes(long locationId, long fromDate, long toDate);
+
+    /**
+     * Merges a freshly downloaded forecast for one location into the table in a single
+     * transaction. Days we don't have yet are inserted, days whose values changed are updated in
+     * place (matched on the unique location and date index) and days before today are moved to
+     * the archive.
+     * Rows that didn't change aren't touched at all, so a sync that brings nothing new doesn't
+     * invalidate any observers, and one that does invalidates them exactly once.
+     * <p>
+     * Each inserted or revised day is also applied to the {@link ClimateAggregate} rows of its
+     * week and month, in the same transaction. A revised day's old values are taken out of the
+     * sums before its new ones are added.
+     *
+     * @param locationId         The location the forecast is for, from {@link LocationDao}
+     * @param normalizedUtcToday Today's normalized date; rows before it are deleted
+     * @param weathers           The new forecast
+     * @return The number of rows inserted, updated or deleted
+     */
+    @Transaction
+    default int mergeWeatherData(long locationId, long normalizedUtcToday, Weather... weathers) {
+        int rowsChanged = pruneWeatherDataBefore(locationId, normalizedUtcToday);
+
+        Map<Long, Weather> storedWeatherByDate = new HashMap<>();
+        for (Weather stored : loadWeatherDataFrom(locationId, normalizedUtcToday)) {
+            storedWeatherByDate.put(stored.getDate(), stored);
+        }
+
+        /* A forecast spans two or three periods, so each is loaded and written once */
+        Map<String, ClimateAggregate> aggregates = new HashMap<>();
+        for (Weather weather : weathers) {
+            if (weather.getDate() < normalizedUtcToday) continue;
+
+            weather.setLocationId(locationId);
+            Weather stored = storedWeatherByDate.get(weather.getDate());
+            if (stored == null) {
+                insertAllWeatherData(weather);
+                rowsChanged++;
+            } else if (!stored.hasSameValuesAs(weather)) {
+                weather.setWeatherId(stored.getWeatherId());
+                rowsChanged += updateWeatherData(weather);
+            } else {
+                continue;
+            }
+
+            for (int period : ClimateAggregate.PERIODS) {
+                long periodStart = ClimateAggregate.periodStart(period, weather.getDate());
+                String key = period + ":" + periodStart;
+                ClimateAggregate aggregate = aggregates.get(key);
+                if (aggregate == null) {
+                    aggregate = loadClimateAggregate(locationId, period, periodStart);
+                    if (aggregate == null) {
+                        aggregate = new ClimateAggregate(locationId, period, periodStart);
+                    }
+                    aggregates.put(key, aggregate);
+                }
+                if (stored != null) aggregate.remove(stored);
+                aggregate.add(weather);
+            }
+        }
+
+        /* The rows are all written by now, so recomputed extremes see the revised values */
+        for (ClimateAggregate aggregate : aggregates.values()) {
+            if (aggregate.hasStaleExtremes()) {
+                aggregate.setExtremes(loadClimateExtremes(locationId,
+                        aggregate.getPeriodStart(), aggregate.getPeriodEnd()));
+            }
+        }
+        if (!aggregates.isEmpty()) insertClimateAggregates(new ArrayList<>(aggregates.values()));
+        return rowsChanged;
+    }
 }
@@ -2,12 +2,24 @@ package com.technowapps.sunshine.data;
 
 
 import android.content.Context;
+import android.database.Cursor;
 
 import androidx.room.Database;
 import androidx.room.Room;
 import androidx.room.RoomDatabase;
+import androidx.room.migration.Migration;
+import androidx.sqlite.db.SupportSQLiteDatabase;
 
-@Database(entities = {Weather.class}, version = 1, exportSchema = false)
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+@Database(entities = {Weather.class, GeocodeEntry.class, LocationEntry.class,
+        ArchivedWeather.class, ArchiveBlock.class, ClimateAggregate.class}, version = 7, exportSchema = false)
 public abstract class WeatherDatabase extends RoomDatabase {
 
     public static final String DATABASE_NAME = "weatherdb";
@@ -16,13 +28,350 @@ public abstract class WeatherDatabase extends RoomDatabase {
 
     public abstract WeatherDao weatherDao();
 
+    public abstract GeocodeDao geocodeDao();
+
+    public abstract LocationDao locationDao();
+
+    public abstract ArchiveDao archiveDao();
+
+    public abstract ClimateDao climateDao();
+
+    /* Version 2 adds the geocode table used by GeocodeCache */
+    static final Migration MIGRATION_1_2 = new Migration(1, 2) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS `geocode` (`query` TEXT NOT NULL, "
+                    + "`name` TEXT, `lat` REAL NOT NULL, `lon` REAL NOT NULL, "
+                    + "`fetched_at` INTEGER NOT NULL, PRIMARY KEY(`query`))");
+        }
+    };
+
+    /*
+     * Version 3 adds the location table and scopes weather rows to a location. Until now the table
+     * only ever held the preferred location's forecast, so existing rows are carried over under
+     * that location, read from the preferences. SQLite can't add a foreign key to an existing
+     * table, so the weather table is rebuilt.
+     */
+    static Migration migration2To3(final Context context) {
+        return new Migration(2, 3) {
+            @Override
+            public void migrate(SupportSQLiteDatabase database) {
+                database.execSQL("CREATE TABLE IF NOT EXISTS `location` ("
+                        + "`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, "
+                        + "`lat` REAL NOT NULL, `lon` REAL NOT NULL)");
+                database.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS `index_location_lat_lon` "
+                        + "ON `location` (`lat`, `lon`)");
+
+                double[] coordinates = SunshinePreferences.getLocationCoordinates(context);
+                database.execSQL("INSERT INTO `location` (`lat`, `lon`) VALUES (?, ?)",
+                        new Object[]{coordinates[0], coordinates[1]});
+
+                database.execSQL("CREATE TABLE IF NOT EXISTS `weather_new` ("
+                        + "`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, "
+                        + "`location_id` INTEGER NOT NULL, `date` INTEGER NOT NULL, "
+                        + "`weather_id` INTEGER NOT NULL, `min` REAL NOT NULL, "
+                        + "`max` REAL NOT NULL, `humidity` INTEGER NOT NULL, "
+                        + "`pressure` REAL NOT NULL, `wind` REAL NOT NULL, "
+                        + "`degrees` REAL NOT NULL, "
+                        + "FOREIGN KEY(`location_id`) REFERENCES `location`(`id`) "
+                        + "ON UPDATE NO ACTION ON DELETE CASCADE )");
+                database.execSQL("INSERT INTO `weather_new` (`id`, `location_id`, `date`, "
+                        + "`weather_id`, `min`, `max`, `humidity`, `pressure`, `wind`, `degrees`) "
+                        + "SELECT `id`, (SELECT `id` FROM `location`), `date`, `weather_id`, "
+                        + "`min`, `max`, `humidity`, `pressure`, `wind`, `degrees` FROM `weather`");
+                database.execSQL("DROP TABLE `weather`");
+                database.execSQL("ALTER TABLE `weather_new` RENAME TO `weather`");
+                database.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS "
+                        + "`index_weather_location_id_date` ON `weather` (`location_id`, `date`)");
+            }
+        };
+    }
+
+    /* Version 4 adds the archive that past days are moved to instead of being deleted */
+    static final Migration MIGRATION_3_4 = new Migration(3, 4) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS `weather_archive` ("
+                    + "`location_id` INTEGER NOT NULL, `date` INTEGER NOT NULL, "
+                    + "`resolution` INTEGER NOT NULL, `weather_id` INTEGER NOT NULL, "
+                    + "`min` REAL NOT NULL, `max` REAL NOT NULL, `humidity` INTEGER NOT NULL, "
+                    + "`pressure` REAL NOT NULL, `wind` REAL NOT NULL, `degrees` REAL NOT NULL, "
+                    + "PRIMARY KEY(`location_id`, `date`), "
+                    + "FOREIGN KEY(`location_id`) REFERENCES `location`(`id`) "
+                    + "ON UPDATE NO ACTION ON DELETE CASCADE )");
+        }
+    };
+
+    /* Version 5 adds the blocks that past months of the archive are packed into */
+    static final Migration MIGRATION_4_5 = new Migration(4, 5) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS `archive_block` ("
+                    + "`location_id` INTEGER NOT NULL, `month_start` INTEGER NOT NULL, "
+                    + "`resolution` INTEGER NOT NULL, `row_count` INTEGER NOT NULL, "
+                    + "`min_temp` REAL NOT NULL, `max_temp` REAL NOT NULL, "
+                    + "`encoded` BLOB NOT NULL, PRIMARY KEY(`location_id`, `month_start`), "
+                    + "FOREIGN KEY(`location_id`) REFERENCES `location`(`id`) "
+                    + "ON UPDATE NO ACTION ON DELETE CASCADE )");
+        }
+    };
+
+    /*
+     * Version 6 adds the climate aggregates. They are backfilled from every daily row already
+     * stored: the forecast, the unpacked archive and the daily blocks. Weeks the compaction has
+     * already merged no longer have their days, so they are left out.
+     */
+    static final Migration MIGRATION_5_6 = new Migration(5, 6) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS `climate_aggregate` ("
+                    + "`location_id` INTEGER NOT NULL, `period` INTEGER NOT NULL, "
+                    + "`period_start` INTEGER NOT NULL, `day_count` INTEGER NOT NULL, "
+                    + "`temp_sum` REAL NOT NULL, `temp_sum_sq` REAL NOT NULL, "
+                    + "`temp_min` REAL NOT NULL, `temp_max` REAL NOT NULL, "
+                    + "`humidity_sum` REAL NOT NULL, `humidity_sum_sq` REAL NOT NULL, "
+                    + "`humidity_min` REAL NOT NULL, `humidity_max` REAL NOT NULL, "
+                    + "`pressure_sum` REAL NOT NULL, `pressure_sum_sq` REAL NOT NULL, "
+                    + "`pressure_min` REAL NOT NULL, `pressure_max` REAL NOT NULL, "
+                    + "`wind_sum` REAL NOT NULL, `wind_sum_sq` REAL NOT NULL, "
+                    + "`wind_min` REAL NOT NULL, `wind_max` REAL NOT NULL, "
+                    + "PRIMARY KEY(`location_id`, `period`, `period_start`), "
+                    + "FOREIGN KEY(`location_id`) REFERENCES `location`(`id`) "
+                    + "ON UPDATE NO ACTION ON DELETE CASCADE )");
+
+            Map<String, ClimateAggregate> aggregates = new HashMap<>();
+            /* A past day can be in both tables until the next sync prunes it */
+            try (Cursor cursor = database.query("SELECT location_id, date, min, max, humidity, "
+                    + "pressure, wind FROM weather UNION ALL "
+                    + "SELECT location_id, date, min, max, humidity, pressure, wind "
+                    + "FROM weather_archive AS archive WHERE resolution = "
+                    + ArchivedWeather.RESOLUTION_DAY + " AND NOT EXISTS (SELECT 1 FROM weather "
+                    + "WHERE weather.location_id = archive.location_id "
+                    + "AND weather.date = archive.date)")) {
+                while (cursor.moveToNext()) {
+                    addToClimate(aggregates, cursor.getLong(0), cursor.getLong(1),
+                            cursor.getDouble(2), cursor.getDouble(3), cursor.getDouble(4),
+                            cursor.getDouble(5), cursor.getDouble(6));
+                }
+            }
+            try (Cursor cursor = database.query("SELECT location_id, month_start, encoded "
+                    + "FROM archive_block WHERE resolution = " + ArchivedWeather.RESOLUTION_DAY)) {
+                while (cursor.moveToNext()) {
+                    ArchiveSeries days =
+                            ArchiveBlockCodec.decode(cursor.getLong(1), cursor.getBlob(2));
+                    for (int i = 0; i < days.size(); i++) {
+                        addToClimate(aggregates, cursor.getLong(0), days.getDates()[i],
+                                days.getMinTemps()[i], days.getMaxTemps()[i],
+                                days.getHumidities()[i], days.getPressures()[i],
+                                days.getWinds()[i]);
+                    }
+                }
+            }
+
+            for (ClimateAggregate aggregate : aggregates.values()) {
+                database.execSQL("INSERT INTO `climate_aggregate` VALUES "
+                        + "(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)",
+                        new Object[]{aggregate.getLocationId(), aggregate.getPeriod(),
+                                aggregate.getPeriodStart(), aggregate.getDayCount(),
+                                aggregate.getTempSum(), aggregate.getTempSumOfSquares(),
+                                aggregate.getTempMin(), aggregate.getTempMax(),
+                                aggregate.getHumiditySum(), aggregate.getHumiditySumOfSquares(),
+                                aggregate.getHumidityMin(), aggregate.getHumidityMax(),
+                                aggregate.getPressureSum(), aggregate.getPressureSumOfSquares(),
+                                aggregate.getPressureMin(), aggregate.getPressureMax(),
+                                aggregate.getWindSum(), aggregate.getWindSumOfSquares(),
+                                aggregate.getWindMin(), aggregate.getWindMax()});
+            }
+        }
+    };
+
+    /*
+     * Version 7 keeps each location's forecast digest on its row instead of in SharedPreferences.
+     * Digests start out empty, so the first sync after the upgrade writes every forecast once.
+     */
+    static final Migration MIGRATION_6_7 = new Migration(6, 7) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE `location` ADD COLUMN `forecast_digest` TEXT");
+        }
+    };
+
+    private static void addToClimate(Map<String, ClimateAggregate> aggregates, long locationId,
+                                     long date, double low, double high, double humidity,
+                                     double pressure, double wind) {
+        for (int period : ClimateAggregate.PERIODS) {
+            long periodStart = ClimateAggregate.periodStart(period, date);
+            String key = locationId + ":" + period + ":" + periodStart;
+            ClimateAggregate aggregate = aggregates.get(key);
+            if (aggregate == null) {
+                aggregate = new ClimateAggregate(locationId, period, periodStart);
+                aggregates.put(key, aggregate);
+            }
+            aggregate.add(low, high, humidity, pressure, wind);
+        }
+    }
+
     public static WeatherDatabase getInstance(Context context) {
         if (sInstance == null) {
             synchronized (LOCK) {
-
-                sInstance = Room.databaseBuilder(context.getApplicationContext(), WeatherDatabase.class, DATABASE_NAME).build();
+                if (sInstance == null) {
+                    sInstance = Room.databaseBuilder(context.getApplicationContext(), WeatherDatabase.class, DATABASE_NAME)
+                            .addMigrations(MIGRATION_1_2, migration2To3(context.getApplicationContext()),
+                                    MIGRATION_3_4, MIGRATION_4_5, MIGRATION_5_6, MIGRATION_6_7)
+                            .build();
+                }
             }
         }
         return sInstance;
     }
+
+    /**
+     * Writes how SQLite plans to run the most frequent forecast queries, in the style used by
+     * dumpsys. Every step should be a SEARCH using an index; a SCAN of weather means a query has
+     * stopped using one. Reads the database directly, so it may be called on any thread.
+     *
+     * @param prefix Indentation to put in front of each line
+     * @param writer Where to write the plans
+     */
+    public void dumpQueryPlans(String prefix, PrintWriter writer) {
+        SupportSQLiteDatabase database = getOpenHelper().getReadableDatabase();
+        dumpQueryPlan(database, "forecastFrom", WeatherDao.QUERY_FORECAST_FROM, prefix, writer);
+        dumpQueryPlan(database, "forecastForDay", WeatherDao.QUERY_FORECAST_FOR_DAY, prefix,
+                writer);
+        dumpQueryPlan(database, "storedForecastFrom", WeatherDao.QUERY_STORED_FORECAST_FROM,
+                prefix, writer);
+        dumpQueryPlan(database, "deleteForecastBefore", WeatherDao.QUERY_DELETE_FORECAST_BEFORE,
+                prefix, writer);
+        dumpQueryPlan(database, "archiveRange", ArchiveDao.QUERY_ARCHIVE_RANGE, prefix, writer);
+        dumpQueryPlan(database, "blockRange", ArchiveDao.QUERY_BLOCK_RANGE, prefix, writer);
+        dumpQueryPlan(database, "climateRange", ClimateDao.QUERY_CLIMATE_RANGE, prefix, writer);
+    }
+
+    /**
+     * Writes the size and span of the archive at each resolution, and how well its blocks are
+     * packed, in the style used by dumpsys. Reads the database directly, so it may be called on
+     * any thread.
+     * <p>
+     * To compare scan speeds, every block is decoded and every unpacked row read through a
+     * cursor; the archive is small enough for that to take milliseconds.
+     *
+     * @param prefix Indentation to put in front of each line
+     * @param writer Where to write the archive's statistics
+     */
+    public void dumpArchive(String prefix, PrintWriter writer) {
+        SupportSQLiteDatabase database = getOpenHelper().getReadableDatabase();
+        try (Cursor cursor = database.query("SELECT resolution, COUNT(*), "
+                + "COUNT(DISTINCT location_id), MIN(date), MAX(date) FROM weather_archive "
+                + "GROUP BY resolution ORDER BY resolution")) {
+            while (cursor.moveToNext()) {
+                writer.print(prefix);
+                writer.println("resolution=" + cursor.getInt(0) + "d rows=" + cursor.getLong(1)
+                        + " locations=" + cursor.getLong(2) + " from=" + cursor.getLong(3)
+                        + " to=" + cursor.getLong(4));
+            }
+        }
+
+        try (Cursor cursor = database.query("SELECT COUNT(*), TOTAL(row_count), "
+                + "TOTAL(LENGTH(encoded)) FROM archive_block")) {
+            if (cursor.moveToFirst()) {
+                long rows = cursor.getLong(1);
+                long bytes = cursor.getLong(2);
+                long plainBytes = rows * ArchiveBlockCodec.PLAIN_ROW_BYTES;
+                double ratio = bytes == 0 ? 0 : plainBytes / (double) bytes;
+                writer.print(prefix);
+                writer.println("blocks=" + cursor.getLong(0) + " rows=" + rows
+                        + " bytes=" + bytes + " plainBytes=" + plainBytes
+                        + String.format(Locale.US, " ratio=%.1fx", ratio));
+            }
+        }
+
+        long blockRows = 0;
+        long started = System.nanoTime();
+        try (Cursor cursor = database.query("SELECT month_start, encoded FROM archive_block")) {
+            while (cursor.moveToNext()) {
+                blockRows += ArchiveBlockCodec.decode(cursor.getLong(0), cursor.getBlob(1)).size();
+            }
+        }
+        long blockNanos = System.nanoTime() - started;
+
+        long plainRows = 0;
+        started = System.nanoTime();
+        try (Cursor cursor = database.query("SELECT date, min, max, humidity, pressure, wind, "
+                + "degrees FROM weather_archive")) {
+            while (cursor.moveToNext()) {
+                cursor.getLong(0);
+                for (int column = 1; column < cursor.getColumnCount(); column++) {
+                    cursor.getDouble(column);
+                }
+                plainRows++;
+            }
+        }
+        long plainNanos = System.nanoTime() - started;
+
+        writer.print(prefix);
+        writer.println("blockScan=" + rowsPerMillisecond(blockRows, blockNanos) + " rows/ms"
+                + " plainScan=" + rowsPerMillisecond(plainRows, plainNanos) + " rows/ms");
+    }
+
+    /**
+     * Writes how many climate aggregates there are for each period length, and how many days they
+     * summarize, in the style used by dumpsys. Reads the database directly, so it may be called
+     * on any thread.
+     *
+     * @param prefix Indentation to put in front of each line
+     * @param writer Where to write the aggregates' statistics
+     */
+    public void dumpClimate(String prefix, PrintWriter writer) {
+        SupportSQLiteDatabase database = getOpenHelper().getReadableDatabase();
+        try (Cursor cursor = database.query("SELECT period, COUNT(*), SUM(day_count), "
+                + "MIN(period_start), MAX(period_start) FROM climate_aggregate "
+                + "GROUP BY period ORDER BY period")) {
+            while (cursor.moveToNext()) {
+                writer.print(prefix);
+                writer.println("period=" + (cursor.getInt(0) == ClimateAggregate.PERIOD_WEEK
+                        ? "week" : "month") + " rows=" + cursor.getLong(1)
+                        + " days=" + cursor.getLong(2) + " from=" + cursor.getLong(3)
+                        + " to=" + cursor.getLong(4));
+            }
+        }
+    }
+
+    private static long rowsPerMillisecond(long rows, long nanos) {
+        return nanos == 0 ? 0 : rows * 1000000 / nanos;
+    }
+
+    private static void dumpQueryPlan(SupportSQLiteDatabase database, String name, String sql,
+                                      String prefix, PrintWriter writer) {
+        writer.print(prefix);
+        writer.println(name + ":");
+        for (String detail : explainQueryPlan(database, sql)) {
+            writer.print(prefix);
+            writer.print("  ");
+            writer.println(detail);
+        }
+    }
+
+    /**
+     * Asks SQLite how it would run a query, without running it.
+     *
+     * @param database The database to plan the query against
+     * @param sql      A query in Room's syntax, with named parameters
+     * @return The detail column of each row of EXPLAIN QUERY PLAN, in order
+     */
+    static List<String> explainQueryPlan(SupportSQLiteDatabase database, String sql) {
+        /* Room's named parameters become positional ones; the plan doesn't depend on their values */
+        String positionalSql = sql.replaceAll(":\\w+", "?");
+        int parameterCount = positionalSql.length() - positionalSql.replace("?", "").length();
+        Object[] arguments = new Object[parameterCount];
+        Arrays.fill(arguments, 0L);
+
+        List<String> details = new ArrayList<>();
+        try (Cursor cursor = database.query("EXPLAIN QUERY PLAN " + positionalSql, arguments)) {
+            int detailColumn = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                details.add(cursor.getString(detailColumn));
+            }
+        }
+        return details;
+    }
 }
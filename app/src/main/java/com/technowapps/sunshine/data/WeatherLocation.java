@@ -0,0 +1,76 @@
+package com.technowapps.sunshine.data;
+
+import androidx.annotation.NonNull;
+
+/**
+ * A place we fetch forecasts for, identified by its coordinates.
+ */
+public class WeatherLocation {
+
+    /* Separates latitude and longitude when a location is stored as a String */
+    private static final String SEPARATOR = ",";
+
+    private final double mLatitude;
+    private final double mLongitude;
+
+    public WeatherLocation(double latitude, double longitude) {
+        mLatitude = latitude;
+        mLongitude = longitude;
+    }
+
+    public double getLatitude() {
+        return mLatitude;
+    }
+
+    public double getLongitude() {
+        return mLongitude;
+    }
+
+    /**
+     * @return This location in the "lat,lon" form accepted by {@link #fromKey(String)}
+     */
+    public String toKey() {
+        return mLatitude + SEPARATOR + mLongitude;
+    }
+
+    /**
+     * Parses a location previously written with {@link #toKey()}.
+     *
+     * @param key The "lat,lon" String
+     * @return The location, or null if the String isn't a valid location
+     */
+    public static WeatherLocation fromKey(String key) {
+        if (key == null) return null;
+
+        String[] parts = key.split(SEPARATOR);
+        if (parts.length != 2) return null;
+
+        try {
+            return new WeatherLocation(Double.parseDouble(parts[0]), Double.parseDouble(parts[1]));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof WeatherLocation)) return false;
+
+        WeatherLocation other = (WeatherLocation) o;
+        return Double.compare(mLatitude, other.mLatitude) == 0
+                && Double.compare(mLongitude, other.mLongitude) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        long bits = Double.doubleToLongBits(mLatitude) * 31 + Double.doubleToLongBits(mLongitude);
+        return (int) (bits ^ (bits >>> 32));
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return toKey();
+    }
+}
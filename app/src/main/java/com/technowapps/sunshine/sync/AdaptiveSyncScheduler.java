@@ -0,0 +1,269 @@
+package com.technowapps.sunshine.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import androidx.work.BackoffPolicy;
+import androidx.work.Constraints;
+import androidx.work.ExistingPeriodicWorkPolicy;
+import androidx.work.NetworkType;
+import androidx.work.PeriodicWorkRequest;
+import androidx.work.WorkManager;
+
+import com.technowapps.sunshine.data.Weather;
+import com.technowapps.sunshine.utilities.SunshineMetrics;
+import com.technowapps.sunshine.utilities.WeatherConditionTable;
+
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides how often the periodic sync runs. A forecast that keeps changing, or a user who opens
+ * the app several times a day, gets more frequent syncs; a stable forecast, or an app nobody has
+ * opened for days, gets fewer. Every decision is logged along with what it was based on.
+ */
+public final class AdaptiveSyncScheduler {
+
+    private static final String TAG = AdaptiveSyncScheduler.class.getSimpleName();
+
+    /* Kept from the fixed schedule so existing installs replace their work instead of adding one */
+    private static final String UNIQUE_PERIODIC_WORK_NAME = "my-unique-work";
+
+    private static final String PREFS_FILE = "sync_schedule";
+    private static final String KEY_VOLATILITY = "volatility";
+    private static final String KEY_LAST_OPEN = "last_open";
+    private static final String KEY_MEAN_OPEN_GAP = "mean_open_gap";
+    private static final String KEY_INTERVAL_HOURS = "interval_hours";
+    private static final String KEY_UNMETERED = "unmetered";
+    private static final String KEY_LAST_SYNC = "last_sync";
+
+    /* A perfectly stable forecast is synced this often; the most volatile one, MIN_INTERVAL_HOURS */
+    private static final long STABLE_INTERVAL_HOURS = 24;
+    private static final long MIN_INTERVAL_HOURS = 3;
+    private static final long MAX_INTERVAL_HOURS = 48;
+
+    /* Opening the app more often than this, on average, counts as frequent use */
+    private static final long FREQUENT_USE_GAP_MILLIS = TimeUnit.HOURS.toMillis(12);
+    /* Not opening the app for this long counts as not using it */
+    private static final long INACTIVE_AFTER_MILLIS = TimeUnit.DAYS.toMillis(3);
+
+    /* Weight of the newest sample in the running averages */
+    private static final float VOLATILITY_SMOOTHING = 0.5f;
+    private static final float OPEN_GAP_SMOOTHING = 0.3f;
+
+    /* A change this large, in °C, to a high or low counts as fully volatile */
+    private static final double FULLY_VOLATILE_TEMPERATURE_DELTA = 5.0;
+    /* Only the next few days matter for how fresh the forecast needs to be */
+    private static final int DAYS_COMPARED = 3;
+
+    /* First retry delay of a failed sync; each further retry waits twice as long */
+    static final long BACKOFF_DELAY_MINUTES = 1;
+
+    /* Smaller changes to the interval aren't worth resetting the periodic work for */
+    private static final double MIN_INTERVAL_CHANGE_RATIO = 0.25;
+
+    private AdaptiveSyncScheduler() {
+    }
+
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getApplicationContext()
+                .getSharedPreferences(PREFS_FILE, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Records that the user opened the app, keeping a running average of the time between opens.
+     *
+     * @param context Used to access the schedule's preferences
+     */
+    public static void recordAppOpen(Context context) {
+        SharedPreferences sp = getPreferences(context);
+        long now = System.currentTimeMillis();
+        long lastOpen = sp.getLong(KEY_LAST_OPEN, 0);
+
+        SharedPreferences.Editor editor = sp.edit().putLong(KEY_LAST_OPEN, now);
+        if (lastOpen > 0 && now > lastOpen) {
+            long gap = now - lastOpen;
+            long meanGap = sp.getLong(KEY_MEAN_OPEN_GAP, gap);
+            editor.putLong(KEY_MEAN_OPEN_GAP,
+                    (long) (OPEN_GAP_SMOOTHING * gap + (1 - OPEN_GAP_SMOOTHING) * meanGap));
+        }
+        editor.apply();
+    }
+
+    /**
+     * Records that a scheduled sync just succeeded. A new schedule counts its first period from
+     * here, so replacing the periodic work doesn't sync again straight away.
+     *
+     * @param context Used to access the schedule's preferences
+     */
+    static void recordSync(Context context) {
+        getPreferences(context).edit().putLong(KEY_LAST_SYNC, System.currentTimeMillis()).apply();
+    }
+
+    /**
+     * Measures how much a forecast moved between two syncs over the next few days, from 0 (no
+     * change) to 1 (a large temperature swing or a different kind of weather).
+     *
+     * @param previous The forecast stored before this sync
+     * @param next     The forecast this sync downloaded
+     * @return The volatility of this sync
+     */
+    static float measureVolatility(List<Weather> previous, Weather[] next) {
+        Map<Long, Weather> previousByDate = new HashMap<>();
+        for (Weather weather : previous) {
+            previousByDate.put(weather.getDate(), weather);
+        }
+
+        double volatility = 0;
+        for (int i = 0; i < next.length && i < DAYS_COMPARED; i++) {
+            Weather before = previousByDate.get(next[i].getDate());
+            if (before == null) continue;
+
+            double temperatureDelta = Math.max(
+                    Math.abs(next[i].getMaxTemp() - before.getMaxTemp()),
+                    Math.abs(next[i].getMinTemp() - before.getMinTemp()));
+            volatility = Math.max(volatility,
+                    temperatureDelta / FULLY_VOLATILE_TEMPERATURE_DELTA);
+
+            int beforeId = before.getWeatherIdFromServer();
+            int afterId = next[i].getWeatherIdFromServer();
+            if (WeatherConditionTable.getGroup(beforeId) != WeatherConditionTable.getGroup(afterId)) {
+                volatility = 1;
+            } else {
+                int severityDelta = Math.abs(WeatherConditionTable.getSeverity(afterId)
+                        - WeatherConditionTable.getSeverity(beforeId));
+                volatility = Math.max(volatility,
+                        severityDelta / (double) WeatherConditionTable.SEVERITY_SEVERE);
+            }
+        }
+        return (float) Math.min(1, volatility);
+    }
+
+    /**
+     * Folds the volatility of the latest sync into the running average used for scheduling.
+     *
+     * @param context    Used to access the schedule's preferences
+     * @param volatility From {@link #measureVolatility}, or 0 if the forecast didn't change
+     */
+    static void recordForecastVolatility(Context context, float volatility) {
+        SharedPreferences sp = getPreferences(context);
+        float average = sp.getFloat(KEY_VOLATILITY, 0f);
+        sp.edit()
+                .putFloat(KEY_VOLATILITY, VOLATILITY_SMOOTHING * volatility
+                        + (1 - VOLATILITY_SMOOTHING) * average)
+                .apply();
+    }
+
+    /**
+     * Works out the sync interval and constraints from the recorded volatility and usage, and
+     * updates the periodic work if they changed enough to matter.
+     * <p>
+     * Replacing the periodic work cancels a run in progress, so when called from the sync worker
+     * this must be the last thing it does. The replacement waits out what is left of the current
+     * period, counted from the last successful sync, so rescheduling never adds a sync.
+     *
+     * @param context Used to access the schedule's preferences and WorkManager
+     */
+    public static void schedule(Context context) {
+        SharedPreferences sp = getPreferences(context);
+        long now = System.currentTimeMillis();
+
+        float volatility = sp.getFloat(KEY_VOLATILITY, 0f);
+        long lastOpen = sp.getLong(KEY_LAST_OPEN, now);
+        long meanOpenGap = sp.getLong(KEY_MEAN_OPEN_GAP, Long.MAX_VALUE);
+        boolean inactive = now - lastOpen > INACTIVE_AFTER_MILLIS;
+        boolean frequentUse = !inactive && meanOpenGap < FREQUENT_USE_GAP_MILLIS;
+
+        double hours = STABLE_INTERVAL_HOURS
+                - volatility * (STABLE_INTERVAL_HOURS - MIN_INTERVAL_HOURS);
+        if (inactive) {
+            hours *= 2;
+        } else if (frequentUse) {
+            hours /= 2;
+        }
+        long intervalHours = Math.max(MIN_INTERVAL_HOURS,
+                Math.min(MAX_INTERVAL_HOURS, Math.round(hours)));
+
+        /* Nobody is looking at the forecast, so it can wait for Wi-Fi */
+        boolean unmetered = inactive;
+
+        long currentIntervalHours = sp.getLong(KEY_INTERVAL_HOURS, 0);
+        boolean currentUnmetered = sp.getBoolean(KEY_UNMETERED, false);
+        boolean changed = currentIntervalHours == 0
+                || unmetered != currentUnmetered
+                || Math.abs(intervalHours - currentIntervalHours)
+                >= MIN_INTERVAL_CHANGE_RATIO * currentIntervalHours;
+
+        String decision = String.format(Locale.US,
+                "interval=%dh (was %dh) unmetered=%b volatility=%.2f meanOpenGap=%s inactive=%b",
+                intervalHours, currentIntervalHours, unmetered, volatility,
+                meanOpenGap == Long.MAX_VALUE ? "n/a"
+                        : TimeUnit.MILLISECONDS.toMinutes(meanOpenGap) + "min",
+                inactive);
+
+        if (!changed) {
+            Log.d(TAG, "Keeping schedule: " + decision);
+            intervalHours = currentIntervalHours;
+        } else {
+            Log.i(TAG, "Rescheduling sync: " + decision);
+            SunshineMetrics.increment(SunshineMetrics.SYNC_RESCHEDULED);
+            sp.edit()
+                    .putLong(KEY_INTERVAL_HOURS, intervalHours)
+                    .putBoolean(KEY_UNMETERED, unmetered)
+                    .apply();
+        }
+
+        Constraints constraints = new Constraints.Builder()
+                .setRequiredNetworkType(unmetered ? NetworkType.UNMETERED : NetworkType.CONNECTED)
+                .setRequiresBatteryNotLow(true)
+                .build();
+
+        long lastSync = sp.getLong(KEY_LAST_SYNC, 0);
+        long initialDelayMillis = lastSync > 0 && lastSync <= now
+                ? Math.max(0, TimeUnit.HOURS.toMillis(intervalHours) - (now - lastSync)) : 0;
+
+        PeriodicWorkRequest request = new PeriodicWorkRequest.Builder(SunshineWorker.class,
+                intervalHours, TimeUnit.HOURS)
+                .setInitialDelay(initialDelayMillis, TimeUnit.MILLISECONDS)
+                .setConstraints(constraints)
+                .setBackoffCriteria(BackoffPolicy.EXPONENTIAL, BACKOFF_DELAY_MINUTES,
+                        TimeUnit.MINUTES)
+                .build();
+
+        WorkManager.getInstance(context).enqueueUniquePeriodicWork(UNIQUE_PERIODIC_WORK_NAME,
+                changed ? ExistingPeriodicWorkPolicy.REPLACE : ExistingPeriodicWorkPolicy.KEEP,
+                request);
+    }
+
+    /**
+     * Writes the current schedule and what it is based on, in the style used by dumpsys. Syncs
+     * per day against the fixed daily schedule shows the requests saved or spent; the interval is
+     * the worst-case age of the forecast.
+     *
+     * @param context Used to access the schedule's preferences
+     * @param prefix  Indentation to put in front of each line
+     * @param writer  Where to write the schedule
+     */
+    public static void dump(Context context, String prefix, PrintWriter writer) {
+        SharedPreferences sp = getPreferences(context);
+        long intervalHours = sp.getLong(KEY_INTERVAL_HOURS, 0);
+        long meanOpenGap = sp.getLong(KEY_MEAN_OPEN_GAP, 0);
+
+        writer.print(prefix);
+        writer.println("interval=" + intervalHours + "h"
+                + (intervalHours > 0 ? " syncsPerDay=" + String.format(Locale.US, "%.1f",
+                24.0 / intervalHours) : "")
+                + " unmetered=" + sp.getBoolean(KEY_UNMETERED, false));
+        writer.print(prefix);
+        writer.println("volatility=" + String.format(Locale.US, "%.2f",
+                sp.getFloat(KEY_VOLATILITY, 0f))
+                + " meanOpenGap=" + TimeUnit.MILLISECONDS.toMinutes(meanOpenGap) + "min"
+                + " lastOpen=" + sp.getLong(KEY_LAST_OPEN, 0)
+                + " lastSync=" + sp.getLong(KEY_LAST_SYNC, 0));
+    }
+}
@@ -0,0 +1,95 @@
+package com.technowapps.sunshine.sync;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.work.Constraints;
+import androidx.work.ExistingPeriodicWorkPolicy;
+import androidx.work.PeriodicWorkRequest;
+import androidx.work.WorkManager;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+import com.technowapps.sunshine.data.ArchiveBlock;
+import com.technowapps.sunshine.data.ArchiveDao;
+import com.technowapps.sunshine.data.WeatherDatabase;
+import com.technowapps.sunshine.utilities.SunshineDateUtils;
+import com.technowapps.sunshine.utilities.SunshineMetrics;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the weather archive small enough to scan quickly. Months that are over are packed into
+ * compressed blocks, days older than a year are merged into weeks, and anything older than the
+ * retention period is deleted.
+ */
+public class ArchiveCompactionWorker extends Worker {
+
+    private static final String TAG = ArchiveCompactionWorker.class.getSimpleName();
+
+    private static final String UNIQUE_WORK_NAME = "archive-compaction";
+
+    /* Rows stay unpacked for a month after their month ends, while late days may still arrive */
+    private static final long PACK_AFTER_DAYS = 31;
+    /* Daily history is kept for a year, weekly history for five */
+    private static final long DOWNSAMPLE_AFTER_DAYS = 365;
+    private static final long RETENTION_DAYS = 5 * 365;
+
+    public ArchiveCompactionWorker(@NonNull Context appContext,
+                                   @NonNull WorkerParameters workerParams) {
+        super(appContext, workerParams);
+    }
+
+    /**
+     * Schedules the compaction to run once a day, while the device is charging, unless it is
+     * already scheduled.
+     *
+     * @param context Used to access WorkManager
+     */
+    public static void schedule(Context context) {
+        Constraints constraints = new Constraints.Builder()
+                .setRequiresCharging(true)
+                .setRequiresBatteryNotLow(true)
+                .build();
+
+        PeriodicWorkRequest request = new PeriodicWorkRequest.Builder(
+                ArchiveCompactionWorker.class, 1, TimeUnit.DAYS)
+                .setConstraints(constraints)
+                .build();
+
+        WorkManager.getInstance(context).enqueueUniquePeriodicWork(UNIQUE_WORK_NAME,
+                ExistingPeriodicWorkPolicy.KEEP, request);
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        ArchiveDao archiveDao = WeatherDatabase.getInstance(getApplicationContext()).archiveDao();
+        long normalizedUtcToday = SunshineDateUtils.getNormalizedUtcDateForToday();
+        long packBefore = normalizedUtcToday - PACK_AFTER_DAYS * SunshineDateUtils.DAY_IN_MILLIS;
+        long downsampleBefore =
+                normalizedUtcToday - DOWNSAMPLE_AFTER_DAYS * SunshineDateUtils.DAY_IN_MILLIS;
+        long retainFrom = normalizedUtcToday - RETENTION_DAYS * SunshineDateUtils.DAY_IN_MILLIS;
+
+        /* Each location is compacted in its own transaction, so the database is never held long */
+        int rowsPacked = 0;
+        int daysMerged = 0;
+        for (long locationId : archiveDao.loadArchivedLocationIds()) {
+            if (isStopped()) return Result.retry();
+            rowsPacked += archiveDao.packArchive(locationId, packBefore);
+            daysMerged += archiveDao.compactArchive(locationId, downsampleBefore);
+        }
+        /* Blocks go a whole month at a time, once all of it is past the retention period */
+        int rowsExpired = archiveDao.deleteArchiveBefore(retainFrom);
+        int blocksExpired = archiveDao.deleteBlocksBefore(ArchiveBlock.monthOf(retainFrom));
+
+        SunshineMetrics.add(SunshineMetrics.ARCHIVE_ROWS_PACKED, rowsPacked);
+        SunshineMetrics.add(SunshineMetrics.ARCHIVE_DAYS_DOWNSAMPLED, daysMerged);
+        SunshineMetrics.add(SunshineMetrics.ARCHIVE_ROWS_EXPIRED, rowsExpired);
+        Log.i(TAG, "Archive compacted: " + rowsPacked + " rows packed, " + daysMerged
+                + " days merged into weeks, " + rowsExpired + " rows and " + blocksExpired
+                + " blocks expired");
+        return Result.success();
+    }
+}
@@ -0,0 +1,161 @@
+package com.technowapps.sunshine.sync;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.technowapps.sunshine.data.Weather;
+import com.technowapps.sunshine.data.WeatherLocation;
+import com.technowapps.sunshine.utilities.AppExecutors;
+import com.technowapps.sunshine.utilities.InstrumentedExecutor;
+import com.technowapps.sunshine.utilities.NetworkUtils;
+import com.technowapps.sunshine.utilities.OpenWeatherJsonUtils;
+import com.technowapps.sunshine.utilities.SingleFlight;
+import com.technowapps.sunshine.utilities.SunshineMetrics;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Fetches the forecasts for several locations at once on {@link AppExecutors#networkIO()}, so the
+ * time a sync takes follows its slowest request rather than the sum of all of them.
+ */
+class ForecastFetcher {
+
+    private static final String TAG = ForecastFetcher.class.getSimpleName();
+
+    /*
+     * Requests for the same URL (same location, units and excluded fields) that overlap in time
+     * share a single HTTP call, as long as they draw on the same share of the API quota.
+     */
+    private static final SingleFlight<String, Weather[]> sInFlightUserRequests =
+            new SingleFlight<>(SunshineMetrics.HTTP_REQUEST_COALESCED);
+    private static final SingleFlight<String, Weather[]> sInFlightBackgroundRequests =
+            new SingleFlight<>(SunshineMetrics.HTTP_REQUEST_COALESCED);
+
+    /**
+     * What came back from fetching several locations.
+     */
+    static final class Results {
+
+        /* Forecasts that were fetched and parsed, in the order the locations were given */
+        final Map<WeatherLocation, Weather[]> mForecasts = new LinkedHashMap<>();
+        /* Why each location that couldn't be fetched failed */
+        final Map<WeatherLocation, Throwable> mFailures = new HashMap<>();
+
+        private Results() {
+        }
+    }
+
+    /**
+     * Fetches and parses the forecast of every location, running at most maxConcurrentRequests
+     * requests at the same time. Each response is parsed by the thread that fetched it as soon as
+     * it arrives.
+     * <p>
+     * The calling thread waits for a free slot before handing each request to the network pool,
+     * so pool threads never sit blocked waiting for one. The pool gets an extra thread for every
+     * slot while the fetch runs, and gives them back once every request is done, so a sync
+     * running on the pool itself never waits behind its own requests.
+     *
+     * @param context               Used to build URLs and access the network
+     * @param locations             The locations to fetch
+     * @param maxConcurrentRequests Maximum number of requests in flight at once
+     * @param userInitiated         True if the user is waiting on these requests
+     * @param recorder              Told how long each request took and how it went
+     * @return The parsed forecast for every location that could be fetched, in the order the
+     * locations were given, and the error for every location that couldn't
+     * @throws InterruptedException If the calling thread is interrupted while waiting
+     */
+    static Results fetchForecasts(final Context context, List<WeatherLocation> locations,
+                                  int maxConcurrentRequests, final boolean userInitiated,
+                                  final SyncTelemetry.Recorder recorder)
+            throws InterruptedException {
+
+        maxConcurrentRequests = Math.max(1, maxConcurrentRequests);
+        final Semaphore permits = new Semaphore(maxConcurrentRequests);
+        InstrumentedExecutor networkIO = AppExecutors.getInstance().networkIO();
+        int priority = userInitiated
+                ? InstrumentedExecutor.PRIORITY_USER : InstrumentedExecutor.PRIORITY_BACKGROUND;
+
+        List<FutureTask<Weather[]>> tasks = new ArrayList<>(locations.size());
+        networkIO.reserveThreads(maxConcurrentRequests);
+        try {
+            for (final WeatherLocation location : locations) {
+                permits.acquire();
+                FutureTask<Weather[]> task = new FutureTask<>(() -> {
+                    try {
+                        return fetchForecast(context, location, userInitiated, recorder);
+                    } finally {
+                        permits.release();
+                    }
+                });
+                tasks.add(task);
+                try {
+                    networkIO.execute(AppExecutors.TASK_FORECAST_FETCH, priority, task);
+                } catch (RejectedExecutionException e) {
+                    /* The request still runs, just not in parallel */
+                    task.run();
+                }
+            }
+
+            Results results = new Results();
+            for (int i = 0; i < tasks.size(); i++) {
+                WeatherLocation location = locations.get(i);
+                try {
+                    Weather[] weathers = tasks.get(i).get();
+                    if (weathers != null && weathers.length != 0) {
+                        results.mForecasts.put(location, weathers);
+                    }
+                } catch (ExecutionException e) {
+                    Throwable cause = unwrap(e);
+                    recorder.recordError(cause);
+                    results.mFailures.put(location, cause);
+                    Log.e(TAG, "Couldn't fetch the forecast for " + location, cause);
+                }
+            }
+            return results;
+        } finally {
+            /* Requests left running after an interrupt finish on the threads that stay */
+            networkIO.releaseThreads(maxConcurrentRequests);
+        }
+    }
+
+    private static Weather[] fetchForecast(final Context context, WeatherLocation location,
+                                           final boolean userInitiated,
+                                           final SyncTelemetry.Recorder recorder)
+            throws ExecutionException, InterruptedException {
+        long startedAt = System.nanoTime();
+        final URL weatherRequestUrl = NetworkUtils.getUrlForWeatherForecast(context, location);
+        final long urlBuiltAt = System.nanoTime();
+        recorder.addStageTime(SyncTelemetry.STAGE_URL, urlBuiltAt - startedAt);
+
+        /* Use the URL to retrieve the JSON, parsing it into weather values as it streams in */
+        SingleFlight<String, Weather[]> inFlightRequests =
+                userInitiated ? sInFlightUserRequests : sInFlightBackgroundRequests;
+        return inFlightRequests.execute(weatherRequestUrl.toString(), () ->
+                NetworkUtils.readResponseFromHttpUrl(context, weatherRequestUrl, body -> {
+                    long headersAt = System.nanoTime();
+                    recorder.addStageTime(SyncTelemetry.STAGE_HTTP, headersAt - urlBuiltAt);
+
+                    Weather[] weathers = OpenWeatherJsonUtils.getWeatherForecastArrayFromReader(body);
+                    recorder.addStageTime(SyncTelemetry.STAGE_PARSE, System.nanoTime() - headersAt);
+                    return weathers;
+                }, recorder, userInitiated));
+    }
+
+    /* Failures of a shared request arrive wrapped twice: once by our task, once by SingleFlight */
+    private static Throwable unwrap(ExecutionException e) {
+        Throwable cause = e.getCause();
+        while (cause instanceof ExecutionException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+}
@@ -17,67 +17,289 @@ package com.technowapps.sunshine.sync;
 
 
 import android.content.Context;
+import android.util.Log;
 
+import com.technowapps.sunshine.data.ForecastSnapshot;
+import com.technowapps.sunshine.data.SunshinePreferences;
 import com.technowapps.sunshine.data.Weather;
 import com.technowapps.sunshine.data.WeatherDatabase;
-import com.technowapps.sunshine.utilities.NetworkUtils;
+import com.technowapps.sunshine.data.WeatherLocation;
+import com.technowapps.sunshine.utilities.SingleFlight;
+import com.technowapps.sunshine.utilities.SunshineDateUtils;
+import com.technowapps.sunshine.utilities.SunshineMetrics;
 
-import com.technowapps.sunshine.utilities.OpenWeatherJsonUtils;
-
-import java.net.URL;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
 
 public class SunshineSyncTask {
+
+    private static final String TAG = SunshineSyncTask.class.getSimpleName();
+
+    private static final String FORECAST_DIGEST_ALGORITHM = "SHA-1";
+
+    /*
+     * Syncs can be requested by MainActivity, SettingsFragment and SunshineWorker at nearly the
+     * same time. Rather than queueing them up to fetch the same data back to back, a request that
+     * arrives while a sync of the same locations is running waits for that sync instead. Syncs
+     * the user asked for are coalesced apart from background ones: joining a background sync
+     * would hold the user's sync to the background share of the API quota, and have it come back
+     * deferred when that share runs out.
+     */
+    private static final SingleFlight<List<WeatherLocation>, SyncResult> sInFlightUserSyncs =
+            new SingleFlight<>(SunshineMetrics.SYNC_COALESCED);
+    private static final SingleFlight<List<WeatherLocation>, SyncResult>
+            sInFlightBackgroundSyncs = new SingleFlight<>(SunshineMetrics.SYNC_COALESCED);
+
     /**
-     * Performs the network request for updated weather, parses the JSON from that request, and
-     * inserts the new weather information into our ContentProvider. Will notify the user that new
+     * Performs the network requests for updated weather for the preferred location and every
+     * location on the watch list, parses the JSON from those requests, and inserts the new weather
+     * information into our database in a single transaction. Will notify the user that new
      * weather has been loaded if the user hasn't been notified of the weather within the last day
      * AND they haven't disabled notifications in the preferences screen.
      *
-     * @param context Used to access utility methods and the ContentResolver
+     * @param context       Used to access utility methods and the database
+     * @param userInitiated True if the user asked for this sync and is waiting on it, which lets
+     *                      it use the part of the API quota held back for the user
+     * @return How the sync went, and whether it is worth retrying
      */
-    synchronized public static void syncWeather(Context context) {
+    public static SyncResult syncWeather(final Context context, final boolean userInitiated) {
+
+        /*
+         * The preferred location always comes first, followed by the watch list. All of them
+         * are fetched at the same time, up to the configured number of requests in flight.
+         */
+        final List<WeatherLocation> locations = SunshinePreferences.getLocationsToSync(context);
 
         try {
-            /*
-             * The getUrl method will return the URL that we need to get the forecast JSON for the
-             * weather. It will decide whether to create a URL based off of the latitude and
-             * longitude or off of a simple location as a String.
-             */
-            URL weatherRequestUrl = NetworkUtils.getUrlForWeatherForecast(context);
+            SingleFlight<List<WeatherLocation>, SyncResult> inFlightSyncs =
+                    userInitiated ? sInFlightUserSyncs : sInFlightBackgroundSyncs;
+            SyncResult result = inFlightSyncs.execute(locations, () -> {
+                SyncTelemetry.Recorder recorder = SyncTelemetry.startSync();
+                SyncResult syncResult;
+                try {
+                    syncResult = syncLocations(context, locations, userInitiated, recorder);
+                } catch (InterruptedException e) {
+                    throw e;
+                } catch (Exception e) {
+                    syncResult = SyncResult.fromError(e);
+                }
+                recorder.recordError(syncResult.getError());
+                recorder.finish(context, syncResult.getStatus());
+                recordRecovery(context, syncResult);
+                return syncResult;
+            });
+
+            if (!result.isSuccess()) {
+                Log.e(TAG, "Sync failed: " + result.getStatus(), result.getError());
+            }
+            return result;
+        } catch (ExecutionException e) {
+            /* Only an interrupted sync gets here; every other failure is classified above */
+            Log.e(TAG, "Sync interrupted", e.getCause());
+            return SyncResult.of(SyncResult.Status.TRANSIENT_FAILURE);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return SyncResult.of(SyncResult.Status.TRANSIENT_FAILURE);
+        }
+    }
 
-            /* Use the URL to retrieve the JSON */
-            String jsonWeatherResponse = NetworkUtils.getResponseFromHttpUrl(weatherRequestUrl);
+    /*
+     * Remembers when syncs started failing, and once one works again, how long that took.
+     */
+    private static void recordRecovery(Context context, SyncResult result) {
+        long now = System.currentTimeMillis();
+        if (!result.isSuccess()) {
+            SunshinePreferences.saveFirstSyncFailureTime(context, now);
+            return;
+        }
 
+        long firstFailure = SunshinePreferences.getFirstSyncFailureTime(context);
+        if (firstFailure == 0) return;
 
-            /* Parse the JSON into a list of weather values */
-            Weather[] weathersArray = OpenWeatherJsonUtils
-                    .getWeatherForecastArrayFromJson( jsonWeatherResponse);
+        long timeToRecovery = Math.max(0, now - firstFailure);
+        SunshineMetrics.increment(SunshineMetrics.SYNC_RECOVERED);
+        SunshineMetrics.add(SunshineMetrics.SYNC_RECOVERY_MILLIS, timeToRecovery);
+        Log.i(TAG, "Sync recovered " + timeToRecovery + "ms after it started failing");
+        SunshinePreferences.clearFirstSyncFailureTime(context);
+    }
 
-            /*
-             * In cases where our JSON contained an error code, getWeatherContentValuesFromJson
-             * would have returned null. We need to check for those cases here to prevent any
-             * NullPointerExceptions being thrown. We also have no reason to insert fresh data if
-             * there isn't any to insert.
-             */
-            if (weathersArray != null && weathersArray.length != 0) {
+    private static SyncResult syncLocations(Context context, List<WeatherLocation> locations,
+                                            boolean userInitiated,
+                                            SyncTelemetry.Recorder recorder)
+            throws InterruptedException {
+        int maxConcurrentRequests = SunshinePreferences.getSyncConcurrency(context);
 
-                WeatherDatabase mDb = WeatherDatabase.getInstance(context);
+        ForecastFetcher.Results results = ForecastFetcher.fetchForecasts(context, locations,
+                maxConcurrentRequests, userInitiated, recorder);
 
-                /* Delete old weather data because we don't need to keep multiple days' data */
+        /*
+         * Locations whose JSON contained an error code, or whose request failed, are missing
+         * from the forecasts. We have no reason to insert fresh data if there isn't any to insert.
+         */
+        Weather[] weathersArray = results.mForecasts.get(locations.get(0));
+        if (weathersArray == null) {
+            Throwable failure = results.mFailures.get(locations.get(0));
+            /* Without an exception, the response itself reported an error */
+            return failure != null
+                    ? SyncResult.fromError(failure)
+                    : SyncResult.of(SyncResult.Status.PERMANENT_FAILURE);
+        }
 
-                mDb.weatherDao().deleteWeatherData();
+        /*
+         * Syncs for different locations are not coalesced, so a slow sync for a location the
+         * user has since moved away from must not overwrite the newer location's forecast.
+         */
+        if (!locations.get(0).equals(SunshinePreferences.getLocationsToSync(context).get(0))) {
+            return SyncResult.of(SyncResult.Status.SUPERSEDED);
+        }
 
-                /* Insert our new weather data into Sunshine's ContentProvider */
+        /*
+         * Most periodic syncs bring back exactly the forecast we already have. When the digest of
+         * a new forecast matches the one we last wrote for its location, there is nothing to
+         * merge and nothing for the UI to redraw. The digest lives on the location's row and is
+         * cleared whenever its forecast rows are dropped, so a match means the rows are there.
+         */
+        final WeatherDatabase mDb = WeatherDatabase.getInstance(context);
+        WeatherLocation preferredLocation = locations.get(0);
+        final Map<WeatherLocation, String> changedDigests = new LinkedHashMap<>();
+        String previousPreferredDigest = null;
+        for (Map.Entry<WeatherLocation, Weather[]> forecast : results.mForecasts.entrySet()) {
+            String digest = computeForecastDigest(forecast.getValue());
+            long locationId = mDb.locationDao().getOrCreateLocationId(forecast.getKey());
+            String storedDigest = mDb.locationDao().loadForecastDigest(locationId);
+            if (forecast.getKey().equals(preferredLocation)) previousPreferredDigest = storedDigest;
+            if (!digest.equals(storedDigest)) {
+                changedDigests.put(forecast.getKey(), digest);
+            }
+        }
 
-                long[] ids = mDb.weatherDao().insertAllWeatherData(weathersArray);
+        if (!changedDigests.containsKey(preferredLocation)) {
+            AdaptiveSyncScheduler.recordForecastVolatility(context, 0f);
+            /* The table is current, but the snapshot may be missing or for another location */
+            refreshForecastSnapshot(context, preferredLocation, weathersArray, false);
+        }
+        final long normalizedUtcToday = SunshineDateUtils.getNormalizedUtcDateForToday();
 
-            /* If the code reaches this point, we have successfully performed our sync */
+        /*
+         * How far the forecast moved since the last sync drives how soon the next one runs. A
+         * location without a previous digest has nothing comparable stored.
+         */
+        if (changedDigests.containsKey(preferredLocation)
+                && previousPreferredDigest != null) {
+            long preferredLocationId = mDb.locationDao().getOrCreateLocationId(preferredLocation);
+            AdaptiveSyncScheduler.recordForecastVolatility(context,
+                    AdaptiveSyncScheduler.measureVolatility(
+                            mDb.weatherDao().loadWeatherDataFrom(preferredLocationId,
+                                    normalizedUtcToday),
+                            weathersArray));
+        }
+
+        /*
+         * Rather than deleting everything and inserting it again, each changed forecast is merged
+         * under its own location: only changed days are written and past days are moved to the
+         * archive. Past days of unchanged forecasts are moved too, or they would stay until the
+         * forecast changes; that touches no rows unless a day has passed. The forecasts of
+         * locations that are no longer synced are dropped, after archiving their past days. It
+         * all happens in one transaction, so observers are invalidated once.
+         */
+        final Map<WeatherLocation, Weather[]> forecasts = results.mForecasts;
+        long mergeStartedAt = System.nanoTime();
+        int rowsWritten = mDb.runInTransaction(() -> {
+            List<Long> locationIds = new ArrayList<>(locations.size());
+            for (WeatherLocation location : locations) {
+                locationIds.add(mDb.locationDao().getOrCreateLocationId(location));
+            }
+            int rows = mDb.weatherDao().retainWeatherDataOf(locationIds, normalizedUtcToday);
 
+            for (int i = 0; i < locations.size(); i++) {
+                WeatherLocation location = locations.get(i);
+                long locationId = locationIds.get(i);
+                String digest = changedDigests.get(location);
+                if (digest == null) {
+                    rows += mDb.weatherDao().pruneWeatherDataBefore(locationId,
+                            normalizedUtcToday);
+                    continue;
+                }
+                rows += mDb.weatherDao().mergeWeatherData(locationId, normalizedUtcToday,
+                        forecasts.get(location));
+                mDb.locationDao().updateForecastDigest(locationId, digest);
             }
+            return rows;
+        });
+        recorder.addStageTime(SyncTelemetry.STAGE_DB, System.nanoTime() - mergeStartedAt);
+        recorder.setRowsWritten(rowsWritten);
+
+        if (changedDigests.isEmpty()) {
+            SunshineMetrics.increment(SunshineMetrics.SYNC_NO_OP);
+            return SyncResult.of(SyncResult.Status.UNCHANGED);
+        }
+
+        if (changedDigests.containsKey(preferredLocation)) {
+            refreshForecastSnapshot(context, preferredLocation, weathersArray, true);
+        }
+
+        /* If the code reaches this point, we have successfully performed our sync */
+        return SyncResult.of(SyncResult.Status.SUCCESS);
+    }
+
+    /**
+     * Lets MainActivity show the preferred location's forecast on its next cold start before Room
+     * is open. An unchanged forecast still needs writing if the snapshot holds another location,
+     * as it does after switching to a location whose forecast was already stored.
+     *
+     * @param context         Used to find the app's files directory
+     * @param location        The preferred location
+     * @param weathers        Its forecast
+     * @param forecastChanged True if the forecast differs from the one last stored
+     */
+    static void refreshForecastSnapshot(Context context, WeatherLocation location,
+                                        Weather[] weathers, boolean forecastChanged) {
+        if (!forecastChanged && ForecastSnapshot.isFor(context, location)) return;
+
+        /* The snapshot is only a head start for the UI, so failing to write it isn't fatal */
+        try {
+            ForecastSnapshot.write(context, location, weathers);
+        } catch (IOException e) {
+            Log.e(TAG, "Couldn't write the forecast snapshot", e);
+        }
+    }
+
+    /**
+     * Computes a digest over the values of a forecast (not the row IDs), so two downloads of the
+     * same forecast give the same digest even if the JSON around them differed.
+     *
+     * @param weathers The forecast
+     * @return The digest as a hex String
+     */
+    private static String computeForecastDigest(Weather[] weathers) {
+        MessageDigest messageDigest;
+        try {
+            messageDigest = MessageDigest.getInstance(FORECAST_DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            /* Every Android device is required to provide SHA-1 */
+            throw new IllegalStateException(e);
+        }
+
+        /* Each day is hashed in the same layout as a snapshot record */
+        ByteBuffer buffer = ByteBuffer.allocate(ForecastSnapshot.RECORD_BYTES);
+        for (Weather weather : weathers) {
+            buffer.clear();
+            ForecastSnapshot.putRecord(buffer, weather);
+            messageDigest.update(buffer.array(), 0, buffer.position());
+        }
 
-        } catch (Exception e) {
-            /* Server probably invalid */
-            e.printStackTrace();
+        StringBuilder hex = new StringBuilder();
+        for (byte b : messageDigest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16))
+                    .append(Character.forDigit(b & 0xF, 16));
         }
+        return hex.toString();
     }
-}
\ No newline at end of file
+}
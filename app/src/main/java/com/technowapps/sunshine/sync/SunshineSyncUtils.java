@@ -18,16 +18,9 @@ package com.technowapps.sunshine.sync;
 import android.content.Context;
 
 import androidx.annotation.NonNull;
-import androidx.work.Constraints;
-import androidx.work.ExistingPeriodicWorkPolicy;
-import androidx.work.NetworkType;
-import androidx.work.PeriodicWorkRequest;
-import androidx.work.WorkManager;
 
 import com.technowapps.sunshine.utilities.AppExecutors;
-
-
-import java.util.concurrent.TimeUnit;
+import com.technowapps.sunshine.utilities.InstrumentedExecutor;
 
 public class SunshineSyncUtils {
 
@@ -46,28 +39,25 @@ public class SunshineSyncUtils {
         sInitialized = true;
 
 
-        Constraints constraints = new Constraints.Builder()
-                .setRequiredNetworkType(NetworkType.CONNECTED)
-                .build();
-
-        PeriodicWorkRequest request = new PeriodicWorkRequest.Builder(SunshineWorker.class, 1, TimeUnit.DAYS)
-                .setConstraints(constraints)
-                .build();
-
-        String UNIQUE_PERIODIC_WORK_NAME = "my-unique-work";
-
-        WorkManager.getInstance(context)
-                .enqueueUniquePeriodicWork(UNIQUE_PERIODIC_WORK_NAME, ExistingPeriodicWorkPolicy.KEEP,request);
-
+        /*
+         * The interval and constraints of the periodic sync adapt to how volatile the forecast
+         * has been and how often the app is used.
+         */
+        AdaptiveSyncScheduler.schedule(context);
 
+        /* The archive of past days is downsampled and expired in the background */
+        ArchiveCompactionWorker.schedule(context);
     }
 
 
     /**
      * Helper method to perform a sync immediately using an IntentService for asynchronous
-     * execution.
+     * execution. These syncs are always on the user's behalf, so they may use the part of the
+     * API quota held back for the user.
      */
     public static void startImmediateSync(@NonNull final Context context) {
-        AppExecutors.getInstance().networkIO().execute(() -> SunshineSyncTask.syncWeather(context));
+        AppExecutors.getInstance().networkIO().execute(AppExecutors.TASK_SYNC,
+                InstrumentedExecutor.PRIORITY_USER,
+                () -> SunshineSyncTask.syncWeather(context, true));
     }
 }
\ No newline at end of file
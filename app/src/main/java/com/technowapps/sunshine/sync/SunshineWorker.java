@@ -5,14 +5,29 @@ import android.text.format.DateUtils;
 
 import androidx.annotation.NonNull;
 
+import androidx.work.BackoffPolicy;
+import androidx.work.Constraints;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.NetworkType;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.WorkManager;
 import androidx.work.Worker;
 import androidx.work.WorkerParameters;
 
 import com.technowapps.sunshine.data.SunshinePreferences;
 import com.technowapps.sunshine.utilities.NotificationUtils;
+import com.technowapps.sunshine.utilities.SunshineMetrics;
+
+import java.util.concurrent.TimeUnit;
 
 public class SunshineWorker extends Worker {
 
+    /* Attempts at a failed sync, counting the first, before waiting for the next periodic run */
+    private static final int MAX_RETRY_ATTEMPTS = 5;
+
+    /* A one-off sync scheduled for when a rate limited server said to come back */
+    private static final String RETRY_AFTER_WORK_NAME = "sync-retry-after";
+
     private final Context context;
 
 
@@ -25,9 +40,65 @@ public class SunshineWorker extends Worker {
     @NonNull
     @Override
     public Result doWork() {
-        SunshineSyncTask.syncWeather(context);
-        notifyUser(context);
-        return Result.success();
+        SyncResult result = SunshineSyncTask.syncWeather(context, false);
+
+        if (result.isSuccess()) {
+            notifyUser(context);
+            AdaptiveSyncScheduler.recordSync(context);
+            /* Last, since a new schedule replaces this work; everything above has already run */
+            AdaptiveSyncScheduler.schedule(context);
+            return Result.success();
+        }
+
+        switch (result.getStatus()) {
+            case RATE_LIMITED:
+                SunshineMetrics.increment(SunshineMetrics.SYNC_RATE_LIMITED);
+                /* No delay at all would rerun straight into the same refusal, so that backs off */
+                if (result.getRetryAfterMillis() > 0) {
+                    /* The server told us when to come back; retrying any sooner is wasted */
+                    scheduleRetryAfter(context, result.getRetryAfterMillis());
+                    return Result.failure();
+                }
+                return retryWithBackoff();
+
+            case TRANSIENT_FAILURE:
+                return retryWithBackoff();
+
+            default:
+                /* A bad API key or response won't fix itself; wait for the next periodic run */
+                SunshineMetrics.increment(SunshineMetrics.SYNC_FAILED_PERMANENT);
+                return Result.failure();
+        }
+    }
+
+    /*
+     * WorkManager spaces retries out using the exponential backoff set on the request. After a
+     * few attempts we give up until the next periodic run.
+     */
+    private Result retryWithBackoff() {
+        if (getRunAttemptCount() < MAX_RETRY_ATTEMPTS) {
+            SunshineMetrics.increment(SunshineMetrics.SYNC_RETRY);
+            return Result.retry();
+        }
+        SunshineMetrics.increment(SunshineMetrics.SYNC_RETRY_EXHAUSTED);
+        return Result.failure();
+    }
+
+    /* Runs a single sync once the delay the server asked for has passed */
+    private static void scheduleRetryAfter(Context context, long delayMillis) {
+        Constraints constraints = new Constraints.Builder()
+                .setRequiredNetworkType(NetworkType.CONNECTED)
+                .build();
+
+        OneTimeWorkRequest request = new OneTimeWorkRequest.Builder(SunshineWorker.class)
+                .setInitialDelay(delayMillis, TimeUnit.MILLISECONDS)
+                .setConstraints(constraints)
+                .setBackoffCriteria(BackoffPolicy.EXPONENTIAL,
+                        AdaptiveSyncScheduler.BACKOFF_DELAY_MINUTES, TimeUnit.MINUTES)
+                .build();
+
+        WorkManager.getInstance(context)
+                .enqueueUniqueWork(RETRY_AFTER_WORK_NAME, ExistingWorkPolicy.REPLACE, request);
     }
 
 
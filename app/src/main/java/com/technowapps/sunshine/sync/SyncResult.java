@@ -0,0 +1,133 @@
+package com.technowapps.sunshine.sync;
+
+import androidx.annotation.NonNull;
+
+import com.google.gson.stream.MalformedJsonException;
+import com.technowapps.sunshine.utilities.CircuitOpenException;
+import com.technowapps.sunshine.utilities.HttpStatusException;
+import com.technowapps.sunshine.utilities.QuotaExceededException;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * How a sync ended, classified so the caller knows whether, and when, it is worth trying again.
+ */
+public final class SyncResult {
+
+    /* HTTP 429, which HttpURLConnection has no constant for */
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    public enum Status {
+        /* New forecast data was written */
+        SUCCESS,
+        /* The forecast was the same as the one already stored */
+        UNCHANGED,
+        /* The preferred location changed during the sync; the sync for the new one takes over */
+        SUPERSEDED,
+        /* The network or the server failed in a way that may well work on the next attempt */
+        TRANSIENT_FAILURE,
+        /* The server asked us to slow down, possibly saying for how long */
+        RATE_LIMITED,
+        /* Retrying won't help: the request, the API key or the response itself is bad */
+        PERMANENT_FAILURE
+    }
+
+    private final Status mStatus;
+    private final long mRetryAfterMillis;
+    private final Throwable mError;
+
+    private SyncResult(Status status, long retryAfterMillis, Throwable error) {
+        mStatus = status;
+        mRetryAfterMillis = retryAfterMillis;
+        mError = error;
+    }
+
+    static SyncResult of(Status status) {
+        return new SyncResult(status, -1, null);
+    }
+
+    /**
+     * Classifies the error that ended a sync.
+     *
+     * @param error What the sync threw
+     * @return The result describing the failure
+     */
+    static SyncResult fromError(Throwable error) {
+        while (error instanceof ExecutionException && error.getCause() != null) {
+            error = error.getCause();
+        }
+
+        /* Our own budget ran out; it says when the next call will be allowed */
+        if (error instanceof QuotaExceededException) {
+            return new SyncResult(Status.RATE_LIMITED,
+                    ((QuotaExceededException) error).getRetryAfterMillis(), error);
+        }
+
+        /* The server kept failing, so we stopped calling it; try again once it may have recovered */
+        if (error instanceof CircuitOpenException) {
+            return new SyncResult(Status.RATE_LIMITED,
+                    ((CircuitOpenException) error).getRetryAfterMillis(), error);
+        }
+
+        if (error instanceof HttpStatusException) {
+            HttpStatusException statusException = (HttpStatusException) error;
+            int code = statusException.getCode();
+            long retryAfterMillis = statusException.getRetryAfterMillis();
+
+            if (code == HTTP_TOO_MANY_REQUESTS
+                    || (code == HttpURLConnection.HTTP_UNAVAILABLE && retryAfterMillis >= 0)) {
+                return new SyncResult(Status.RATE_LIMITED, retryAfterMillis, error);
+            }
+            if (code >= HttpURLConnection.HTTP_INTERNAL_ERROR
+                    || code == HttpURLConnection.HTTP_CLIENT_TIMEOUT) {
+                return new SyncResult(Status.TRANSIENT_FAILURE, -1, error);
+            }
+            /* 401 and 403 mean a bad API key; other 4xx a request that will never work */
+            return new SyncResult(Status.PERMANENT_FAILURE, -1, error);
+        }
+
+        /* A response we can't parse will be just as unparseable next time */
+        if (error instanceof MalformedJsonException
+                || error instanceof IllegalStateException
+                || error instanceof NumberFormatException) {
+            return new SyncResult(Status.PERMANENT_FAILURE, -1, error);
+        }
+
+        /* Timeouts, lost connections, unknown hosts, truncated bodies */
+        if (error instanceof IOException) {
+            return new SyncResult(Status.TRANSIENT_FAILURE, -1, error);
+        }
+
+        return new SyncResult(Status.PERMANENT_FAILURE, -1, error);
+    }
+
+    @NonNull
+    public Status getStatus() {
+        return mStatus;
+    }
+
+    /**
+     * @return True if the stored forecast is as fresh as the sync could make it
+     */
+    public boolean isSuccess() {
+        return mStatus == Status.SUCCESS
+                || mStatus == Status.UNCHANGED
+                || mStatus == Status.SUPERSEDED;
+    }
+
+    /**
+     * @return How long the server asked us to wait before trying again, or -1 if it didn't say
+     */
+    public long getRetryAfterMillis() {
+        return mRetryAfterMillis;
+    }
+
+    /**
+     * @return What made the sync fail, or null if it didn't fail or no exception was involved
+     */
+    public Throwable getError() {
+        return mError;
+    }
+}
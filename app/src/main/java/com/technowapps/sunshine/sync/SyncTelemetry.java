@@ -0,0 +1,361 @@
+package com.technowapps.sunshine.sync;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.technowapps.sunshine.utilities.NetworkUtils;
+import com.technowapps.sunshine.utilities.SunshineMetrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records how each sync went: how long each stage took, how many bytes came in, how many rows
+ * were written, where the responses came from and, if it failed, why. The last
+ * {@link #CAPACITY} syncs are kept in a fixed-size file that is memory-mapped as a ring buffer,
+ * so the history survives restarts without ever growing.
+ * <p>
+ * Read it with "adb shell dumpsys activity com.technowapp.sunshine/.MainActivity".
+ */
+public final class SyncTelemetry {
+
+    private static final String TAG = SyncTelemetry.class.getSimpleName();
+
+    /* Stages of a sync. Network stages are summed over every location fetched. */
+    static final int STAGE_URL = 0;
+    static final int STAGE_HTTP = 1;
+    /* Parsing reads the body straight off the connection, so this includes receiving it */
+    static final int STAGE_PARSE = 2;
+    static final int STAGE_DB = 3;
+    private static final int STAGE_COUNT = 4;
+    private static final String[] STAGE_NAMES = {"url", "http", "parse", "db"};
+
+    /* How a sync ended, stored by ordinal */
+    private static final SyncResult.Status[] RESULTS = SyncResult.Status.values();
+
+    private static final String FILE_NAME = "sync_telemetry.bin";
+
+    /* "SNST", identifies a telemetry file */
+    private static final int MAGIC = 0x534E5354;
+    /* Bump whenever the layout of the header or the records changes */
+    private static final int VERSION = 2;
+
+    /* Number of syncs kept; older ones are overwritten */
+    private static final int CAPACITY = 128;
+
+    /* magic (4) | version (4) | capacity (4) | unused (4) | syncs recorded so far (8) */
+    private static final int HEADER_BYTES = 24;
+    private static final int WRITE_COUNT_OFFSET = 16;
+
+    /*
+     * started at (8) | total, url, http, parse, db micros (5 x 4) | bytes (4) | rows (4)
+     * | cache hits, revalidated, misses (3 x 2) | result (1) | unused (1) | error class (32)
+     */
+    private static final int RECORD_BYTES = 80;
+    private static final int ERROR_CLASS_BYTES = 32;
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private static final Object LOCK = new Object();
+    private static MappedByteBuffer sBuffer;
+
+    private SyncTelemetry() {
+    }
+
+    /**
+     * Starts recording a sync.
+     *
+     * @return The recorder to report the sync's progress to
+     */
+    static Recorder startSync() {
+        return new Recorder();
+    }
+
+    /**
+     * Collects what happens during one sync. Locations are fetched in parallel, so everything but
+     * the final result can be reported from any thread.
+     */
+    static final class Recorder implements NetworkUtils.ExchangeListener {
+
+        private final long mStartedAtMillis = System.currentTimeMillis();
+        private final long mStartedAtNanos = System.nanoTime();
+
+        private final AtomicLongArray mStageNanos = new AtomicLongArray(STAGE_COUNT);
+        private final AtomicLong mBytesReceived = new AtomicLong();
+        private final AtomicLong mCacheHits = new AtomicLong();
+        private final AtomicLong mCacheRevalidated = new AtomicLong();
+        private final AtomicLong mCacheMisses = new AtomicLong();
+
+        private volatile int mRowsWritten;
+        private volatile String mErrorClass;
+
+        private Recorder() {
+        }
+
+        void addStageTime(int stage, long nanos) {
+            mStageNanos.addAndGet(stage, nanos);
+        }
+
+        void setRowsWritten(int rowsWritten) {
+            mRowsWritten = rowsWritten;
+        }
+
+        /* Keeps the first error only; later ones are usually a consequence of it */
+        void recordError(Throwable error) {
+            if (mErrorClass == null && error != null) {
+                mErrorClass = error.getClass().getSimpleName();
+            }
+        }
+
+        @Override
+        public void onResponseHeaders(String cacheOutcome) {
+            if (SunshineMetrics.HTTP_CACHE_HIT.equals(cacheOutcome)) {
+                mCacheHits.incrementAndGet();
+            } else if (SunshineMetrics.HTTP_CACHE_REVALIDATED.equals(cacheOutcome)) {
+                mCacheRevalidated.incrementAndGet();
+            } else {
+                mCacheMisses.incrementAndGet();
+            }
+        }
+
+        @Override
+        public void onResponseBodyRead(long byteCount) {
+            mBytesReceived.addAndGet(byteCount);
+        }
+
+        /**
+         * Ends the sync and appends its record to the ring buffer.
+         *
+         * @param context Used to find the telemetry file
+         * @param result  How the sync ended
+         */
+        void finish(Context context, SyncResult.Status result) {
+            long totalNanos = System.nanoTime() - mStartedAtNanos;
+            synchronized (LOCK) {
+                MappedByteBuffer buffer = getBuffer(context);
+                if (buffer == null) return;
+
+                long writeCount = buffer.getLong(WRITE_COUNT_OFFSET);
+                int offset = HEADER_BYTES + (int) (writeCount % CAPACITY) * RECORD_BYTES;
+
+                buffer.putLong(offset, mStartedAtMillis);
+                buffer.putInt(offset + 8, toMicros(totalNanos));
+                for (int stage = 0; stage < STAGE_COUNT; stage++) {
+                    buffer.putInt(offset + 12 + stage * 4, toMicros(mStageNanos.get(stage)));
+                }
+                buffer.putInt(offset + 28, (int) Math.min(Integer.MAX_VALUE, mBytesReceived.get()));
+                buffer.putInt(offset + 32, mRowsWritten);
+                buffer.putShort(offset + 36, toShort(mCacheHits.get()));
+                buffer.putShort(offset + 38, toShort(mCacheRevalidated.get()));
+                buffer.putShort(offset + 40, toShort(mCacheMisses.get()));
+                buffer.put(offset + 42, (byte) result.ordinal());
+                buffer.put(offset + 43, (byte) 0);
+
+                byte[] errorClass = new byte[ERROR_CLASS_BYTES];
+                if (mErrorClass != null) {
+                    byte[] name = mErrorClass.getBytes(ASCII);
+                    System.arraycopy(name, 0, errorClass, 0,
+                            Math.min(name.length, ERROR_CLASS_BYTES));
+                }
+                for (int i = 0; i < ERROR_CLASS_BYTES; i++) {
+                    buffer.put(offset + 44 + i, errorClass[i]);
+                }
+
+                /* Publish the record only once it has been written in full */
+                buffer.putLong(WRITE_COUNT_OFFSET, writeCount + 1);
+            }
+        }
+    }
+
+    private static int toMicros(long nanos) {
+        return (int) Math.min(Integer.MAX_VALUE, TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    private static short toShort(long value) {
+        return (short) Math.min(Short.MAX_VALUE, value);
+    }
+
+    /* Maps the telemetry file, starting a fresh one if it is missing or from another version */
+    private static MappedByteBuffer getBuffer(Context context) {
+        if (sBuffer != null) return sBuffer;
+
+        File file = new File(context.getApplicationContext().getFilesDir(), FILE_NAME);
+        long size = HEADER_BYTES + (long) CAPACITY * RECORD_BYTES;
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            boolean valid = randomAccessFile.length() == size;
+            randomAccessFile.setLength(size);
+
+            MappedByteBuffer buffer = randomAccessFile.getChannel()
+                    .map(FileChannel.MapMode.READ_WRITE, 0, size);
+            if (!valid || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+                    || buffer.getInt(8) != CAPACITY) {
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, VERSION);
+                buffer.putInt(8, CAPACITY);
+                buffer.putInt(12, 0);
+                buffer.putLong(WRITE_COUNT_OFFSET, 0);
+            }
+            sBuffer = buffer;
+            return buffer;
+        } catch (IOException e) {
+            Log.e(TAG, "Couldn't open the sync telemetry file", e);
+            return null;
+        }
+    }
+
+    /**
+     * Writes a summary of the recorded syncs followed by the most recent ones, in the style used
+     * by dumpsys.
+     *
+     * @param context Used to find the telemetry file
+     * @param prefix  Indentation to put in front of each line
+     * @param writer  Where to write the telemetry
+     */
+    public static void dump(Context context, String prefix, PrintWriter writer) {
+        List<long[]> records = new ArrayList<>();
+        List<String> errorClasses = new ArrayList<>();
+        long writeCount;
+
+        synchronized (LOCK) {
+            MappedByteBuffer buffer = getBuffer(context);
+            if (buffer == null) {
+                writer.print(prefix);
+                writer.println("unavailable");
+                return;
+            }
+
+            writeCount = buffer.getLong(WRITE_COUNT_OFFSET);
+            long first = Math.max(0, writeCount - CAPACITY);
+            for (long i = first; i < writeCount; i++) {
+                int offset = HEADER_BYTES + (int) (i % CAPACITY) * RECORD_BYTES;
+                long[] record = new long[12];
+                record[0] = buffer.getLong(offset);
+                for (int field = 0; field < 7; field++) {
+                    record[1 + field] = buffer.getInt(offset + 8 + field * 4);
+                }
+                record[8] = buffer.getShort(offset + 36);
+                record[9] = buffer.getShort(offset + 38);
+                record[10] = buffer.getShort(offset + 40);
+                record[11] = buffer.get(offset + 42);
+                records.add(record);
+
+                byte[] errorClass = new byte[ERROR_CLASS_BYTES];
+                int length = 0;
+                while (length < ERROR_CLASS_BYTES && buffer.get(offset + 44 + length) != 0) {
+                    errorClass[length] = buffer.get(offset + 44 + length);
+                    length++;
+                }
+                errorClasses.add(length == 0 ? null : new String(errorClass, 0, length, ASCII));
+            }
+        }
+
+        writer.print(prefix);
+        writer.println("syncs recorded=" + writeCount + " kept=" + records.size());
+        if (records.isEmpty()) return;
+
+        /* Latency percentiles, in milliseconds, for the whole sync and for each stage */
+        dumpPercentiles(prefix, writer, "total", records, 1);
+        for (int stage = 0; stage < STAGE_COUNT; stage++) {
+            dumpPercentiles(prefix, writer, STAGE_NAMES[stage], records, 2 + stage);
+        }
+
+        int[] resultCounts = new int[RESULTS.length];
+        Map<String, Integer> errorCounts = new TreeMap<>();
+        long bytes = 0;
+        long rows = 0;
+        long hits = 0;
+        long revalidated = 0;
+        long misses = 0;
+        for (int i = 0; i < records.size(); i++) {
+            long[] record = records.get(i);
+            bytes += record[6];
+            rows += record[7];
+            hits += record[8];
+            revalidated += record[9];
+            misses += record[10];
+            int result = (int) record[11];
+            if (result >= 0 && result < resultCounts.length) resultCounts[result]++;
+
+            String errorClass = errorClasses.get(i);
+            if (errorClass != null) {
+                Integer count = errorCounts.get(errorClass);
+                errorCounts.put(errorClass, count == null ? 1 : count + 1);
+            }
+        }
+
+        writer.print(prefix);
+        writer.print("results");
+        for (int result = 0; result < RESULTS.length; result++) {
+            writer.print(" " + resultName(result) + "=" + resultCounts[result]);
+        }
+        writer.println();
+        writer.print(prefix);
+        writer.println("bytes=" + bytes + " rows=" + rows + " cache hit=" + hits
+                + " revalidated=" + revalidated + " miss=" + misses);
+        for (Map.Entry<String, Integer> entry : errorCounts.entrySet()) {
+            writer.print(prefix);
+            writer.println("error " + entry.getKey() + "=" + entry.getValue());
+        }
+
+        writer.print(prefix);
+        writer.println("recent:");
+        for (int i = Math.max(0, records.size() - 10); i < records.size(); i++) {
+            long[] record = records.get(i);
+            int result = (int) record[11];
+            writer.print(prefix);
+            writer.print("  " + record[0]);
+            writer.print(" " + resultName(result));
+            writer.print(" total=" + formatMillis(record[1]));
+            for (int stage = 0; stage < STAGE_COUNT; stage++) {
+                writer.print(" " + STAGE_NAMES[stage] + "=" + formatMillis(record[2 + stage]));
+            }
+            writer.print(" bytes=" + record[6] + " rows=" + record[7]);
+            if (errorClasses.get(i) != null) writer.print(" error=" + errorClasses.get(i));
+            writer.println();
+        }
+    }
+
+    private static String resultName(int result) {
+        return result >= 0 && result < RESULTS.length
+                ? RESULTS[result].name().toLowerCase(Locale.US) : String.valueOf(result);
+    }
+
+    private static void dumpPercentiles(String prefix, PrintWriter writer, String name,
+                                        List<long[]> records, int field) {
+        long[] values = new long[records.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = records.get(i)[field];
+        }
+        Arrays.sort(values);
+
+        writer.print(prefix);
+        writer.println(name + " p50=" + formatMillis(percentile(values, 50))
+                + " p90=" + formatMillis(percentile(values, 90))
+                + " p99=" + formatMillis(percentile(values, 99))
+                + " max=" + formatMillis(values[values.length - 1]));
+    }
+
+    /* Nearest-rank percentile of sorted values */
+    private static long percentile(long[] sortedValues, int percentile) {
+        int rank = (int) Math.ceil(percentile / 100.0 * sortedValues.length);
+        return sortedValues[Math.max(0, rank - 1)];
+    }
+
+    private static String formatMillis(long micros) {
+        return String.format(Locale.US, "%.1fms", micros / 1000.0);
+    }
+}
@@ -4,31 +4,41 @@ import android.os.Handler;
 import android.os.Looper;
 
 
+import androidx.annotation.MainThread;
 import androidx.annotation.NonNull;
+import androidx.lifecycle.LifecycleOwner;
 
-import java.net.URL;
+import java.io.PrintWriter;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 /**
  * Global executor pools for the whole application.
  * <p>
  * Grouping tasks like this avoids the effects of task starvation (e.g. disk reads don't wait behind
- * webservice requests).
+ * webservice requests). Within each pool, tasks the user is waiting on run ahead of background
+ * work; see {@link InstrumentedExecutor}.
  */
 public class AppExecutors {
 
+    /* Task types, used to group tasks in the executor metrics */
+    public static final String TASK_FORECAST_ROWS = "rows";
+    public static final String TASK_DETAIL = "detail";
+    public static final String TASK_LOCATION_CHANGE = "location";
+    public static final String TASK_SYNC = "sync";
+    public static final String TASK_FORECAST_FETCH = "fetch";
+
     // For Singleton instantiation
     private static final Object LOCK = new Object();
-    private static AppExecutors sInstance;
-    private final Executor diskIO;
+    private static volatile AppExecutors sInstance;
+    private final InstrumentedExecutor diskIO;
     private final Executor mainThread;
-    private final Executor networkIO;
+    private final InstrumentedExecutor networkIO;
 
-    private AppExecutors(Executor diskIO, Executor networkIO, Executor mainThread) {
+    private AppExecutors(InstrumentedExecutor diskIO, InstrumentedExecutor networkIO,
+                         Executor mainThread) {
         this.diskIO = diskIO;
         this.networkIO = networkIO;
         this.mainThread = mainThread;
@@ -37,15 +47,17 @@ public class AppExecutors {
     public static AppExecutors getInstance() {
         if (sInstance == null) {
             synchronized (LOCK) {
-                sInstance = new AppExecutors(Executors.newSingleThreadExecutor(),
-                        Executors.newFixedThreadPool(3),
-                        new MainThreadExecutor());
+                if (sInstance == null) {
+                    sInstance = new AppExecutors(new InstrumentedExecutor("disk", 1),
+                            new InstrumentedExecutor("network", 3),
+                            new MainThreadExecutor());
+                }
             }
         }
         return sInstance;
     }
 
-    public Executor diskIO() {
+    public InstrumentedExecutor diskIO() {
         return diskIO;
     }
 
@@ -53,7 +65,7 @@ public class AppExecutors {
         return mainThread;
     }
 
-    public Executor networkIO() {
+    public InstrumentedExecutor networkIO() {
         return networkIO;
     }
 
@@ -67,9 +79,95 @@ public class AppExecutors {
     }
 
 
-    public String fetchResultInBackgroundAndReturnResultOnMainThread(URL url) throws ExecutionException, InterruptedException {
-        ExecutorService executor = Executors.newSingleThreadExecutor();
-        Future<String> result = executor.submit(() -> NetworkUtils.getResponseFromHttpUrl(url));
-        return result.get();
+    /**
+     * Receives, on the main thread, the outcome of work started with
+     * {@link #fetchResultInBackground} or {@link #loadResultInBackground}.
+     *
+     * @param <T> The type of the result
+     */
+    public interface ResultCallback<T> {
+        void onResult(T result);
+
+        void onError(Exception e);
+    }
+
+    /**
+     * Runs the task on the network executor, ahead of background work, and delivers its result or
+     * error to the callback on the main thread. The task is cancelled when the owner is destroyed.
+     *
+     * @param owner    The screen the result is for
+     * @param taskType Groups the task with others like it in the executor metrics
+     * @param task     The work to run in the background
+     * @param callback Receives the outcome on the main thread
+     * @param <T>      The type of the result
+     * @return A handle that can be used to cancel the work
+     */
+    @MainThread
+    public <T> TaskHandle fetchResultInBackground(LifecycleOwner owner, String taskType,
+                                                  Callable<T> task, ResultCallback<T> callback) {
+        return runInBackground(networkIO, owner, taskType, task, callback);
+    }
+
+    /**
+     * Same as {@link #fetchResultInBackground}, for work that reads from disk rather than the
+     * network, such as a database query.
+     *
+     * @param owner    The screen the result is for
+     * @param taskType Groups the task with others like it in the executor metrics
+     * @param task     The work to run in the background
+     * @param callback Receives the outcome on the main thread
+     * @param <T>      The type of the result
+     * @return A handle that can be used to cancel the work
+     */
+    @MainThread
+    public <T> TaskHandle loadResultInBackground(LifecycleOwner owner, String taskType,
+                                                 Callable<T> task, ResultCallback<T> callback) {
+        return runInBackground(diskIO, owner, taskType, task, callback);
+    }
+
+    /*
+     * Cancelling the handle interrupts the task if it is running, and guarantees the callback won't
+     * be called, even if the result was already on its way.
+     */
+    private <T> TaskHandle runInBackground(InstrumentedExecutor executor, LifecycleOwner owner,
+                                           String taskType, Callable<T> task,
+                                           ResultCallback<T> callback) {
+        final TaskHandle[] handle = new TaskHandle[1];
+        FutureTask<T> futureTask = new FutureTask<T>(task) {
+            @Override
+            protected void done() {
+                if (isCancelled()) return;
+
+                mainThread.execute(() -> {
+                    /* The owner may have cancelled while this was waiting for the main thread */
+                    if (isCancelled()) return;
+                    handle[0].release();
+
+                    try {
+                        callback.onResult(get());
+                    } catch (ExecutionException e) {
+                        Throwable cause = e.getCause();
+                        callback.onError(cause instanceof Exception ? (Exception) cause : e);
+                    } catch (InterruptedException e) {
+                        callback.onError(e);
+                    }
+                });
+            }
+        };
+        handle[0] = new TaskHandle(futureTask);
+        handle[0].bindTo(owner);
+        executor.execute(taskType, InstrumentedExecutor.PRIORITY_USER, futureTask);
+        return handle[0];
+    }
+
+    /**
+     * Writes the state of the disk and network pools, in the style used by dumpsys.
+     *
+     * @param prefix Indentation to put in front of each line
+     * @param writer Where to write the state
+     */
+    public void dump(String prefix, PrintWriter writer) {
+        diskIO.dump(prefix, writer);
+        networkIO.dump(prefix, writer);
     }
 }
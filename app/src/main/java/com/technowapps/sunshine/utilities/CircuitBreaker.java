@@ -0,0 +1,128 @@
+package com.technowapps.sunshine.utilities;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.VisibleForTesting;
+
+/**
+ * Stops calling a server that keeps failing. After a number of failures in a row the breaker
+ * opens and turns calls down for a while, so callers fall back to cached data at once instead of
+ * each waiting out a timeout. It then lets a single trial call through: if that works the breaker
+ * closes again, if not it stays open for another while.
+ */
+class CircuitBreaker {
+
+    private static final String TAG = CircuitBreaker.class.getSimpleName();
+
+    enum State {
+        /* Calls go through */
+        CLOSED,
+        /* Calls are turned down */
+        OPEN,
+        /* One trial call is allowed through to see whether the server has recovered */
+        HALF_OPEN
+    }
+
+    /* Where the breaker reads the time from; tests supply their own */
+    interface Clock {
+        long elapsedRealtime();
+    }
+
+    private final Clock mClock;
+
+    private final String mName;
+    private final int mFailureThreshold;
+    private final long mOpenMillis;
+    private final long mTrialMillis;
+
+    private State mState = State.CLOSED;
+    private int mConsecutiveFailures;
+    private long mOpenedAt;
+    private boolean mTrialInFlight;
+
+    /**
+     * @param name             Names the breaker in logs and metrics
+     * @param failureThreshold Failures in a row that open the breaker
+     * @param openMillis       How long the breaker stays open before allowing a trial call
+     * @param trialMillis      The longest a trial call can take, which is how long a call turned
+     *                         down while one is in flight should wait
+     */
+    CircuitBreaker(String name, int failureThreshold, long openMillis, long trialMillis) {
+        this(name, failureThreshold, openMillis, trialMillis, SystemClock::elapsedRealtime);
+    }
+
+    @VisibleForTesting
+    CircuitBreaker(String name, int failureThreshold, long openMillis, long trialMillis,
+                   Clock clock) {
+        mName = name;
+        mFailureThreshold = failureThreshold;
+        mOpenMillis = openMillis;
+        mTrialMillis = trialMillis;
+        mClock = clock;
+    }
+
+    /**
+     * @return True if a call may be made. The caller must then report how it went with
+     * {@link #onSuccess()}, {@link #onFailure()} or {@link #onAbandoned()}.
+     */
+    synchronized boolean allowRequest() {
+        if (mState == State.OPEN) {
+            if (mClock.elapsedRealtime() - mOpenedAt < mOpenMillis) return false;
+            mState = State.HALF_OPEN;
+            mTrialInFlight = false;
+        }
+        if (mState == State.HALF_OPEN) {
+            if (mTrialInFlight) return false;
+            mTrialInFlight = true;
+        }
+        return true;
+    }
+
+    /* The server answered properly */
+    synchronized void onSuccess() {
+        if (mState != State.CLOSED) {
+            Log.i(TAG, mName + " circuit closed");
+        }
+        mState = State.CLOSED;
+        mConsecutiveFailures = 0;
+        mTrialInFlight = false;
+    }
+
+    /* The call failed or timed out, or the server said it was in trouble */
+    synchronized void onFailure() {
+        mConsecutiveFailures++;
+        mTrialInFlight = false;
+        if (mState == State.HALF_OPEN
+                || (mState == State.CLOSED && mConsecutiveFailures >= mFailureThreshold)) {
+            mState = State.OPEN;
+            mOpenedAt = mClock.elapsedRealtime();
+            SunshineMetrics.increment("circuit." + mName + ".opened");
+            Log.w(TAG, mName + " circuit opened after " + mConsecutiveFailures + " failures");
+        }
+    }
+
+    /* The call never reached the server, so it says nothing about its health */
+    synchronized void onAbandoned() {
+        mTrialInFlight = false;
+    }
+
+    synchronized State getState() {
+        return mState;
+    }
+
+    /**
+     * @return How long until a call turned down now may be allowed: until the trial call when the
+     * breaker is open, the longest a trial call can take while one is in flight, 0 if closed
+     */
+    synchronized long getMillisUntilTrial() {
+        switch (mState) {
+            case OPEN:
+                return Math.max(0, mOpenMillis - (mClock.elapsedRealtime() - mOpenedAt));
+            case HALF_OPEN:
+                return mTrialMillis;
+            default:
+                return 0;
+        }
+    }
+}
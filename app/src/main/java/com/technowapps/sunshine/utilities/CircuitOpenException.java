@@ -0,0 +1,28 @@
+package com.technowapps.sunshine.utilities;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a call wasn't made because the endpoint's circuit breaker is open, after it kept
+ * failing, and the HTTP cache had nothing to answer with instead.
+ */
+public class CircuitOpenException extends IOException {
+
+    private final long mRetryAfterMillis;
+
+    /**
+     * @param endpoint         The endpoint whose breaker is open
+     * @param retryAfterMillis How long until the breaker lets a trial call through
+     */
+    public CircuitOpenException(QuotaGovernor.Endpoint endpoint, long retryAfterMillis) {
+        super("Circuit open for " + endpoint.mName + ", retry in " + retryAfterMillis + "ms");
+        mRetryAfterMillis = retryAfterMillis;
+    }
+
+    /**
+     * @return How long until the breaker lets a trial call through
+     */
+    public long getRetryAfterMillis() {
+        return mRetryAfterMillis;
+    }
+}
@@ -0,0 +1,144 @@
+package com.technowapps.sunshine.utilities;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Runs a GET request and, if it hasn't answered within the hedge delay, sends the same request a
+ * second time. Whichever answers first is used and the other is cancelled. This cuts off the slow
+ * tail of latencies at the cost of occasionally making one extra call.
+ * <p>
+ * A call that fails, or that the server answers with a 5xx, doesn't win while the other call can
+ * still bring back a proper response.
+ */
+class HedgedCall implements Callback {
+
+    /* What one of the calls came back with: a Response, or the IOException it failed with */
+    private static final class Outcome {
+        final Call mCall;
+        final Object mValue;
+
+        Outcome(Call call, Object value) {
+            mCall = call;
+            mValue = value;
+        }
+
+        boolean isFailure() {
+            return mValue instanceof IOException
+                    || ((Response) mValue).code() >= HttpURLConnection.HTTP_INTERNAL_ERROR;
+        }
+
+        void close() {
+            if (mValue instanceof Response) ((Response) mValue).close();
+        }
+    }
+
+    private final BlockingQueue<Outcome> mOutcomes = new LinkedBlockingQueue<>();
+    private final AtomicBoolean mDone = new AtomicBoolean();
+
+    private HedgedCall() {
+    }
+
+    /**
+     * Decides whether a second call may be made once the first is late, for example by checking
+     * that the API quota allows it.
+     */
+    interface HedgePermit {
+        boolean tryAcquire();
+    }
+
+    /**
+     * @param client           The client to make the calls with
+     * @param request          An idempotent request
+     * @param hedgeDelayMillis How long to wait for the first call before sending the second
+     * @param permit           Asked before sending the second call
+     * @return The first response that isn't a server error, or the last response if every call
+     * was answered with one; the caller must close it
+     * @throws IOException If the last call to finish failed
+     */
+    static Response execute(OkHttpClient client, Request request, long hedgeDelayMillis,
+                            HedgePermit permit) throws IOException {
+        HedgedCall hedgedCall = new HedgedCall();
+        Call primary = client.newCall(request);
+        Call hedge = null;
+        primary.enqueue(hedgedCall);
+        int outstanding = 1;
+        Outcome outcome = null;
+
+        try {
+            outcome = hedgedCall.mOutcomes.poll(hedgeDelayMillis, TimeUnit.MILLISECONDS);
+            if (outcome == null && permit.tryAcquire()) {
+                SunshineMetrics.increment(SunshineMetrics.HTTP_REQUEST_HEDGED);
+                hedge = client.newCall(request);
+                hedge.enqueue(hedgedCall);
+                outstanding++;
+            }
+            if (outcome == null) {
+                outcome = hedgedCall.mOutcomes.take();
+            }
+
+            /* A failed call only decides the result if no other call can still succeed */
+            while (outcome.isFailure() && outstanding > 1) {
+                outstanding--;
+                outcome.close();
+                outcome = hedgedCall.mOutcomes.take();
+            }
+
+            if (outcome.mValue instanceof Response) return (Response) outcome.mValue;
+            throw (IOException) outcome.mValue;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            outcome = null;
+            throw new InterruptedIOException("Interrupted waiting for " + request.url());
+        } finally {
+            hedgedCall.finish(primary, hedge, outcome == null ? null : outcome.mCall);
+        }
+    }
+
+    /*
+     * Cancels whichever call lost, and closes any response that arrived after the winner. The
+     * winning call is left alone: its response body is still to be read.
+     */
+    private void finish(Call primary, Call hedge, Call winner) {
+        mDone.set(true);
+        if (primary != winner) primary.cancel();
+        if (hedge != null && hedge != winner) hedge.cancel();
+
+        Outcome late;
+        while ((late = mOutcomes.poll()) != null) {
+            late.close();
+        }
+    }
+
+    @Override
+    public void onResponse(@NonNull Call call, @NonNull Response response) {
+        if (mDone.get()) {
+            response.close();
+            return;
+        }
+        Outcome outcome = new Outcome(call, response);
+        mOutcomes.add(outcome);
+        /* The winner may have been picked while this was being added */
+        if (mDone.get() && mOutcomes.remove(outcome)) {
+            response.close();
+        }
+    }
+
+    @Override
+    public void onFailure(@NonNull Call call, @NonNull IOException e) {
+        if (!mDone.get()) mOutcomes.add(new Outcome(call, e));
+    }
+}
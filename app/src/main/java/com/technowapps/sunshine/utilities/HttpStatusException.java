@@ -0,0 +1,35 @@
+package com.technowapps.sunshine.utilities;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a server answers with anything but a successful HTTP status, so callers can tell a
+ * bad request or a bad API key apart from a server that is down or asking us to slow down.
+ */
+public class HttpStatusException extends IOException {
+
+    private final int mCode;
+    private final long mRetryAfterMillis;
+
+    /**
+     * @param code             The HTTP status code of the response
+     * @param retryAfterMillis How long the server asked us to wait, from its Retry-After header,
+     *                         or -1 if it didn't say
+     */
+    public HttpStatusException(int code, long retryAfterMillis) {
+        super("HTTP " + code);
+        mCode = code;
+        mRetryAfterMillis = retryAfterMillis;
+    }
+
+    public int getCode() {
+        return mCode;
+    }
+
+    /**
+     * @return How long the server asked us to wait before trying again, or -1 if it didn't say
+     */
+    public long getRetryAfterMillis() {
+        return mRetryAfterMillis;
+    }
+}
@@ -0,0 +1,185 @@
+package com.technowapps.sunshine.utilities;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A thread pool that runs the tasks the user is waiting on ahead of background work, and records
+ * in {@link SunshineMetrics} how long each type of task waited in the queue, how long it ran and
+ * how often it was turned down.
+ * <p>
+ * Counters are named "executor.&lt;pool&gt;.&lt;task type&gt;.&lt;measure&gt;", for example
+ * "executor.disk.detail.wait.millis".
+ */
+public class InstrumentedExecutor implements Executor {
+
+    private static final String TAG = InstrumentedExecutor.class.getSimpleName();
+
+    /* The user is looking at a screen waiting for this task */
+    public static final int PRIORITY_USER = 0;
+    /* Nobody is waiting on this task; it can run once the pool is free */
+    public static final int PRIORITY_BACKGROUND = 1;
+
+    /* Type of the tasks handed to the plain execute(Runnable) */
+    private static final String DEFAULT_TASK_TYPE = "other";
+
+    private final String mName;
+    private final ThreadPoolExecutor mPool;
+    /* Threads the pool has when nobody has reserved any more */
+    private final int mBaseThreads;
+    /* Threads reserved on top of the base ones; guarded by this */
+    private int mReservedThreads;
+    /* Keeps tasks of the same priority in the order they were submitted */
+    private final AtomicLong mSequence = new AtomicLong();
+
+    /**
+     * @param name    Names the pool in thread names and metrics
+     * @param threads Number of threads in the pool
+     */
+    InstrumentedExecutor(final String name, int threads) {
+        mName = name;
+        mBaseThreads = threads;
+
+        final AtomicInteger threadCount = new AtomicInteger();
+        ThreadFactory threadFactory = runnable ->
+                new Thread(runnable, name + "-" + threadCount.incrementAndGet());
+
+        /*
+         * The queue has no bound, so the pool never grows past its core threads and never turns
+         * tasks down while it is running.
+         */
+        mPool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<>(), threadFactory,
+                (runnable, executor) -> {
+                    SunshineMetrics.increment(((PrioritizedTask) runnable).counter("rejected"));
+                    throw new RejectedExecutionException(mName + " executor is shut down");
+                });
+    }
+
+    /**
+     * Runs the command as a background task of the default type.
+     *
+     * @param command The task to run
+     */
+    @Override
+    public void execute(@NonNull Runnable command) {
+        execute(DEFAULT_TASK_TYPE, PRIORITY_BACKGROUND, command);
+    }
+
+    /**
+     * @param taskType Groups the task with others like it in the metrics
+     * @param priority {@link #PRIORITY_USER} or {@link #PRIORITY_BACKGROUND}
+     * @param command  The task to run
+     * @throws RejectedExecutionException If the executor has been shut down
+     */
+    public void execute(String taskType, int priority, @NonNull Runnable command) {
+        mPool.execute(new PrioritizedTask(taskType, priority, mSequence.getAndIncrement(),
+                command));
+    }
+
+    /**
+     * Adds threads to the pool for a caller that needs that many more tasks running at once, such
+     * as a fan-out of requests. Every reservation must be handed back with
+     * {@link #releaseThreads(int)} once the caller's tasks are done. Reservations add up, so
+     * callers fanning out at the same time don't take threads from each other.
+     *
+     * @param threads The number of threads to add
+     */
+    public synchronized void reserveThreads(int threads) {
+        mReservedThreads += threads;
+        resize();
+    }
+
+    /**
+     * Hands back threads added by {@link #reserveThreads(int)}. Threads beyond the new size stop
+     * once they are idle; new threads are only started once there are tasks for them.
+     *
+     * @param threads The number of threads reserved earlier
+     */
+    public synchronized void releaseThreads(int threads) {
+        mReservedThreads -= threads;
+        resize();
+    }
+
+    private void resize() {
+        int threads = mBaseThreads + Math.max(0, mReservedThreads);
+        /* The maximum can't be below the core size, so whichever moves away from it goes first */
+        if (threads > mPool.getMaximumPoolSize()) {
+            mPool.setMaximumPoolSize(threads);
+            mPool.setCorePoolSize(threads);
+        } else {
+            mPool.setCorePoolSize(threads);
+            mPool.setMaximumPoolSize(threads);
+        }
+    }
+
+    /**
+     * Writes the state of the pool, in the style used by dumpsys. Per task type timings are in
+     * {@link SunshineMetrics}.
+     *
+     * @param prefix Indentation to put in front of each line
+     * @param writer Where to write the state
+     */
+    void dump(String prefix, PrintWriter writer) {
+        writer.print(prefix);
+        writer.println(String.format(Locale.US,
+                "%s threads=%d size=%d active=%d queued=%d completed=%d",
+                mName, mPool.getPoolSize(), mPool.getCorePoolSize(), mPool.getActiveCount(),
+                mPool.getQueue().size(), mPool.getCompletedTaskCount()));
+    }
+
+    /* A task along with what is needed to order it in the queue and to measure it */
+    private final class PrioritizedTask implements Runnable, Comparable<PrioritizedTask> {
+        private final String mTaskType;
+        private final int mPriority;
+        private final long mSequence;
+        private final Runnable mCommand;
+        private final long mQueuedAt = SystemClock.elapsedRealtime();
+
+        PrioritizedTask(String taskType, int priority, long sequence, Runnable command) {
+            mTaskType = taskType;
+            mPriority = priority;
+            mSequence = sequence;
+            mCommand = command;
+        }
+
+        String counter(String measure) {
+            return "executor." + mName + "." + mTaskType + "." + measure;
+        }
+
+        @Override
+        public void run() {
+            long startedAt = SystemClock.elapsedRealtime();
+            SunshineMetrics.add(counter("wait.millis"), startedAt - mQueuedAt);
+            try {
+                mCommand.run();
+            } catch (RuntimeException e) {
+                SunshineMetrics.increment(counter("failed"));
+                Log.e(TAG, mTaskType + " task failed on " + mName, e);
+                throw e;
+            } finally {
+                SunshineMetrics.add(counter("run.millis"), SystemClock.elapsedRealtime() - startedAt);
+                SunshineMetrics.increment(counter("count"));
+            }
+        }
+
+        @Override
+        public int compareTo(PrioritizedTask other) {
+            if (mPriority != other.mPriority) return mPriority < other.mPriority ? -1 : 1;
+            return mSequence < other.mSequence ? -1 : (mSequence == other.mSequence ? 0 : 1);
+        }
+    }
+}
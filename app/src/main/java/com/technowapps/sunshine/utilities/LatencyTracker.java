@@ -0,0 +1,45 @@
+package com.technowapps.sunshine.utilities;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the most recent latencies of an endpoint, to tell how long a call normally takes. Calls
+ * that failed or timed out are recorded too, so a server that has slowed down to the point of
+ * timing out pushes the upper percentiles up instead of disappearing from them.
+ */
+class LatencyTracker {
+
+    private final long[] mSamples;
+    private final int mMinSamples;
+    private int mCount;
+    private int mNext;
+
+    /**
+     * @param capacity   Number of recent latencies kept
+     * @param minSamples Latencies needed before percentiles are reported
+     */
+    LatencyTracker(int capacity, int minSamples) {
+        mSamples = new long[capacity];
+        mMinSamples = minSamples;
+    }
+
+    synchronized void record(long millis) {
+        mSamples[mNext] = millis;
+        mNext = (mNext + 1) % mSamples.length;
+        mCount = Math.min(mCount + 1, mSamples.length);
+    }
+
+    /**
+     * @param percentile Between 0 and 100
+     * @return The latency below which that percentage of recent calls completed, or -1 if too
+     * few calls have been seen to tell
+     */
+    synchronized long getPercentile(int percentile) {
+        if (mCount < mMinSamples) return -1;
+
+        long[] sorted = Arrays.copyOf(mSamples, mCount);
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(percentile / 100.0 * mCount);
+        return sorted[Math.max(0, rank - 1)];
+    }
+}
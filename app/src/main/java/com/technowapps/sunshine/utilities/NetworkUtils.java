@@ -17,23 +17,51 @@ package com.technowapps.sunshine.utilities;
 
 import android.content.Context;
 import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
 
 import com.example.android.sunshine.R;
 import com.technowapps.sunshine.data.SunshinePreferences;
+import com.technowapps.sunshine.data.WeatherLocation;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
-
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Cache;
+import okhttp3.CacheControl;
+import okhttp3.ConnectionPool;
+import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
 import okhttp3.Request;
 import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.ForwardingSource;
+import okio.Okio;
+import okio.Source;
 
 /**
  * These utilities will be used to communicate with the weather servers.
  */
 public final class NetworkUtils {
 
+    private static final String TAG = NetworkUtils.class.getSimpleName();
+
 
     /*
      * Sunshine was originally built to use OpenWeatherMap's API. However, we wanted to provide
@@ -82,15 +110,138 @@ public final class NetworkUtils {
 
     private static final String excluded_fields_encoded_query = "exclude=current,minutely,hourly";
 
+    /* Name of the directory, inside the app's cache directory, used for cached HTTP responses */
+    private static final String HTTP_CACHE_DIRECTORY = "http";
+    /* Upper bound on the size of the HTTP disk cache. A onecall response is only a few kB. */
+    private static final long HTTP_CACHE_SIZE_BYTES = 5 * 1024 * 1024;
+
+    /* Idle connections are kept around long enough to be reused by the next sync or lookup */
+    private static final int MAX_IDLE_CONNECTIONS = 5;
+    private static final long KEEP_ALIVE_MINUTES = 5;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /* HTTP 429, which HttpURLConnection has no constant for */
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    /*
+     * Timeouts per endpoint. The forecast is fetched in the background and can afford to wait;
+     * geocoding is small and the user is watching a spinner, so it gives up sooner.
+     */
+    private static final long FORECAST_CONNECT_TIMEOUT_SECONDS = 10;
+    private static final long FORECAST_READ_TIMEOUT_SECONDS = 15;
+    private static final long FORECAST_CALL_TIMEOUT_SECONDS = 30;
+    private static final long GEOCODING_CONNECT_TIMEOUT_SECONDS = 5;
+    private static final long GEOCODING_READ_TIMEOUT_SECONDS = 5;
+    private static final long GEOCODING_CALL_TIMEOUT_SECONDS = 10;
+
+    /* Failures in a row that open an endpoint's circuit, and how long it then stays open */
+    private static final int CIRCUIT_FAILURE_THRESHOLD = 5;
+    private static final long CIRCUIT_OPEN_MILLIS = TimeUnit.MINUTES.toMillis(2);
+
+    /*
+     * Forecast requests slower than the 95th percentile of recent ones get a second, identical
+     * request sent alongside them. Set to false to never hedge.
+     */
+    private static final boolean HEDGE_FORECAST_REQUESTS = true;
+    private static final int HEDGE_PERCENTILE = 95;
+    /* Below this, a hedge would mostly duplicate requests that were about to answer anyway */
+    private static final long MIN_HEDGE_DELAY_MILLIS = 300;
+    private static final int LATENCY_SAMPLES = 50;
+    private static final int MIN_LATENCY_SAMPLES = 20;
+
+    // For Singleton instantiation
+    private static final Object LOCK = new Object();
+    private static volatile OkHttpClient sHttpClient;
+    private static final Map<QuotaGovernor.Endpoint, OkHttpClient> sEndpointClients =
+            new EnumMap<>(QuotaGovernor.Endpoint.class);
+
+    private static final Map<QuotaGovernor.Endpoint, CircuitBreaker> sCircuitBreakers =
+            new EnumMap<>(QuotaGovernor.Endpoint.class);
+    private static final Map<QuotaGovernor.Endpoint, LatencyTracker> sLatencyTrackers =
+            new EnumMap<>(QuotaGovernor.Endpoint.class);
+
+    static {
+        for (QuotaGovernor.Endpoint endpoint : QuotaGovernor.Endpoint.values()) {
+            long callTimeoutSeconds = endpoint == QuotaGovernor.Endpoint.GEOCODING
+                    ? GEOCODING_CALL_TIMEOUT_SECONDS : FORECAST_CALL_TIMEOUT_SECONDS;
+            sCircuitBreakers.put(endpoint, new CircuitBreaker(endpoint.mName,
+                    CIRCUIT_FAILURE_THRESHOLD, CIRCUIT_OPEN_MILLIS,
+                    TimeUnit.SECONDS.toMillis(callTimeoutSeconds)));
+            sLatencyTrackers.put(endpoint, new LatencyTracker(LATENCY_SAMPLES, MIN_LATENCY_SAMPLES));
+        }
+    }
+
+    /**
+     * Returns the OkHttpClient shared by every request the app makes. Sharing one client means
+     * sharing its connection pool (so a TLS session with the server is reused across calls), its
+     * dispatcher and its disk cache, which honours Cache-Control, ETag and Last-Modified and turns
+     * repeated requests into conditional ones.
+     *
+     * @param context Used to find the cache directory
+     * @return The application wide OkHttpClient
+     */
+    public static OkHttpClient getHttpClient(Context context) {
+        if (sHttpClient == null) {
+            synchronized (LOCK) {
+                if (sHttpClient == null) {
+                    File cacheDirectory = new File(context.getApplicationContext().getCacheDir(),
+                            HTTP_CACHE_DIRECTORY);
+                    sHttpClient = new OkHttpClient.Builder()
+                            .cache(new Cache(cacheDirectory, HTTP_CACHE_SIZE_BYTES))
+                            .connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS,
+                                    KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+                            .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                            .build();
+                }
+            }
+        }
+        return sHttpClient;
+    }
+
+    /*
+     * A client with the endpoint's timeouts. It is derived from the shared client, so it still
+     * shares its connection pool, dispatcher and cache.
+     */
+    private static OkHttpClient getHttpClient(Context context, QuotaGovernor.Endpoint endpoint) {
+        synchronized (sEndpointClients) {
+            OkHttpClient client = sEndpointClients.get(endpoint);
+            if (client == null) {
+                OkHttpClient.Builder builder = getHttpClient(context).newBuilder();
+                if (endpoint == QuotaGovernor.Endpoint.GEOCODING) {
+                    builder.connectTimeout(GEOCODING_CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                            .readTimeout(GEOCODING_READ_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                            .callTimeout(GEOCODING_CALL_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                } else {
+                    builder.connectTimeout(FORECAST_CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                            .readTimeout(FORECAST_READ_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                            .callTimeout(FORECAST_CALL_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                }
+                client = builder.build();
+                sEndpointClients.put(endpoint, client);
+            }
+            return client;
+        }
+    }
+
 
     public static URL getUrlForWeatherForecast(Context context) {
 
+        double[] preferredCoordinates = SunshinePreferences.getLocationCoordinates(context);
+        return getUrlForWeatherForecast(context,
+                new WeatherLocation(preferredCoordinates[0], preferredCoordinates[1]));
+    }
+
+    /*
+     * Builds the onecall URL for any location, not just the user's preferred one. Used when
+     * syncing every location on the watch list.
+     */
+    public static URL getUrlForWeatherForecast(Context context, WeatherLocation location) {
 
         String api_key = context.getResources().getString(R.string.open_weather_api_key);
 
-        double[] preferredCoordinates = SunshinePreferences.getLocationCoordinates(context);
-        double latitude = preferredCoordinates[0];
-        double longitude = preferredCoordinates[1];
+        double latitude = location.getLatitude();
+        double longitude = location.getLongitude();
         Uri weatherQueryUri = Uri.parse(FORECAST_BASE_URL).buildUpon()
                 .encodedQuery(excluded_fields_encoded_query)
                 .appendQueryParameter(LAT_PARAM, String.valueOf(latitude))
@@ -105,7 +256,7 @@ public final class NetworkUtils {
 
             return weatherQueryUrl;
         } catch (MalformedURLException e) {
-            e.printStackTrace();
+            Log.e(TAG, "Couldn't build the forecast URL", e);
             return null;
         }
 
@@ -129,7 +280,7 @@ public final class NetworkUtils {
 
             return weatherQueryUrl;
         } catch (MalformedURLException e) {
-            e.printStackTrace();
+            Log.e(TAG, "Couldn't build the geocoding URL", e);
             return null;
         }
     }
@@ -137,23 +288,307 @@ public final class NetworkUtils {
     /**
      * This method returns the entire result from the HTTP response.
      *
-     * @param url The URL to fetch the HTTP response from.
+     * @param context       Used to get the shared HTTP client
+     * @param url           The URL to fetch the HTTP response from.
+     * @param userInitiated True if the user is waiting on this request, which gives it priority
+     *                      when the API quota runs low
      * @return The contents of the HTTP response, null if no response
-     * @throws IOException Related to network and stream reading
+     * @throws IOException Related to network and stream reading, an HttpStatusException if the
+     *                     server answered with an error status, or a QuotaExceededException or
+     *                     CircuitOpenException if the API quota or the endpoint's circuit
+     *                     breaker didn't allow the call and nothing was cached
+     */
+    public static String getResponseFromHttpUrl(Context context, URL url, boolean userInitiated)
+            throws IOException {
+
+        try (Response response = executeWithinQuota(context, url, userInitiated)) {
+            recordCacheOutcome(response);
+
+            ResponseBody body = response.body();
+            return body == null ? null : body.string();
+        }
+    }
+
+    /**
+     * Reads the body of an HTTP response as it arrives from the network.
+     *
+     * @param <T> The type produced from the response body
+     */
+    public interface ResponseReader<T> {
+        T read(Reader body) throws IOException;
+    }
+
+    /**
+     * This method hands the body of the HTTP response to the given reader as a character stream
+     * backed directly by the connection, so the body never has to be held in memory as a whole.
+     *
+     * @param context Used to get the shared HTTP client
+     * @param url     The URL to fetch the HTTP response from.
+     * @param reader  Consumes the body of the response
+     * @param <T>     The type produced by the reader
+     * @return Whatever the reader returned, null if there was no response body
+     * @throws IOException Related to network and stream reading, an HttpStatusException if the
+     *                     server answered with an error status, or a QuotaExceededException or
+     *                     CircuitOpenException if the API quota or the endpoint's circuit
+     *                     breaker didn't allow the call and nothing was cached
+     */
+    public static <T> T readResponseFromHttpUrl(Context context, URL url, ResponseReader<T> reader)
+            throws IOException {
+        return readResponseFromHttpUrl(context, url, reader, null, false);
+    }
+
+    /**
+     * Told about a single HTTP exchange as it happens, for instrumentation.
+     */
+    public interface ExchangeListener {
+        /**
+         * Called once the response headers have arrived.
+         *
+         * @param cacheOutcome The {@link SunshineMetrics} HTTP cache counter the response counted
+         *                     towards
+         */
+        void onResponseHeaders(String cacheOutcome);
+
+        /**
+         * Called every time bytes of the response body are read, before they are decoded.
+         *
+         * @param byteCount Number of bytes just read
+         */
+        void onResponseBodyRead(long byteCount);
+    }
+
+    /**
+     * Same as {@link #readResponseFromHttpUrl(Context, URL, ResponseReader)}, also reporting the
+     * exchange to a listener.
+     *
+     * @param context       Used to get the shared HTTP client
+     * @param url           The URL to fetch the HTTP response from.
+     * @param reader        Consumes the body of the response
+     * @param listener      Told where the response came from and how many bytes it had, may be
+     *                      null
+     * @param userInitiated True if the user is waiting on this request, which gives it priority
+     *                      when the API quota runs low
+     * @param <T>           The type produced by the reader
+     * @return Whatever the reader returned, null if there was no response body
+     * @throws IOException Related to network and stream reading, an HttpStatusException if the
+     *                     server answered with an error status, or a QuotaExceededException or
+     *                     CircuitOpenException if the API quota or the endpoint's circuit
+     *                     breaker didn't allow the call and nothing was cached
+     */
+    public static <T> T readResponseFromHttpUrl(Context context, URL url, ResponseReader<T> reader,
+                                                ExchangeListener listener, boolean userInitiated)
+            throws IOException {
+
+        try (Response response = executeWithinQuota(context, url, userInitiated)) {
+            String cacheOutcome = recordCacheOutcome(response);
+
+            ResponseBody body = response.body();
+            if (body == null) return null;
+            if (listener == null) return reader.read(body.charStream());
+
+            listener.onResponseHeaders(cacheOutcome);
+            return reader.read(countingCharStream(body, listener));
+        }
+    }
+
+    /*
+     * Every call to OpenWeatherMap goes through here, so it is counted against the API quota and
+     * its endpoint's circuit breaker. When either turns a call down, we still answer from the HTTP
+     * cache if we can, even if the cached response is stale: old data beats no data. A call
+     * answered by the cache never reached the server, so its token is given back.
+     *
+     * The caller must close the response.
      */
-    public static String getResponseFromHttpUrl(URL url) throws IOException {
+    private static Response executeWithinQuota(Context context, URL url, boolean userInitiated)
+            throws IOException {
+        final QuotaGovernor.Endpoint endpoint = getEndpoint(url);
+        if (endpoint == null) {
+            return checkStatusOrClose(getHttpClient(context)
+                    .newCall(new Request.Builder().url(url).build()).execute());
+        }
 
+        CircuitBreaker circuitBreaker = sCircuitBreakers.get(endpoint);
+        if (!circuitBreaker.allowRequest()) {
+            return executeFromCache(context, url, SunshineMetrics.CIRCUIT_SERVED_FROM_CACHE,
+                    new CircuitOpenException(endpoint, circuitBreaker.getMillisUntilTrial()));
+        }
+        if (!QuotaGovernor.tryAcquire(context, endpoint, userInitiated)) {
+            circuitBreaker.onAbandoned();
+            return executeFromCache(context, url, SunshineMetrics.QUOTA_SERVED_FROM_CACHE,
+                    new QuotaExceededException(endpoint,
+                            QuotaGovernor.getMillisUntilAvailable(context, endpoint, userInitiated)));
+        }
 
-        OkHttpClient client = new OkHttpClient();
+        OkHttpClient client = getHttpClient(context, endpoint);
+        Request request = new Request.Builder().url(url).build();
+        LatencyTracker latencyTracker = sLatencyTrackers.get(endpoint);
+        long hedgeDelayMillis = getHedgeDelayMillis(endpoint);
+        long startedAt = SystemClock.elapsedRealtime();
 
+        Response response;
+        try {
+            if (hedgeDelayMillis < 0) {
+                response = client.newCall(request).execute();
+            } else {
+                final Context appContext = context.getApplicationContext();
+                final boolean hedgeUserInitiated = userInitiated;
+                response = HedgedCall.execute(client, request, hedgeDelayMillis,
+                        () -> QuotaGovernor.tryAcquire(appContext, endpoint, hedgeUserInitiated));
+            }
+        } catch (IOException e) {
+            /* Being cancelled says nothing about the server */
+            if (e instanceof InterruptedIOException && Thread.currentThread().isInterrupted()) {
+                circuitBreaker.onAbandoned();
+            } else {
+                circuitBreaker.onFailure();
+                /* A call that timed out took at least its timeout, which has to show in the p95 */
+                latencyTracker.record(SystemClock.elapsedRealtime() - startedAt);
+            }
+            throw e;
+        }
+
+        if (response.networkResponse() == null) {
+            QuotaGovernor.refund(context, endpoint);
+            circuitBreaker.onAbandoned();
+        } else if (response.code() >= HttpURLConnection.HTTP_INTERNAL_ERROR
+                || response.code() == HTTP_TOO_MANY_REQUESTS) {
+            circuitBreaker.onFailure();
+            latencyTracker.record(SystemClock.elapsedRealtime() - startedAt);
+        } else {
+            circuitBreaker.onSuccess();
+            latencyTracker.record(SystemClock.elapsedRealtime() - startedAt);
+        }
+        return checkStatusOrClose(response);
+    }
+
+    /*
+     * Answers a call that wasn't allowed to reach the server from the HTTP cache, or throws the
+     * given exception if nothing was cached.
+     */
+    private static Response executeFromCache(Context context, URL url, String servedCounter,
+                                             IOException notCached) throws IOException {
         Request request = new Request.Builder()
                 .url(url)
+                .cacheControl(CacheControl.FORCE_CACHE)
                 .build();
+        Response response = getHttpClient(context).newCall(request).execute();
+        if (response.cacheResponse() == null) {
+            response.close();
+            throw notCached;
+        }
+        SunshineMetrics.increment(servedCounter);
+        return checkStatusOrClose(response);
+    }
 
-        Response response = client.newCall(request).execute();
+    /*
+     * How long to wait for a forecast request before hedging it, or -1 not to hedge: geocoding
+     * isn't hedged, and neither is anything until enough requests have been timed.
+     */
+    private static long getHedgeDelayMillis(QuotaGovernor.Endpoint endpoint) {
+        if (!HEDGE_FORECAST_REQUESTS || endpoint != QuotaGovernor.Endpoint.FORECAST) return -1;
 
-        return response.body().string();
+        long percentile = sLatencyTrackers.get(endpoint).getPercentile(HEDGE_PERCENTILE);
+        return percentile < 0 ? -1 : Math.max(MIN_HEDGE_DELAY_MILLIS, percentile);
     }
 
+    private static Response checkStatusOrClose(Response response) throws HttpStatusException {
+        try {
+            checkStatus(response);
+        } catch (HttpStatusException e) {
+            response.close();
+            throw e;
+        }
+        return response;
+    }
+
+    /**
+     * Writes the state of every endpoint's circuit breaker and its recent latencies, in the style
+     * used by dumpsys.
+     *
+     * @param prefix Indentation to put in front of each line
+     * @param writer Where to write the endpoints
+     */
+    public static void dump(String prefix, PrintWriter writer) {
+        for (QuotaGovernor.Endpoint endpoint : QuotaGovernor.Endpoint.values()) {
+            CircuitBreaker circuitBreaker = sCircuitBreakers.get(endpoint);
+            LatencyTracker latencyTracker = sLatencyTrackers.get(endpoint);
+            writer.print(prefix);
+            writer.println(String.format(Locale.US,
+                    "%s circuit=%s trialIn=%dms p50=%dms p95=%dms hedgeDelay=%dms",
+                    endpoint.mName, circuitBreaker.getState(),
+                    circuitBreaker.getMillisUntilTrial(), latencyTracker.getPercentile(50),
+                    latencyTracker.getPercentile(95), getHedgeDelayMillis(endpoint)));
+        }
+    }
+
+    /* The rate limited endpoint a URL belongs to, or null if it isn't one */
+    private static QuotaGovernor.Endpoint getEndpoint(URL url) {
+        String urlString = url.toString();
+        if (urlString.startsWith(FORECAST_BASE_URL)) return QuotaGovernor.Endpoint.FORECAST;
+        if (urlString.startsWith(GEOCODING_API_BASE_URL)) return QuotaGovernor.Endpoint.GEOCODING;
+        return null;
+    }
+
+    /*
+     * OkHttp tells us where a response came from: a response with only a cache response was a
+     * pure cache hit, one with both a cache and a network response was a conditional request, and
+     * if the server answered that with a 304 we were able to reuse the cached body.
+     */
+    private static String recordCacheOutcome(Response response) {
+        Response cacheResponse = response.cacheResponse();
+        Response networkResponse = response.networkResponse();
+
+        String outcome;
+        if (networkResponse == null) {
+            outcome = SunshineMetrics.HTTP_CACHE_HIT;
+        } else if (cacheResponse != null
+                && networkResponse.code() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            outcome = SunshineMetrics.HTTP_CACHE_REVALIDATED;
+        } else {
+            outcome = SunshineMetrics.HTTP_CACHE_MISS;
+        }
+        SunshineMetrics.increment(outcome);
+        return outcome;
+    }
 
+    /*
+     * Error responses carry a JSON body too, but it describes the error rather than what we asked
+     * for, so it is never handed to the caller.
+     */
+    private static void checkStatus(Response response) throws HttpStatusException {
+        if (response.isSuccessful()) return;
+        throw new HttpStatusException(response.code(), getRetryAfterMillis(response));
+    }
+
+    /* Retry-After holds either a number of seconds or an HTTP date */
+    private static long getRetryAfterMillis(Response response) {
+        String retryAfter = response.header("Retry-After");
+        if (retryAfter == null) return -1;
+
+        try {
+            return Math.max(0, TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.trim())));
+        } catch (NumberFormatException e) {
+            Date retryAt = response.headers().getDate("Retry-After");
+            return retryAt == null ? -1 : Math.max(0, retryAt.getTime() - System.currentTimeMillis());
+        }
+    }
+
+    /*
+     * Decodes the body with the charset it declares, like ResponseBody.charStream() does, while
+     * reporting every byte read from it to the listener.
+     */
+    private static Reader countingCharStream(ResponseBody body, final ExchangeListener listener) {
+        Source countingSource = new ForwardingSource(body.source()) {
+            @Override
+            public long read(Buffer sink, long byteCount) throws IOException {
+                long read = super.read(sink, byteCount);
+                if (read > 0) listener.onResponseBodyRead(read);
+                return read;
+            }
+        };
+
+        MediaType contentType = body.contentType();
+        Charset charset = contentType == null ? UTF_8 : contentType.charset(UTF_8);
+        return new InputStreamReader(Okio.buffer(countingSource).inputStream(), charset);
+    }
 }
\ No newline at end of file
@@ -44,8 +44,10 @@ public class NotificationUtils {
         WeatherDatabase mDb = WeatherDatabase.getInstance(context);
 
 
-        String todayNormalizedDate = String.valueOf(SunshineDateUtils.normalizeDate(System.currentTimeMillis()));
-        Weather weather = mDb.weatherDao().loadWeatherDataForDay(todayNormalizedDate);
+        long todayNormalizedDate = SunshineDateUtils.normalizeDate(System.currentTimeMillis());
+        double[] coords = SunshinePreferences.getLocationCoordinates(context);
+        Weather weather = mDb.weatherDao().loadWeatherDataForDay(coords[0], coords[1],
+                todayNormalizedDate);
         /*
          * If todayWeatherCursor is empty, moveToFirst will return false. If our cursor is not
          * empty, we want to show the notification.
@@ -94,7 +96,7 @@ public class NotificationUtils {
          * we want to open Sunshine to the DetailActivity to display the newly updated weather.
          */
         Intent detailIntentForToday = new Intent(context, DetailActivity.class);
-        detailIntentForToday.putExtra("date", todayNormalizedDate);
+        detailIntentForToday.putExtra(DetailActivity.EXTRA_DATE, todayNormalizedDate);
 
         TaskStackBuilder taskStackBuilder = TaskStackBuilder.create(context);
         taskStackBuilder.addNextIntentWithParentStack(detailIntentForToday);
@@ -15,13 +15,22 @@
  */
 package com.technowapps.sunshine.utilities;
 
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+import com.technowapps.sunshine.data.GeocodeCache;
+import com.technowapps.sunshine.data.GeocodeEntry;
 import com.technowapps.sunshine.data.Weather;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
+import java.io.Reader;
 import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Utility functions to handle OpenWeatherMap JSON data.
@@ -50,13 +59,33 @@ public final class OpenWeatherJsonUtils {
 
     private static final String OWM_MESSAGE_CODE = "cod";
 
+    /*
+     * Fields every day of the forecast must have, as bits of a mask; the streaming parser clears
+     * each one as it reads it. A day missing any of them is rejected rather than stored as zeros.
+     */
+    private static final int FIELD_PRESSURE = 1;
+    private static final int FIELD_HUMIDITY = 1 << 1;
+    private static final int FIELD_WINDSPEED = 1 << 2;
+    private static final int FIELD_WIND_DIRECTION = 1 << 3;
+    private static final int FIELD_WEATHER_ID = 1 << 4;
+    private static final int FIELD_MAX = 1 << 5;
+    private static final int FIELD_MIN = 1 << 6;
+    private static final int REQUIRED_FIELDS = (1 << 7) - 1;
+    private static final String[] REQUIRED_FIELD_NAMES = {OWM_PRESSURE, OWM_HUMIDITY,
+            OWM_WINDSPEED, OWM_WIND_DIRECTION, OWM_WEATHER + "[0]." + OWM_WEATHER_ID,
+            OWM_TEMPERATURE + "." + OWM_MAX, OWM_TEMPERATURE + "." + OWM_MIN};
+
+    /* Fields of each match returned by the geocoding API */
+    private static final String OWM_GEO_NAME = "name";
+    private static final String OWM_GEO_LAT = "lat";
+    private static final String OWM_GEO_LON = "lon";
+
     /**
      * This method parses JSON from a web response and returns an array of Strings
      * describing the weather over various days from the forecast.
      * <p/>
-     * Later on, we'll be parsing the JSON into structured data within the
-     * getFullWeatherDataFromJson function, leveraging the data we have stored in the JSON. For
-     * now, we just convert the JSON into human-readable strings.
+     * The sync uses {@link #getWeatherForecastArrayFromReader(Reader)} instead; this DOM parser is
+     * kept as the baseline that OpenWeatherJsonBenchmark measures the streaming one against.
      *
      * @param forecastJsonStr JSON response from server
      *
@@ -157,4 +186,176 @@ public final class OpenWeatherJsonUtils {
         return weatherArray;
     }
 
-}
\ No newline at end of file
+    /**
+     * Parses the response of the geocoding API and caches the best match for the query.
+     *
+     * @param geocodeCache    The cache the match is stored in
+     * @param query           The location the user typed
+     * @param geocodingJsonStr JSON response from server, an array of matches
+     *
+     * @return The cached entry for the best match
+     *
+     * @throws JSONException If the JSON can't be parsed or contains no match at all
+     */
+    public static GeocodeEntry getGeocodeEntryFromJson(GeocodeCache geocodeCache, String query,
+                                                      String geocodingJsonStr)
+            throws JSONException {
+
+        /* Matches are sorted by relevance; getJSONObject throws if there are none */
+        JSONObject bestMatch = new JSONArray(geocodingJsonStr).getJSONObject(0);
+
+        double lat = bestMatch.getDouble(OWM_GEO_LAT);
+        double lon = bestMatch.getDouble(OWM_GEO_LON);
+        String name = bestMatch.optString(OWM_GEO_NAME, null);
+
+        return geocodeCache.put(query, name, lat, lon);
+    }
+
+    /**
+     * Streaming counterpart of {@link #getWeatherForecastArrayFromJson(String)}. Rather than
+     * building the whole response as a String and then as a tree of JSONObjects, this pulls one
+     * token at a time from the reader and builds each Weather as soon as its day has been read.
+     * Anything we don't display (feels_like, moon_phase, alerts, ...) is skipped over without
+     * being materialized.
+     *
+     * @param forecastJsonReader JSON response from server, as a character stream
+     *
+     * @return Array of Weather for each day in the forecast, null if the server reported an error
+     *
+     * @throws IOException If the stream cannot be read or the JSON is malformed, including a
+     *                     MalformedJsonException if a day lacks one of the fields we store
+     */
+    public static Weather[] getWeatherForecastArrayFromReader(Reader forecastJsonReader)
+            throws IOException {
+
+        JsonReader reader = new JsonReader(forecastJsonReader);
+        List<Weather> weatherList = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+
+            if (OWM_MESSAGE_CODE.equals(name)) {
+                /* Is there an error? Same handling as the DOM parser above */
+                if (reader.nextInt() != HttpURLConnection.HTTP_OK) {
+                    return null;
+                }
+            } else if (OWM_LIST.equals(name) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                weatherList = readDailyForecasts(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (weatherList == null) {
+            return null;
+        }
+        return weatherList.toArray(new Weather[0]);
+    }
+
+    private static List<Weather> readDailyForecasts(JsonReader reader) throws IOException {
+        List<Weather> weatherList = new ArrayList<>();
+
+        /* See getWeatherForecastArrayFromJson for why dates are derived from the array index */
+        long normalizedUtcStartDay = SunshineDateUtils.getNormalizedUtcDateForToday();
+
+        reader.beginArray();
+        while (reader.hasNext()) {
+            long dateTimeMillis = normalizedUtcStartDay
+                    + SunshineDateUtils.DAY_IN_MILLIS * weatherList.size();
+            weatherList.add(readDayForecast(reader, dateTimeMillis, weatherList.size()));
+        }
+        reader.endArray();
+
+        return weatherList;
+    }
+
+    private static Weather readDayForecast(JsonReader reader, long dateTimeMillis, int day)
+            throws IOException {
+        int missingFields = REQUIRED_FIELDS;
+        double pressure = 0;
+        int humidity = 0;
+        double windSpeed = 0;
+        double windDirection = 0;
+
+        double high = 0;
+        double low = 0;
+
+        int weatherId = 0;
+        boolean weatherIdRead = false;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case OWM_PRESSURE:
+                    pressure = reader.nextDouble();
+                    missingFields &= ~FIELD_PRESSURE;
+                    break;
+                case OWM_HUMIDITY:
+                    humidity = (int) reader.nextDouble();
+                    missingFields &= ~FIELD_HUMIDITY;
+                    break;
+                case OWM_WINDSPEED:
+                    windSpeed = reader.nextDouble();
+                    missingFields &= ~FIELD_WINDSPEED;
+                    break;
+                case OWM_WIND_DIRECTION:
+                    windDirection = reader.nextDouble();
+                    missingFields &= ~FIELD_WIND_DIRECTION;
+                    break;
+                case OWM_WEATHER:
+                    /* Only the first element of the "weather" array carries the code we use */
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        if (weatherIdRead) {
+                            reader.skipValue();
+                            continue;
+                        }
+                        reader.beginObject();
+                        while (reader.hasNext()) {
+                            if (OWM_WEATHER_ID.equals(reader.nextName())) {
+                                weatherId = reader.nextInt();
+                                missingFields &= ~FIELD_WEATHER_ID;
+                            } else {
+                                reader.skipValue();
+                            }
+                        }
+                        reader.endObject();
+                        weatherIdRead = true;
+                    }
+                    reader.endArray();
+                    break;
+                case OWM_TEMPERATURE:
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String name = reader.nextName();
+                        if (OWM_MAX.equals(name)) {
+                            high = reader.nextDouble();
+                            missingFields &= ~FIELD_MAX;
+                        } else if (OWM_MIN.equals(name)) {
+                            low = reader.nextDouble();
+                            missingFields &= ~FIELD_MIN;
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+
+        if (missingFields != 0) {
+            /* A truncated or changed payload must not end up stored as a forecast of zeros */
+            String field = REQUIRED_FIELD_NAMES[Integer.numberOfTrailingZeros(missingFields)];
+            throw new MalformedJsonException("Day " + day + " of the forecast has no " + field);
+        }
+
+        return new Weather(dateTimeMillis, weatherId, low, high, humidity, pressure, windSpeed,
+                windDirection);
+    }
+}
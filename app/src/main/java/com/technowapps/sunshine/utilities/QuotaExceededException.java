@@ -0,0 +1,28 @@
+package com.technowapps.sunshine.utilities;
+
+import java.io.IOException;
+
+/**
+ * Thrown when {@link QuotaGovernor} turned a call down and there was no cached response to fall
+ * back on.
+ */
+public class QuotaExceededException extends IOException {
+
+    private final long mRetryAfterMillis;
+
+    /**
+     * @param endpoint         The endpoint whose budget ran out
+     * @param retryAfterMillis How long until the budget allows another call
+     */
+    public QuotaExceededException(QuotaGovernor.Endpoint endpoint, long retryAfterMillis) {
+        super("Call quota exceeded for " + endpoint.mName);
+        mRetryAfterMillis = retryAfterMillis;
+    }
+
+    /**
+     * @return How long until the budget allows another call
+     */
+    public long getRetryAfterMillis() {
+        return mRetryAfterMillis;
+    }
+}
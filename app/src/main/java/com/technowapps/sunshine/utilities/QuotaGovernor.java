@@ -0,0 +1,170 @@
+package com.technowapps.sunshine.utilities;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps Sunshine within the call quota of its OpenWeatherMap API key. Every endpoint has a token
+ * bucket: each call takes a token, and tokens come back at the rate the quota allows, up to the
+ * size of the bucket. Buckets are saved in SharedPreferences so restarting the app doesn't refill
+ * them.
+ * <p>
+ * The last tokens of each bucket are reserved for requests the user is waiting on, so background
+ * syncs can't leave a location search or a manual refresh without a call.
+ */
+public final class QuotaGovernor {
+
+    /**
+     * The rate limited OpenWeatherMap endpoints, each with its own budget.
+     */
+    public enum Endpoint {
+        /* onecall: 1000 calls a day on the free plan, allowing short bursts */
+        FORECAST("forecast", 60, 1000),
+        /* geo/1.0/direct: only ever called when the user changes location */
+        GEOCODING("geocoding", 20, 500);
+
+        final String mName;
+        final int mCapacity;
+        final double mTokensPerMilli;
+        /* Tokens background requests must leave in the bucket */
+        final int mUserReserve;
+
+        Endpoint(String name, int capacity, int callsPerDay) {
+            mName = name;
+            mCapacity = capacity;
+            mTokensPerMilli = callsPerDay / (double) TimeUnit.DAYS.toMillis(1);
+            mUserReserve = capacity / 4;
+        }
+
+        String grantedCounter() {
+            return "quota." + mName + ".granted";
+        }
+
+        String deniedCounter() {
+            return "quota." + mName + ".denied";
+        }
+
+        String refundedCounter() {
+            return "quota." + mName + ".refunded";
+        }
+    }
+
+    private static final String PREFS_FILE = "api_quota";
+    private static final String KEY_TOKENS_SUFFIX = ".tokens";
+    private static final String KEY_REFILLED_AT_SUFFIX = ".refilled_at";
+
+    private static final Object LOCK = new Object();
+
+    private QuotaGovernor() {
+    }
+
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getApplicationContext()
+                .getSharedPreferences(PREFS_FILE, Context.MODE_PRIVATE);
+    }
+
+    /* Reads the bucket, adding the tokens earned since it was last refilled. Holds LOCK. */
+    private static double refill(SharedPreferences sp, Endpoint endpoint, long now) {
+        double tokens = sp.getFloat(endpoint.mName + KEY_TOKENS_SUFFIX, endpoint.mCapacity);
+        long refilledAt = sp.getLong(endpoint.mName + KEY_REFILLED_AT_SUFFIX, now);
+        /* A clock set backwards earns nothing rather than a negative amount */
+        long elapsed = Math.max(0, now - refilledAt);
+        return Math.min(endpoint.mCapacity, tokens + elapsed * endpoint.mTokensPerMilli);
+    }
+
+    private static void save(SharedPreferences sp, Endpoint endpoint, double tokens, long now) {
+        sp.edit()
+                .putFloat(endpoint.mName + KEY_TOKENS_SUFFIX, (float) tokens)
+                .putLong(endpoint.mName + KEY_REFILLED_AT_SUFFIX, now)
+                .apply();
+    }
+
+    /**
+     * Takes a token for one call, if the budget allows it.
+     *
+     * @param context       Used to access the saved buckets
+     * @param endpoint      The endpoint about to be called
+     * @param userInitiated True if the user is waiting on this call, which lets it use the reserve
+     * @return True if the call may go ahead
+     */
+    public static boolean tryAcquire(Context context, Endpoint endpoint, boolean userInitiated) {
+        SharedPreferences sp = getPreferences(context);
+        long now = System.currentTimeMillis();
+        int floor = userInitiated ? 0 : endpoint.mUserReserve;
+
+        synchronized (LOCK) {
+            double tokens = refill(sp, endpoint, now);
+            if (tokens - 1 < floor) {
+                save(sp, endpoint, tokens, now);
+                SunshineMetrics.increment(endpoint.deniedCounter());
+                return false;
+            }
+            save(sp, endpoint, tokens - 1, now);
+        }
+        SunshineMetrics.increment(endpoint.grantedCounter());
+        return true;
+    }
+
+    /**
+     * Gives back the token of a call that never reached the server, such as one answered entirely
+     * from the HTTP cache.
+     *
+     * @param context  Used to access the saved buckets
+     * @param endpoint The endpoint that was called
+     */
+    public static void refund(Context context, Endpoint endpoint) {
+        SharedPreferences sp = getPreferences(context);
+        long now = System.currentTimeMillis();
+
+        synchronized (LOCK) {
+            save(sp, endpoint, Math.min(endpoint.mCapacity, refill(sp, endpoint, now) + 1), now);
+        }
+        SunshineMetrics.increment(endpoint.refundedCounter());
+    }
+
+    /**
+     * @param context       Used to access the saved buckets
+     * @param endpoint      The endpoint to call
+     * @param userInitiated True if the call would be made on the user's behalf
+     * @return How long until a call to the endpoint would be allowed, 0 if it already is
+     */
+    public static long getMillisUntilAvailable(Context context, Endpoint endpoint,
+                                               boolean userInitiated) {
+        SharedPreferences sp = getPreferences(context);
+        int floor = userInitiated ? 0 : endpoint.mUserReserve;
+
+        double tokens;
+        synchronized (LOCK) {
+            tokens = refill(sp, endpoint, System.currentTimeMillis());
+        }
+        double missing = floor + 1 - tokens;
+        return missing <= 0 ? 0 : (long) Math.ceil(missing / endpoint.mTokensPerMilli);
+    }
+
+    /**
+     * Writes the tokens left in every bucket, in the style used by dumpsys. Calls granted, denied
+     * and refunded are counted in {@link SunshineMetrics}.
+     *
+     * @param context Used to access the saved buckets
+     * @param prefix  Indentation to put in front of each line
+     * @param writer  Where to write the buckets
+     */
+    public static void dump(Context context, String prefix, PrintWriter writer) {
+        SharedPreferences sp = getPreferences(context);
+        long now = System.currentTimeMillis();
+
+        for (Endpoint endpoint : Endpoint.values()) {
+            double tokens;
+            synchronized (LOCK) {
+                tokens = refill(sp, endpoint, now);
+            }
+            writer.print(prefix);
+            writer.println(String.format(Locale.US, "%s tokens=%.1f/%d reserve=%d",
+                    endpoint.mName, tokens, endpoint.mCapacity, endpoint.mUserReserve));
+        }
+    }
+}
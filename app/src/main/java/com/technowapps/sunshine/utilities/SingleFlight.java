@@ -0,0 +1,60 @@
+package com.technowapps.sunshine.utilities;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Makes sure only one piece of work per key is running at any time. A caller that arrives while
+ * work for the same key is already in flight doesn't start it again; it waits for the running
+ * work and gets the same result (or the same exception).
+ * <p>
+ * Once the work has finished, the next caller for that key starts it afresh, so results are never
+ * cached beyond the lifetime of a single call.
+ *
+ * @param <K> The type of the key identifying a piece of work
+ * @param <V> The type of the result of the work
+ */
+public class SingleFlight<K, V> {
+
+    private final ConcurrentHashMap<K, FutureTask<V>> mInFlight = new ConcurrentHashMap<>();
+
+    /* Name of the SunshineMetrics counter incremented every time a caller joins running work */
+    private final String mCoalescedCounterName;
+
+    /**
+     * @param coalescedCounterName Name of the {@link SunshineMetrics} counter that counts the
+     *                             calls which were served by work already in flight
+     */
+    public SingleFlight(String coalescedCounterName) {
+        mCoalescedCounterName = coalescedCounterName;
+    }
+
+    /**
+     * Runs the work on the calling thread, unless work for the same key is already running, in
+     * which case this waits for that work to finish and returns its result.
+     *
+     * @param key  Identifies the work; calls with equal keys are coalesced
+     * @param work The work to run if nothing is in flight for the key
+     * @return The result of the work
+     * @throws ExecutionException   If the work threw an exception
+     * @throws InterruptedException If the calling thread was interrupted while waiting
+     */
+    public V execute(K key, Callable<V> work) throws ExecutionException, InterruptedException {
+        FutureTask<V> task = new FutureTask<>(work);
+        FutureTask<V> inFlight = mInFlight.putIfAbsent(key, task);
+
+        if (inFlight != null) {
+            SunshineMetrics.increment(mCoalescedCounterName);
+            return inFlight.get();
+        }
+
+        try {
+            task.run();
+            return task.get();
+        } finally {
+            mInFlight.remove(key, task);
+        }
+    }
+}
@@ -15,12 +15,17 @@
  */
 package com.technowapps.sunshine.utilities;
 
+import android.content.BroadcastReceiver;
 import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.text.format.DateUtils;
+import android.util.LongSparseArray;
 
 import com.example.android.sunshine.R;
 
 import java.text.SimpleDateFormat;
+import java.util.Locale;
 import java.util.TimeZone;
 import java.util.concurrent.TimeUnit;
 
@@ -32,6 +37,11 @@ public final class SunshineDateUtils {
     /* Milliseconds in a day */
     public static final long DAY_IN_MILLIS = TimeUnit.DAYS.toMillis(1);
 
+    /* Guards the friendly date labels cached by getFriendlyDateString */
+    private static final Object LABEL_LOCK = new Object();
+    private static DateLabelCache sDateLabelCache;
+    private static boolean sInvalidationReceiverRegistered;
+
     /**
      * This method returns the number of milliseconds (UTC time) for today's date at midnight in
      * the local time zone. For example, if you live in California and the day is September 20th,
@@ -188,6 +198,8 @@ public final class SunshineDateUtils {
      * For tomorrow:  "Tomorrow
      * For the next 5 days: "Wednesday" (just the day name)
      * For all days after that: "Mon, Jun 8" (Mon, 8 Jun in UK, for example)
+     * <p/>
+     * Labels are cached until midnight UTC, or until the locale, time zone or clock changes.
      *
      * @param context               Context to use for resource localization
      * @param normalizedUtcMidnight The date in milliseconds (UTC midnight)
@@ -199,6 +211,70 @@ public final class SunshineDateUtils {
      * or "Friday"
      */
     public static String getFriendlyDateString(Context context, long normalizedUtcMidnight, boolean showFullDate) {
+        DateLabelCache cache = getDateLabelCache(context);
+
+        String label;
+        synchronized (LABEL_LOCK) {
+            label = cache.get(normalizedUtcMidnight, showFullDate);
+        }
+        if (label != null) return label;
+
+        label = formatFriendlyDateString(context, normalizedUtcMidnight, showFullDate,
+                cache.mDaysFromEpochToToday, cache.mDayNameFormat.get());
+        synchronized (LABEL_LOCK) {
+            cache.put(normalizedUtcMidnight, showFullDate, label);
+        }
+        return label;
+    }
+
+    /*
+     * Returns the label cache for the current day and locale, starting a new one if the day has
+     * rolled over or the locale has changed since the current one was made.
+     */
+    private static DateLabelCache getDateLabelCache(Context context) {
+        long now = System.currentTimeMillis();
+        Locale locale = Locale.getDefault();
+
+        synchronized (LABEL_LOCK) {
+            if (!sInvalidationReceiverRegistered) {
+                registerInvalidationReceiver(context.getApplicationContext());
+                sInvalidationReceiverRegistered = true;
+            }
+            if (sDateLabelCache == null || !sDateLabelCache.isValidFor(now, locale)) {
+                sDateLabelCache = new DateLabelCache(now, locale);
+            }
+            return sDateLabelCache;
+        }
+    }
+
+    /*
+     * Time zone changes and clock changes can alter every label without our day or locale
+     * changing, so those drop the cache as soon as the system announces them.
+     */
+    private static void registerInvalidationReceiver(Context appContext) {
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_TIMEZONE_CHANGED);
+        filter.addAction(Intent.ACTION_TIME_CHANGED);
+        filter.addAction(Intent.ACTION_DATE_CHANGED);
+        filter.addAction(Intent.ACTION_LOCALE_CHANGED);
+
+        appContext.registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                synchronized (LABEL_LOCK) {
+                    sDateLabelCache = null;
+                }
+            }
+        }, filter);
+    }
+
+    /*
+     * Builds the label returned by getFriendlyDateString. daysFromEpochToToday is the "today" the
+     * label is relative to, and dayNameFormat formats the name of a day in the current locale.
+     */
+    private static String formatFriendlyDateString(Context context, long normalizedUtcMidnight,
+                                                   boolean showFullDate, long daysFromEpochToToday,
+                                                   SimpleDateFormat dayNameFormat) {
 
         /*
          * NOTE: localDate should be localDateMidnightMillis and should be straight from the
@@ -217,18 +293,12 @@ public final class SunshineDateUtils {
          */
         long daysFromEpochToProvidedDate = elapsedDaysSinceEpoch(localDate);
 
-        /*
-         * As a basis for comparison, we use the number of days that have passed from the epoch
-         * until today.
-         */
-        long daysFromEpochToToday = elapsedDaysSinceEpoch(System.currentTimeMillis());
-
         if (daysFromEpochToProvidedDate == daysFromEpochToToday || showFullDate) {
             /*
              * If the date we're building the String for is today's date, the format
              * is "Today, June 24"
              */
-            String dayName = getDayName(context, localDate);
+            String dayName = getDayName(context, localDate, daysFromEpochToToday, dayNameFormat);
             String readableDate = getReadableDateString(context, localDate);
             if (daysFromEpochToProvidedDate - daysFromEpochToToday < 2) {
                 /*
@@ -241,14 +311,14 @@ public final class SunshineDateUtils {
                  * documentation on DateFormat#getBestDateTimePattern(Locale, String)
                  * https://developer.android.com/reference/android/text/format/DateFormat.html#getBestDateTimePattern
                  */
-                String localizedDayName = new SimpleDateFormat("EEEE").format(localDate);
+                String localizedDayName = dayNameFormat.format(localDate);
                 return readableDate.replace(localizedDayName, dayName);
             } else {
                 return readableDate;
             }
         } else if (daysFromEpochToProvidedDate < daysFromEpochToToday + 7) {
             /* If the input date is less than a week in the future, just return the day name. */
-            return getDayName(context, localDate);
+            return getDayName(context, localDate, daysFromEpochToToday, dayNameFormat);
         } else {
             int flags = DateUtils.FORMAT_SHOW_DATE
                     | DateUtils.FORMAT_NO_YEAR
@@ -280,18 +350,20 @@ public final class SunshineDateUtils {
      * Given a day, returns just the name to use for that day.
      *   E.g "today", "tomorrow", "Wednesday".
      *
-     * @param context      Context to use for resource localization
-     * @param dateInMillis The date in milliseconds (UTC time)
+     * @param context              Context to use for resource localization
+     * @param dateInMillis         The date in milliseconds (UTC time)
+     * @param daysFromEpochToToday The number of days from the epoch to today
+     * @param dayNameFormat        Formats the name of a day in the current locale
      *
      * @return the string day of the week
      */
-    private static String getDayName(Context context, long dateInMillis) {
+    private static String getDayName(Context context, long dateInMillis,
+                                     long daysFromEpochToToday, SimpleDateFormat dayNameFormat) {
         /*
          * If the date is today, return the localized version of "Today" instead of the actual
          * day name.
          */
         long daysFromEpochToProvidedDate = elapsedDaysSinceEpoch(dateInMillis);
-        long daysFromEpochToToday = elapsedDaysSinceEpoch(System.currentTimeMillis());
 
         int daysAfterToday = (int) (daysFromEpochToProvidedDate - daysFromEpochToToday)+1;
 
@@ -302,8 +374,58 @@ public final class SunshineDateUtils {
                 return context.getString(R.string.tomorrow);
 
             default:
-                SimpleDateFormat dayFormat = new SimpleDateFormat("EEEE");
-                return dayFormat.format(dateInMillis);
+                return dayNameFormat.format(dateInMillis);
+        }
+    }
+
+    /**
+     * The friendly date labels built for one day (the "today" they are relative to) in one
+     * locale. Only a couple of weeks of days are ever shown, so once those labels are built every
+     * call to {@link #getFriendlyDateString} is a lookup that doesn't allocate.
+     * <p>
+     * Access to the labels is guarded by {@link #LABEL_LOCK}.
+     */
+    private static final class DateLabelCache {
+
+        final long mDaysFromEpochToToday;
+        final Locale mLocale;
+
+        /* The cache is only valid while the clock is within the day it was made for */
+        final long mValidFromMillis;
+        final long mValidUntilMillis;
+
+        /* SimpleDateFormat isn't thread safe, so each thread gets its own */
+        final ThreadLocal<SimpleDateFormat> mDayNameFormat;
+
+        /* Labels keyed by their normalized UTC date */
+        final LongSparseArray<String> mLabels = new LongSparseArray<>();
+        final LongSparseArray<String> mFullLabels = new LongSparseArray<>();
+
+        DateLabelCache(long nowMillis, final Locale locale) {
+            mDaysFromEpochToToday = elapsedDaysSinceEpoch(nowMillis);
+            mLocale = locale;
+            mValidFromMillis = mDaysFromEpochToToday * DAY_IN_MILLIS;
+            mValidUntilMillis = mValidFromMillis + DAY_IN_MILLIS;
+            mDayNameFormat = new ThreadLocal<SimpleDateFormat>() {
+                @Override
+                protected SimpleDateFormat initialValue() {
+                    return new SimpleDateFormat("EEEE", locale);
+                }
+            };
+        }
+
+        boolean isValidFor(long nowMillis, Locale locale) {
+            return nowMillis >= mValidFromMillis
+                    && nowMillis < mValidUntilMillis
+                    && mLocale.equals(locale);
+        }
+
+        String get(long normalizedUtcMidnight, boolean showFullDate) {
+            return (showFullDate ? mFullLabels : mLabels).get(normalizedUtcMidnight);
+        }
+
+        void put(long normalizedUtcMidnight, boolean showFullDate, String label) {
+            (showFullDate ? mFullLabels : mLabels).put(normalizedUtcMidnight, label);
         }
     }
 }
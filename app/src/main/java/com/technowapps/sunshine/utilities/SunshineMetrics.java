@@ -0,0 +1,124 @@
+package com.technowapps.sunshine.utilities;
+
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide counters used to see what the network and sync layers are actually doing (cache
+ * hits, saved requests and so on). Counters live in memory only and start from zero every time
+ * the process starts.
+ */
+public final class SunshineMetrics {
+
+    /* Responses served entirely from the HTTP disk cache, without touching the network */
+    public static final String HTTP_CACHE_HIT = "http.cache.hit";
+    /* Responses that had to be downloaded in full from the server */
+    public static final String HTTP_CACHE_MISS = "http.cache.miss";
+    /* Conditional requests answered by the server with 304 Not Modified */
+    public static final String HTTP_CACHE_REVALIDATED = "http.cache.revalidated";
+    /* Forecast requests that joined an identical request already in flight */
+    public static final String HTTP_REQUEST_COALESCED = "http.request.coalesced";
+    /* Forecast requests so slow that a second, identical request was sent alongside them */
+    public static final String HTTP_REQUEST_HEDGED = "http.request.hedged";
+
+    /* Calls the API quota turned down that could still be answered from the HTTP cache */
+    public static final String QUOTA_SERVED_FROM_CACHE = "quota.servedfromcache";
+    /* Calls an open circuit breaker turned down that could still be answered from the HTTP cache */
+    public static final String CIRCUIT_SERVED_FROM_CACHE = "circuit.servedfromcache";
+
+    /* Sync requests that joined a sync of the same locations already in flight */
+    public static final String SYNC_COALESCED = "sync.coalesced";
+    /* Syncs whose forecast matched the stored one, so nothing was written */
+    public static final String SYNC_NO_OP = "sync.noop";
+    /* Failed syncs that the worker scheduled to be tried again with backoff */
+    public static final String SYNC_RETRY = "sync.retry";
+    /* Failed syncs that had used up their retries */
+    public static final String SYNC_RETRY_EXHAUSTED = "sync.retry.exhausted";
+    /* Syncs the server turned down for making too many requests */
+    public static final String SYNC_RATE_LIMITED = "sync.ratelimited";
+    /* Syncs that failed in a way retrying can't fix, such as a bad API key */
+    public static final String SYNC_FAILED_PERMANENT = "sync.failed.permanent";
+    /* Successful syncs following one or more failures, and the total time those failures lasted */
+    public static final String SYNC_RECOVERED = "sync.recovered";
+    public static final String SYNC_RECOVERY_MILLIS = "sync.recovery.millis";
+    /* Times the adaptive scheduler changed the periodic sync interval or constraints */
+    public static final String SYNC_RESCHEDULED = "sync.rescheduled";
+
+    /* Archived days merged into weekly rows, and archived rows deleted for being too old */
+    public static final String ARCHIVE_DAYS_DOWNSAMPLED = "archive.downsampled";
+    public static final String ARCHIVE_ROWS_EXPIRED = "archive.expired";
+    /* Archived rows packed into monthly blocks */
+    public static final String ARCHIVE_ROWS_PACKED = "archive.packed";
+    /* Rows decoded from archive blocks, and the total time spent decoding them */
+    public static final String ARCHIVE_BLOCK_ROWS_DECODED = "archive.block.decoded";
+    public static final String ARCHIVE_BLOCK_DECODE_NANOS = "archive.block.decode.nanos";
+
+    private static final ConcurrentHashMap<String, AtomicLong> sCounters =
+            new ConcurrentHashMap<>();
+
+    private SunshineMetrics() {
+    }
+
+    /**
+     * Adds one to the counter with the given name, creating it if needed.
+     *
+     * @param name Name of the counter, one of the constants in this class
+     */
+    public static void increment(String name) {
+        add(name, 1);
+    }
+
+    /**
+     * Adds the given amount to the counter with the given name, creating it if needed.
+     *
+     * @param name  Name of the counter, one of the constants in this class
+     * @param delta Amount to add
+     */
+    public static void add(String name, long delta) {
+        AtomicLong counter = sCounters.get(name);
+        if (counter == null) {
+            AtomicLong newCounter = new AtomicLong();
+            counter = sCounters.putIfAbsent(name, newCounter);
+            if (counter == null) counter = newCounter;
+        }
+        counter.addAndGet(delta);
+    }
+
+    /**
+     * @param name Name of the counter
+     * @return The current value of the counter, 0 if it has never been incremented
+     */
+    public static long get(String name) {
+        AtomicLong counter = sCounters.get(name);
+        return counter == null ? 0 : counter.get();
+    }
+
+    /**
+     * @return A sorted copy of every counter recorded so far
+     */
+    public static Map<String, Long> snapshot() {
+        Map<String, Long> snapshot = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> entry : sCounters.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().get());
+        }
+        return snapshot;
+    }
+
+    /**
+     * Writes every counter, one per line, in the style used by dumpsys.
+     *
+     * @param prefix Indentation to put in front of each line
+     * @param writer Where to write the counters
+     */
+    public static void dump(String prefix, PrintWriter writer) {
+        for (Map.Entry<String, Long> entry : snapshot().entrySet()) {
+            writer.print(prefix);
+            writer.print(entry.getKey());
+            writer.print('=');
+            writer.println(entry.getValue());
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.technowapps.sunshine.utilities;
+
+import androidx.annotation.NonNull;
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleEventObserver;
+import androidx.lifecycle.LifecycleOwner;
+
+import java.util.concurrent.Future;
+
+/**
+ * A background task tied to the lifecycle of the screen that started it. When the screen is
+ * destroyed the task is cancelled, so its result is never delivered to a screen that is gone.
+ */
+public final class TaskHandle implements LifecycleEventObserver {
+
+    private final Future<?> mFuture;
+    private Lifecycle mLifecycle;
+
+    TaskHandle(Future<?> future) {
+        mFuture = future;
+    }
+
+    /* Must be called on the main thread */
+    void bindTo(LifecycleOwner owner) {
+        mLifecycle = owner.getLifecycle();
+        if (mLifecycle.getCurrentState() == Lifecycle.State.DESTROYED) {
+            cancel();
+        } else {
+            mLifecycle.addObserver(this);
+        }
+    }
+
+    @Override
+    public void onStateChanged(@NonNull LifecycleOwner source, @NonNull Lifecycle.Event event) {
+        if (event == Lifecycle.Event.ON_DESTROY) {
+            cancel();
+        }
+    }
+
+    /**
+     * Cancels the task, interrupting it if it is running. Its callback won't be called. Must be
+     * called on the main thread.
+     */
+    public void cancel() {
+        mFuture.cancel(true);
+        release();
+    }
+
+    /* Stops observing the lifecycle once there is nothing left to cancel */
+    void release() {
+        if (mLifecycle != null) {
+            mLifecycle.removeObserver(this);
+            mLifecycle = null;
+        }
+    }
+
+    /**
+     * @return True if the task finished, failed or was cancelled
+     */
+    public boolean isDone() {
+        return mFuture.isDone();
+    }
+}
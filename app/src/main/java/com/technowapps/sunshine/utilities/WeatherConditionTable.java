@@ -0,0 +1,249 @@
+package com.technowapps.sunshine.utilities;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.core.os.ConfigurationCompat;
+
+import com.example.android.sunshine.R;
+
+import java.util.Locale;
+
+/**
+ * Everything Sunshine knows about each OpenWeatherMap condition code: its description, its small
+ * and large art, how severe it is and which group it belongs to. The table is built once, as
+ * arrays indexed by code, so every lookup costs the same whatever the code is.
+ * <p>
+ * See http://openweathermap.org/weather-conditions for a list of all IDs.
+ */
+public final class WeatherConditionTable {
+
+    private static final String LOG_TAG = WeatherConditionTable.class.getSimpleName();
+
+    /* Groups of conditions, following the ranges used by OpenWeatherMap */
+    public static final int GROUP_UNKNOWN = 0;
+    public static final int GROUP_THUNDERSTORM = 1;
+    public static final int GROUP_DRIZZLE = 2;
+    public static final int GROUP_RAIN = 3;
+    public static final int GROUP_SNOW = 4;
+    public static final int GROUP_ATMOSPHERE = 5;
+    public static final int GROUP_CLEAR = 6;
+    public static final int GROUP_CLOUDS = 7;
+    public static final int GROUP_EXTREME = 8;
+    public static final int GROUP_WIND = 9;
+
+    /* How much a condition affects someone going outside, from calm to dangerous */
+    public static final int SEVERITY_CALM = 0;
+    public static final int SEVERITY_MILD = 1;
+    public static final int SEVERITY_SIGNIFICANT = 2;
+    public static final int SEVERITY_SEVERE = 3;
+
+    /* Range of condition codes covered by the table, inclusive */
+    private static final int FIRST_CODE = 200;
+    private static final int LAST_CODE = 962;
+
+    private static final int[] sStringIds = new int[LAST_CODE - FIRST_CODE + 1];
+    private static final int[] sSmallArtIds = new int[LAST_CODE - FIRST_CODE + 1];
+    private static final int[] sLargeArtIds = new int[LAST_CODE - FIRST_CODE + 1];
+    private static final byte[] sSeverities = new byte[LAST_CODE - FIRST_CODE + 1];
+    private static final byte[] sGroups = new byte[LAST_CODE - FIRST_CODE + 1];
+
+    /* Descriptions already resolved for the current locale, replaced when the locale changes */
+    private static volatile LocalizedDescriptions sDescriptions;
+
+    static {
+        /* Art, group and severity; later ranges override earlier ones */
+        art(200, 232, R.drawable.ic_storm, R.drawable.art_storm, GROUP_THUNDERSTORM, SEVERITY_SEVERE);
+        art(300, 321, R.drawable.ic_light_rain, R.drawable.art_light_rain, GROUP_DRIZZLE, SEVERITY_MILD);
+        art(500, 504, R.drawable.ic_rain, R.drawable.art_rain, GROUP_RAIN, SEVERITY_SIGNIFICANT);
+        art(500, 500, R.drawable.ic_rain, R.drawable.art_rain, GROUP_RAIN, SEVERITY_MILD);
+        art(511, 511, R.drawable.ic_snow, R.drawable.art_snow, GROUP_RAIN, SEVERITY_SEVERE);
+        art(520, 531, R.drawable.ic_rain, R.drawable.art_rain, GROUP_RAIN, SEVERITY_SIGNIFICANT);
+        art(600, 622, R.drawable.ic_snow, R.drawable.art_snow, GROUP_SNOW, SEVERITY_SIGNIFICANT);
+        art(600, 600, R.drawable.ic_snow, R.drawable.art_snow, GROUP_SNOW, SEVERITY_MILD);
+        art(602, 602, R.drawable.ic_snow, R.drawable.art_snow, GROUP_SNOW, SEVERITY_SEVERE);
+        art(701, 761, R.drawable.ic_fog, R.drawable.art_fog, GROUP_ATMOSPHERE, SEVERITY_MILD);
+        art(762, 762, R.drawable.ic_storm, R.drawable.art_storm, GROUP_ATMOSPHERE, SEVERITY_SEVERE);
+        art(771, 771, R.drawable.ic_storm, R.drawable.art_storm, GROUP_ATMOSPHERE, SEVERITY_SEVERE);
+        art(781, 781, R.drawable.ic_storm, R.drawable.art_storm, GROUP_ATMOSPHERE, SEVERITY_SEVERE);
+        art(800, 800, R.drawable.ic_clear, R.drawable.art_clear, GROUP_CLEAR, SEVERITY_CALM);
+        art(801, 801, R.drawable.ic_light_clouds, R.drawable.art_light_clouds, GROUP_CLOUDS, SEVERITY_CALM);
+        art(802, 804, R.drawable.ic_cloudy, R.drawable.art_clouds, GROUP_CLOUDS, SEVERITY_MILD);
+        art(900, 906, R.drawable.ic_storm, R.drawable.art_storm, GROUP_EXTREME, SEVERITY_SEVERE);
+        art(951, 957, R.drawable.ic_clear, R.drawable.art_clear, GROUP_WIND, SEVERITY_CALM);
+        art(956, 957, R.drawable.ic_clear, R.drawable.art_clear, GROUP_WIND, SEVERITY_MILD);
+        art(958, 962, R.drawable.ic_storm, R.drawable.art_storm, GROUP_WIND, SEVERITY_SEVERE);
+
+        /* Descriptions */
+        describe(200, 232, R.string.condition_2xx);
+        describe(300, 321, R.string.condition_3xx);
+        describe(500, R.string.condition_500);
+        describe(501, R.string.condition_501);
+        describe(502, R.string.condition_502);
+        describe(503, R.string.condition_503);
+        describe(504, R.string.condition_504);
+        describe(511, R.string.condition_511);
+        describe(520, R.string.condition_520);
+        describe(531, R.string.condition_531);
+        describe(600, R.string.condition_600);
+        describe(601, R.string.condition_601);
+        describe(602, R.string.condition_602);
+        describe(611, R.string.condition_611);
+        describe(612, R.string.condition_612);
+        describe(615, R.string.condition_615);
+        describe(616, R.string.condition_616);
+        describe(620, R.string.condition_620);
+        describe(621, R.string.condition_621);
+        describe(622, R.string.condition_622);
+        describe(701, R.string.condition_701);
+        describe(711, R.string.condition_711);
+        describe(721, R.string.condition_721);
+        describe(731, R.string.condition_731);
+        describe(741, R.string.condition_741);
+        describe(751, R.string.condition_751);
+        describe(761, R.string.condition_761);
+        describe(762, R.string.condition_762);
+        describe(771, R.string.condition_771);
+        describe(781, R.string.condition_781);
+        describe(800, R.string.condition_800);
+        describe(801, R.string.condition_801);
+        describe(802, R.string.condition_802);
+        describe(803, R.string.condition_803);
+        describe(804, R.string.condition_804);
+        describe(900, R.string.condition_900);
+        describe(901, R.string.condition_901);
+        describe(902, R.string.condition_902);
+        describe(903, R.string.condition_903);
+        describe(904, R.string.condition_904);
+        describe(905, R.string.condition_905);
+        describe(906, R.string.condition_906);
+        describe(951, R.string.condition_951);
+        describe(952, R.string.condition_952);
+        describe(953, R.string.condition_953);
+        describe(954, R.string.condition_954);
+        describe(955, R.string.condition_955);
+        describe(956, R.string.condition_956);
+        describe(957, R.string.condition_957);
+        describe(958, R.string.condition_958);
+        describe(959, R.string.condition_959);
+        describe(960, R.string.condition_960);
+        describe(961, R.string.condition_961);
+        describe(962, R.string.condition_962);
+    }
+
+    private WeatherConditionTable() {
+    }
+
+    private static void art(int firstCode, int lastCode, int smallArtId, int largeArtId,
+                            int group, int severity) {
+        for (int code = firstCode; code <= lastCode; code++) {
+            int index = code - FIRST_CODE;
+            sSmallArtIds[index] = smallArtId;
+            sLargeArtIds[index] = largeArtId;
+            sGroups[index] = (byte) group;
+            sSeverities[index] = (byte) severity;
+        }
+    }
+
+    private static void describe(int firstCode, int lastCode, int stringId) {
+        for (int code = firstCode; code <= lastCode; code++) {
+            sStringIds[code - FIRST_CODE] = stringId;
+        }
+    }
+
+    private static void describe(int code, int stringId) {
+        describe(code, code, stringId);
+    }
+
+    /* Index of the code in the table's arrays, or -1 if the table doesn't cover it */
+    private static int indexOf(int weatherId) {
+        return weatherId >= FIRST_CODE && weatherId <= LAST_CODE ? weatherId - FIRST_CODE : -1;
+    }
+
+    /**
+     * @param context   Used to resolve the string in the current locale
+     * @param weatherId from OpenWeatherMap API response
+     * @return The localized description of the condition, or a generic "unknown" description
+     * mentioning the code
+     */
+    public static String getDescription(Context context, int weatherId) {
+        int index = indexOf(weatherId);
+        int stringId = index < 0 ? 0 : sStringIds[index];
+        if (stringId == 0) {
+            return context.getString(R.string.condition_unknown, weatherId);
+        }
+
+        Locale locale = ConfigurationCompat
+                .getLocales(context.getResources().getConfiguration()).get(0);
+        LocalizedDescriptions descriptions = sDescriptions;
+        if (descriptions == null || !descriptions.mLocale.equals(locale)) {
+            descriptions = new LocalizedDescriptions(locale);
+            sDescriptions = descriptions;
+        }
+
+        /*
+         * Two threads may resolve the same string at the same time; both get the same value, so
+         * the race is harmless.
+         */
+        String description = descriptions.mStrings[index];
+        if (description == null) {
+            description = context.getString(stringId);
+            descriptions.mStrings[index] = description;
+        }
+        return description;
+    }
+
+    /**
+     * @param weatherId from OpenWeatherMap API response
+     * @return Resource id of the small icon for the condition, used for list items
+     */
+    public static int getSmallArtResourceId(int weatherId) {
+        int index = indexOf(weatherId);
+        if (index < 0 || sSmallArtIds[index] == 0) {
+            Log.e(LOG_TAG, "Unknown Weather: " + weatherId);
+            return R.drawable.ic_storm;
+        }
+        return sSmallArtIds[index];
+    }
+
+    /**
+     * @param weatherId from OpenWeatherMap API response
+     * @return Resource id of the large art for the condition, used for "today" and the details
+     */
+    public static int getLargeArtResourceId(int weatherId) {
+        int index = indexOf(weatherId);
+        if (index < 0 || sLargeArtIds[index] == 0) {
+            Log.e(LOG_TAG, "Unknown Weather: " + weatherId);
+            return R.drawable.art_storm;
+        }
+        return sLargeArtIds[index];
+    }
+
+    /**
+     * @param weatherId from OpenWeatherMap API response
+     * @return One of the SEVERITY_ constants, {@link #SEVERITY_CALM} for unknown codes
+     */
+    public static int getSeverity(int weatherId) {
+        int index = indexOf(weatherId);
+        return index < 0 ? SEVERITY_CALM : sSeverities[index];
+    }
+
+    /**
+     * @param weatherId from OpenWeatherMap API response
+     * @return One of the GROUP_ constants, {@link #GROUP_UNKNOWN} for unknown codes
+     */
+    public static int getGroup(int weatherId) {
+        int index = indexOf(weatherId);
+        return index < 0 ? GROUP_UNKNOWN : sGroups[index];
+    }
+
+    /* The descriptions resolved so far for one locale, indexed like the other arrays */
+    private static final class LocalizedDescriptions {
+        final Locale mLocale;
+        final String[] mStrings = new String[LAST_CODE - FIRST_CODE + 1];
+
+        LocalizedDescriptions(Locale locale) {
+            mLocale = locale;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.technowapps.sunshine.data;
+
+import com.technowapps.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ArchiveBlockCodecTest {
+
+    private static final long DAY = SunshineDateUtils.DAY_IN_MILLIS;
+    /* 1 March 2022, UTC */
+    private static final long MONTH_START = 19052 * DAY;
+    private static final long LOCATION_ID = 3;
+
+    private static final double DELTA = 1e-9;
+
+    @Test
+    public void roundTripsAMonthOfDays() {
+        List<ArchivedWeather> rows = new ArrayList<>();
+        for (int day = 0; day < 31; day++) {
+            rows.add(row(MONTH_START + day * DAY, ArchivedWeather.RESOLUTION_DAY,
+                    800 + day % 5, 5.25 + day * 0.5, 15.75 - day * 0.25, 40 + day, 1013.2 - day,
+                    3.6 + day * 0.01, (day * 37) % 360));
+        }
+
+        assertRoundTrips(rows);
+    }
+
+    @Test
+    public void roundTripsAnEmptyBlock() {
+        byte[] encoded = ArchiveBlockCodec.encode(MONTH_START, Collections.emptyList());
+
+        assertEquals(0, ArchiveBlockCodec.decode(MONTH_START, encoded).size());
+    }
+
+    @Test
+    public void roundTripsEdgeValues() {
+        assertRoundTrips(Arrays.asList(
+                /* Coldest and hottest temperatures ever measured, calm air, north */
+                row(MONTH_START, ArchivedWeather.RESOLUTION_DAY, 200, -89.2, 56.7, 0, 870.0,
+                        0.0, 0.0),
+                /* Large jumps in every column, in both directions */
+                row(MONTH_START + DAY, ArchivedWeather.RESOLUTION_DAY, 962, 56.7, -89.2, 100,
+                        1084.8, 113.2, 359.9),
+                row(MONTH_START + 2 * DAY, ArchivedWeather.RESOLUTION_DAY, 0, 0.0, 0.0, 0, 0.0,
+                        0.0, 0.0),
+                /* A code far outside OpenWeatherMap's range still fits in a varint */
+                row(MONTH_START + 3 * DAY, ArchivedWeather.RESOLUTION_DAY, Integer.MAX_VALUE,
+                        -0.01, 0.01, 1, 0.1, 0.01, 0.1)));
+    }
+
+    @Test
+    public void roundTripsGapsAndWeeklyRows() {
+        assertRoundTrips(Arrays.asList(
+                row(MONTH_START, ArchivedWeather.RESOLUTION_WEEK, 500, 1, 9, 70, 1000, 4, 90),
+                row(MONTH_START + 7 * DAY, ArchivedWeather.RESOLUTION_WEEK, 501, 2, 10, 71, 1001,
+                        5, 180),
+                row(MONTH_START + 27 * DAY, ArchivedWeather.RESOLUTION_DAY, 800, 3, 11, 72, 1002,
+                        6, 270)));
+    }
+
+    @Test
+    public void roundsToTheReportedPrecision() {
+        ArchivedWeather precise = row(MONTH_START, ArchivedWeather.RESOLUTION_DAY, 800,
+                12.3456, 20.004, 50, 1013.26, 3.14159, 271.26);
+
+        ArchiveSeries series = ArchiveBlockCodec.decode(MONTH_START,
+                ArchiveBlockCodec.encode(MONTH_START, Collections.singletonList(precise)));
+
+        assertEquals(12.35, series.getMinTemps()[0], DELTA);
+        assertEquals(20.0, series.getMaxTemps()[0], DELTA);
+        assertEquals(1013.3, series.getPressures()[0], DELTA);
+        assertEquals(3.14, series.getWinds()[0], DELTA);
+        assertEquals(271.3, series.getDegrees()[0], DELTA);
+    }
+
+    @Test
+    public void steadyMonthTakesAFractionOfPlainRows() {
+        List<ArchivedWeather> rows = new ArrayList<>();
+        for (int day = 0; day < 31; day++) {
+            rows.add(row(MONTH_START + day * DAY, ArchivedWeather.RESOLUTION_DAY, 800,
+                    10 + (day % 3) * 0.1, 20 - (day % 2) * 0.1, 60, 1012 + day % 2, 3.5, 180));
+        }
+
+        byte[] encoded = ArchiveBlockCodec.encode(MONTH_START, rows);
+
+        assertTrue("Encoded to " + encoded.length + " bytes",
+                encoded.length * 4 < rows.size() * ArchiveBlockCodec.PLAIN_ROW_BYTES);
+    }
+
+    @Test
+    public void rejectsAnUnknownVersion() {
+        byte[] encoded = ArchiveBlockCodec.encode(MONTH_START, Collections.singletonList(
+                row(MONTH_START, ArchivedWeather.RESOLUTION_DAY, 800, 1, 2, 3, 4, 5, 6)));
+        encoded[0] = 99;
+
+        try {
+            ArchiveBlockCodec.decode(MONTH_START, encoded);
+            fail("Expected an IllegalStateException");
+        } catch (IllegalStateException expected) {
+            assertTrue(expected.getMessage().contains("99"));
+        }
+    }
+
+    @Test
+    public void rejectsATruncatedBlock() {
+        byte[] encoded = ArchiveBlockCodec.encode(MONTH_START, Collections.singletonList(
+                row(MONTH_START, ArchivedWeather.RESOLUTION_DAY, 800, 1, 2, 3, 4, 5, 6)));
+
+        try {
+            ArchiveBlockCodec.decode(MONTH_START, Arrays.copyOf(encoded, encoded.length - 1));
+            fail("Expected an IllegalStateException");
+        } catch (IllegalStateException expected) {
+            /* The last column ends early */
+        }
+    }
+
+    private static void assertRoundTrips(List<ArchivedWeather> rows) {
+        ArchiveSeries series = ArchiveBlockCodec.decode(MONTH_START,
+                ArchiveBlockCodec.encode(MONTH_START, rows));
+        List<ArchivedWeather> decoded = series.toArchivedWeather(LOCATION_ID);
+
+        assertEquals(rows.size(), decoded.size());
+        for (int i = 0; i < rows.size(); i++) {
+            ArchivedWeather expected = rows.get(i);
+            ArchivedWeather actual = decoded.get(i);
+            String where = "Row " + i;
+            assertEquals(where, LOCATION_ID, actual.getLocationId());
+            assertEquals(where, expected.getDate(), actual.getDate());
+            assertEquals(where, expected.getResolution(), actual.getResolution());
+            assertEquals(where, expected.getWeatherIdFromServer(),
+                    actual.getWeatherIdFromServer());
+            assertEquals(where, expected.getMinTemp(), actual.getMinTemp(), DELTA);
+            assertEquals(where, expected.getMaxTemp(), actual.getMaxTemp(), DELTA);
+            assertEquals(where, expected.getHumidity(), actual.getHumidity());
+            assertEquals(where, expected.getPressure(), actual.getPressure(), DELTA);
+            assertEquals(where, expected.getSpeed(), actual.getSpeed(), DELTA);
+            assertEquals(where, expected.getMeteorologicalDegrees(),
+                    actual.getMeteorologicalDegrees(), DELTA);
+        }
+    }
+
+    private static ArchivedWeather row(long date, int resolution, int weatherId, double min,
+                                       double max, int humidity, double pressure, double wind,
+                                       double degrees) {
+        return new ArchivedWeather(LOCATION_ID, date, resolution, weatherId, min, max, humidity,
+                pressure, wind, degrees);
+    }
+}
@@ -0,0 +1,123 @@
+package com.technowapps.sunshine.data;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class GeocodeCacheTest {
+
+    private static final long EXPIRED = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(31);
+
+    private FakeGeocodeDao mDao;
+
+    @Before
+    public void setUp() {
+        mDao = new FakeGeocodeDao();
+    }
+
+    @Test
+    public void queryTypedBeforeResolvesFromTheTable() {
+        new GeocodeCache(mDao).put("London, GB", "London", 51.51, -0.13);
+
+        assertPlace(51.51, -0.13, new GeocodeCache(mDao).lookup("  london, gb "));
+    }
+
+    @Test
+    public void placeNameResolvesAQueryTypedDifferently() {
+        new GeocodeCache(mDao).put("london, gb", "London", 51.51, -0.13);
+
+        assertPlace(51.51, -0.13, new GeocodeCache(mDao).lookup("LONDON"));
+    }
+
+    @Test
+    public void placeNameAddedSinceLoadingResolves() {
+        GeocodeCache cache = new GeocodeCache(mDao);
+        assertNull(cache.lookup("paris"));
+
+        cache.put("paris, fr", "Paris", 48.85, 2.35);
+
+        assertPlace(48.85, 2.35, cache.lookup("Paris"));
+    }
+
+    @Test
+    public void partialNameGoesToTheApi() {
+        new GeocodeCache(mDao).put("springfield, il", "Springfield", 39.80, -89.64);
+
+        GeocodeCache cache = new GeocodeCache(mDao);
+        assertNull(cache.lookup("spring"));
+        assertNull(cache.lookup("springfield, i"));
+    }
+
+    @Test
+    public void newestEntryWinsForASharedPlaceName() {
+        mDao.insertGeocode(new GeocodeEntry("springfield, mo", "Springfield", 37.21, -93.29,
+                System.currentTimeMillis() - 1_000));
+        mDao.insertGeocode(new GeocodeEntry("springfield, il", "Springfield", 39.80, -89.64,
+                System.currentTimeMillis()));
+
+        assertPlace(39.80, -89.64, new GeocodeCache(mDao).lookup("springfield"));
+    }
+
+    @Test
+    public void expiredEntriesAreIgnoredAndDeleted() {
+        mDao.insertGeocode(new GeocodeEntry("london, gb", "London", 51.51, -0.13, EXPIRED));
+
+        GeocodeCache cache = new GeocodeCache(mDao);
+        assertNull(cache.lookup("london, gb"));
+        assertNull(cache.lookup("london"));
+        assertEquals(0, mDao.mEntries.size());
+    }
+
+    private static void assertPlace(double latitude, double longitude, GeocodeEntry entry) {
+        assertNotNull(entry);
+        assertEquals(latitude, entry.getLatitude(), 0);
+        assertEquals(longitude, entry.getLongitude(), 0);
+    }
+
+    /* Keeps the table in a map, keyed by query like its primary key */
+    private static class FakeGeocodeDao implements GeocodeDao {
+        final Map<String, GeocodeEntry> mEntries = new HashMap<>();
+
+        @Override
+        public GeocodeEntry loadGeocode(String query, long fetchedAfter) {
+            GeocodeEntry entry = mEntries.get(query);
+            return entry != null && entry.getFetchedAt() >= fetchedAfter ? entry : null;
+        }
+
+        @Override
+        public List<GeocodeEntry> loadAllGeocodes(long fetchedAfter) {
+            List<GeocodeEntry> entries = new ArrayList<>();
+            for (GeocodeEntry entry : mEntries.values()) {
+                if (entry.getFetchedAt() >= fetchedAfter) entries.add(entry);
+            }
+            return entries;
+        }
+
+        @Override
+        public void insertGeocode(GeocodeEntry entry) {
+            mEntries.put(entry.getQuery(), entry);
+        }
+
+        @Override
+        public int deleteGeocodesFetchedBefore(long fetchedBefore) {
+            int deleted = 0;
+            for (Iterator<GeocodeEntry> it = mEntries.values().iterator(); it.hasNext(); ) {
+                if (it.next().getFetchedAt() < fetchedBefore) {
+                    it.remove();
+                    deleted++;
+                }
+            }
+            return deleted;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.technowapps.sunshine.utilities;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CircuitBreakerTest {
+
+    private static final int FAILURE_THRESHOLD = 3;
+    private static final long OPEN_MILLIS = 60_000;
+    private static final long TRIAL_MILLIS = 10_000;
+
+    private long mNow = 1_000;
+    private CircuitBreaker mBreaker;
+
+    @Before
+    public void setUp() {
+        mBreaker = new CircuitBreaker("test", FAILURE_THRESHOLD, OPEN_MILLIS, TRIAL_MILLIS,
+                () -> mNow);
+    }
+
+    @Test
+    public void staysClosedBelowTheThreshold() {
+        fail(FAILURE_THRESHOLD - 1);
+
+        assertEquals(CircuitBreaker.State.CLOSED, mBreaker.getState());
+        assertTrue(mBreaker.allowRequest());
+        assertEquals(0, mBreaker.getMillisUntilTrial());
+    }
+
+    @Test
+    public void successResetsTheFailureCount() {
+        fail(FAILURE_THRESHOLD - 1);
+        assertTrue(mBreaker.allowRequest());
+        mBreaker.onSuccess();
+        fail(FAILURE_THRESHOLD - 1);
+
+        assertEquals(CircuitBreaker.State.CLOSED, mBreaker.getState());
+    }
+
+    @Test
+    public void opensAtTheThresholdAndTurnsCallsDown() {
+        fail(FAILURE_THRESHOLD);
+
+        assertEquals(CircuitBreaker.State.OPEN, mBreaker.getState());
+        assertFalse(mBreaker.allowRequest());
+        assertEquals(OPEN_MILLIS, mBreaker.getMillisUntilTrial());
+
+        mNow += OPEN_MILLIS / 4;
+        assertFalse(mBreaker.allowRequest());
+        assertEquals(OPEN_MILLIS * 3 / 4, mBreaker.getMillisUntilTrial());
+    }
+
+    @Test
+    public void allowsASingleTrialOnceOpenTimeHasPassed() {
+        fail(FAILURE_THRESHOLD);
+        mNow += OPEN_MILLIS;
+
+        assertTrue(mBreaker.allowRequest());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, mBreaker.getState());
+        assertFalse(mBreaker.allowRequest());
+    }
+
+    @Test
+    public void callsTurnedDownDuringTheTrialWaitForIt() {
+        fail(FAILURE_THRESHOLD);
+        mNow += OPEN_MILLIS;
+        assertTrue(mBreaker.allowRequest());
+
+        assertFalse(mBreaker.allowRequest());
+        /* Retrying at once would only be turned down again until the trial finishes */
+        assertEquals(TRIAL_MILLIS, mBreaker.getMillisUntilTrial());
+    }
+
+    @Test
+    public void successfulTrialClosesTheBreaker() {
+        fail(FAILURE_THRESHOLD);
+        mNow += OPEN_MILLIS;
+        assertTrue(mBreaker.allowRequest());
+        mBreaker.onSuccess();
+
+        assertEquals(CircuitBreaker.State.CLOSED, mBreaker.getState());
+        assertTrue(mBreaker.allowRequest());
+        assertEquals(0, mBreaker.getMillisUntilTrial());
+    }
+
+    @Test
+    public void failedTrialOpensTheBreakerAgain() {
+        fail(FAILURE_THRESHOLD);
+        mNow += OPEN_MILLIS;
+        assertTrue(mBreaker.allowRequest());
+        mBreaker.onFailure();
+
+        assertEquals(CircuitBreaker.State.OPEN, mBreaker.getState());
+        assertFalse(mBreaker.allowRequest());
+        assertEquals(OPEN_MILLIS, mBreaker.getMillisUntilTrial());
+    }
+
+    @Test
+    public void abandonedTrialLetsAnotherOneThrough() {
+        fail(FAILURE_THRESHOLD);
+        mNow += OPEN_MILLIS;
+        assertTrue(mBreaker.allowRequest());
+        mBreaker.onAbandoned();
+
+        assertEquals(CircuitBreaker.State.HALF_OPEN, mBreaker.getState());
+        assertTrue(mBreaker.allowRequest());
+    }
+
+    private void fail(int times) {
+        for (int i = 0; i < times; i++) {
+            assertTrue(mBreaker.allowRequest());
+            mBreaker.onFailure();
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.technowapps.sunshine.utilities;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.SocketPolicy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HedgedCallTest {
+
+    private static final long HEDGE_DELAY_MILLIS = 100;
+    /* Long enough past the hedge delay that the hedge is sure to be sent first */
+    private static final long SLOW_MILLIS = 600;
+
+    private MockWebServer mServer;
+    private OkHttpClient mClient;
+    private Request mRequest;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new MockWebServer();
+        mServer.start();
+        mClient = new OkHttpClient.Builder()
+                .readTimeout(5, TimeUnit.SECONDS)
+                .build();
+        mRequest = new Request.Builder().url(mServer.url("/forecast")).build();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mClient.dispatcher().executorService().shutdown();
+        mClient.connectionPool().evictAll();
+        mServer.shutdown();
+    }
+
+    @Test
+    public void fastAnswerIsNotHedged() throws IOException {
+        mServer.enqueue(new MockResponse().setBody("primary"));
+
+        try (Response response = execute(true)) {
+            assertEquals("primary", response.body().string());
+        }
+        assertEquals(1, mServer.getRequestCount());
+    }
+
+    @Test
+    public void hedgeAnswersForASlowPrimary() throws IOException {
+        mServer.enqueue(slow(new MockResponse().setBody("primary")));
+        mServer.enqueue(new MockResponse().setBody("hedge"));
+
+        try (Response response = execute(true)) {
+            assertEquals("hedge", response.body().string());
+        }
+        assertEquals(2, mServer.getRequestCount());
+    }
+
+    @Test
+    public void noHedgeWithoutPermit() throws IOException {
+        mServer.enqueue(slow(new MockResponse().setBody("primary")));
+
+        try (Response response = execute(false)) {
+            assertEquals("primary", response.body().string());
+        }
+        assertEquals(1, mServer.getRequestCount());
+    }
+
+    @Test
+    public void fastServerErrorDoesNotBeatASlowerAnswer() throws IOException {
+        mServer.enqueue(slow(new MockResponse().setBody("primary")));
+        mServer.enqueue(new MockResponse().setResponseCode(503));
+
+        try (Response response = execute(true)) {
+            assertEquals(200, response.code());
+            assertEquals("primary", response.body().string());
+        }
+    }
+
+    @Test
+    public void failedHedgeDoesNotBeatASlowerAnswer() throws IOException {
+        mServer.enqueue(slow(new MockResponse().setBody("primary")));
+        mServer.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_AT_START));
+
+        try (Response response = execute(true)) {
+            assertEquals("primary", response.body().string());
+        }
+    }
+
+    @Test
+    public void serverErrorIsReturnedWhenEveryCallGetsOne() throws IOException {
+        mServer.enqueue(slow(new MockResponse().setResponseCode(500)));
+        mServer.enqueue(new MockResponse().setResponseCode(503));
+
+        try (Response response = execute(true)) {
+            assertTrue(response.code() >= 500);
+        }
+    }
+
+    @Test
+    public void throwsWhenEveryCallFails() {
+        mServer.enqueue(slow(new MockResponse())
+                .setSocketPolicy(SocketPolicy.DISCONNECT_AFTER_REQUEST));
+        mServer.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_AT_START));
+
+        try (Response response = execute(true)) {
+            fail("Expected an IOException, got " + response.code());
+        } catch (IOException expected) {
+            /* Every call failed, so there was nothing to return */
+        }
+    }
+
+    /*
+     * Drives the breaker the way NetworkUtils does: once the server has failed enough times in a
+     * row, further calls are turned down without reaching it.
+     */
+    @Test
+    public void breakerStopsCallingAServerThatKeepsFailing() throws IOException {
+        long[] now = {0};
+        CircuitBreaker breaker = new CircuitBreaker("test", 3, 60_000, 10_000, () -> now[0]);
+        for (int i = 0; i < 3; i++) {
+            mServer.enqueue(new MockResponse().setResponseCode(500));
+        }
+
+        for (int i = 0; i < 5; i++) {
+            if (!breaker.allowRequest()) continue;
+            try (Response response = execute(false)) {
+                if (response.code() >= 500) {
+                    breaker.onFailure();
+                } else {
+                    breaker.onSuccess();
+                }
+            }
+        }
+
+        assertEquals(3, mServer.getRequestCount());
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        /* A single trial call is let through once the breaker has been open long enough */
+        mServer.enqueue(new MockResponse().setBody("recovered"));
+        now[0] += 60_000;
+        assertTrue(breaker.allowRequest());
+        assertFalse(breaker.allowRequest());
+        assertEquals(10_000, breaker.getMillisUntilTrial());
+        try (Response response = execute(false)) {
+            assertEquals("recovered", response.body().string());
+        }
+        breaker.onSuccess();
+
+        assertEquals(4, mServer.getRequestCount());
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    private Response execute(boolean hedgeAllowed) throws IOException {
+        return HedgedCall.execute(mClient, mRequest, HEDGE_DELAY_MILLIS, () -> hedgeAllowed);
+    }
+
+    private static MockResponse slow(MockResponse response) {
+        return response.setHeadersDelay(SLOW_MILLIS, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,60 @@
+package com.technowapps.sunshine.utilities;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class LatencyTrackerTest {
+
+    @Test
+    public void reportsNothingUntilEnoughSamples() {
+        LatencyTracker tracker = new LatencyTracker(10, 3);
+        tracker.record(100);
+        tracker.record(200);
+
+        assertEquals(-1, tracker.getPercentile(50));
+        assertEquals(-1, tracker.getPercentile(95));
+    }
+
+    @Test
+    public void percentilesAreNearestRank() {
+        LatencyTracker tracker = new LatencyTracker(100, 1);
+        for (int millis = 100; millis >= 1; millis--) {
+            tracker.record(millis);
+        }
+
+        assertEquals(1, tracker.getPercentile(0));
+        assertEquals(50, tracker.getPercentile(50));
+        assertEquals(95, tracker.getPercentile(95));
+        assertEquals(100, tracker.getPercentile(100));
+    }
+
+    @Test
+    public void onlyTheMostRecentSamplesCount() {
+        LatencyTracker tracker = new LatencyTracker(4, 1);
+        for (int i = 0; i < 4; i++) {
+            tracker.record(5_000);
+        }
+        for (int i = 0; i < 4; i++) {
+            tracker.record(100);
+        }
+
+        assertEquals(100, tracker.getPercentile(100));
+    }
+
+    @Test
+    public void timeoutsRaiseTheUpperPercentile() {
+        LatencyTracker tracker = new LatencyTracker(20, 20);
+        for (int i = 0; i < 18; i++) {
+            tracker.record(200);
+        }
+        assertEquals(-1, tracker.getPercentile(95));
+
+        /* Two calls that ran into a 30 second timeout */
+        tracker.record(30_000);
+        tracker.record(30_000);
+
+        assertEquals(200, tracker.getPercentile(50));
+        assertEquals(30_000, tracker.getPercentile(95));
+    }
+}
@@ -0,0 +1,77 @@
+package com.technowapps.sunshine.utilities;
+
+import java.util.Locale;
+
+/**
+ * Builds onecall responses shaped like the real ones, including the hourly, minutely and alert
+ * sections the app never reads, so the parsers are exercised on realistically sized input.
+ */
+final class OnecallPayloads {
+
+    private OnecallPayloads() {
+    }
+
+    /**
+     * @param days  Number of days in the daily forecast
+     * @param seed  Varies the values so payloads of different locations differ
+     * @return A complete onecall response
+     */
+    static String forecast(int days, int seed) {
+        StringBuilder json = new StringBuilder();
+        json.append(String.format(Locale.US,
+                "{\"lat\":%.4f,\"lon\":%.4f,\"timezone\":\"Europe/London\","
+                        + "\"timezone_offset\":0,", 51.5 + seed * 0.01, -0.12 - seed * 0.01));
+        json.append("\"current\":{\"dt\":1684929490,\"temp\":292.55,\"feels_like\":292.87,"
+                + "\"pressure\":1014,\"humidity\":89,\"wind_speed\":3.13,"
+                + "\"weather\":[{\"id\":803,\"main\":\"Clouds\",\"description\":\"broken clouds\","
+                + "\"icon\":\"04d\"}]},");
+
+        json.append("\"minutely\":[");
+        for (int i = 0; i < 60; i++) {
+            if (i > 0) json.append(',');
+            json.append("{\"dt\":").append(1684929540 + i * 60).append(",\"precipitation\":0}");
+        }
+        json.append("],\"hourly\":[");
+        for (int i = 0; i < 48; i++) {
+            if (i > 0) json.append(',');
+            json.append(String.format(Locale.US, "{\"dt\":%d,\"temp\":%.2f,\"feels_like\":%.2f,"
+                            + "\"pressure\":1014,\"humidity\":%d,\"dew_point\":290.69,\"uvi\":0.16,"
+                            + "\"clouds\":53,\"visibility\":10000,\"wind_speed\":3.13,"
+                            + "\"wind_deg\":93,\"wind_gust\":6.71,\"weather\":[{\"id\":803,"
+                            + "\"main\":\"Clouds\",\"description\":\"broken clouds\","
+                            + "\"icon\":\"04d\"}],\"pop\":0.15}",
+                    1684926000 + i * 3600, 290 + (i + seed) % 7 * 0.5, 291 + i % 5 * 0.5,
+                    60 + (i + seed) % 30));
+        }
+        json.append("],\"daily\":[");
+        for (int i = 0; i < days; i++) {
+            if (i > 0) json.append(',');
+            json.append(day(i, seed));
+        }
+        json.append("],\"alerts\":[{\"sender_name\":\"NWS Philadelphia - Mount Holly\","
+                + "\"event\":\"Small Craft Advisory\",\"start\":1684952747,\"end\":1684988747,"
+                + "\"description\":\"...SMALL CRAFT ADVISORY REMAINS IN EFFECT FROM 5 PM THIS "
+                + "AFTERNOON TO 3 AM EST FRIDAY...\",\"tags\":[]}]}");
+        return json.toString();
+    }
+
+    /**
+     * @return One element of the daily array, with every field the real API sends
+     */
+    static String day(int index, int seed) {
+        return String.format(Locale.US, "{\"dt\":%d,\"sunrise\":1684926645,\"sunset\":1684977332,"
+                        + "\"moonrise\":1684941060,\"moonset\":1684905480,\"moon_phase\":0.16,"
+                        + "\"summary\":\"Expect a day of partly cloudy with rain\","
+                        + "\"temp\":{\"day\":299.03,\"min\":%.2f,\"max\":%.2f,\"night\":291.45,"
+                        + "\"eve\":297.51,\"morn\":292.55},\"feels_like\":{\"day\":299.21,"
+                        + "\"night\":291.37,\"eve\":297.86,\"morn\":292.87},\"pressure\":%d,"
+                        + "\"humidity\":%d,\"dew_point\":290.48,\"wind_speed\":%.2f,"
+                        + "\"wind_deg\":%d,\"wind_gust\":8.29,\"weather\":[{\"id\":%d,"
+                        + "\"main\":\"Rain\",\"description\":\"light rain\",\"icon\":\"10d\"}],"
+                        + "\"clouds\":92,\"pop\":0.47,\"rain\":0.15,\"uvi\":9.23}",
+                1684951200 + index * 86400, 10 + (index + seed) % 5 * 0.25,
+                20 + (index + seed) % 7 * 0.5, 1010 + (index + seed) % 9, 50 + (index + seed) % 40,
+                2 + (index + seed) % 6 * 0.5, (index * 45 + seed) % 360,
+                500 + (index + seed) % 4);
+    }
+}
@@ -0,0 +1,123 @@
+package com.technowapps.sunshine.utilities;
+
+import com.technowapps.sunshine.data.Weather;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the streaming forecast parser against the DOM parser it replaced, on the payloads of
+ * a large watch list. Both start from the raw bytes of the responses, as they arrive from the
+ * network: the DOM parser first decodes each body into a String, like response.body().string(),
+ * while the streaming parser reads the decoded characters as they come.
+ * <p>
+ * Reports time and bytes allocated per payload. Allocations are measured per thread through the
+ * HotSpot management extension and are stable enough to assert on; times are only reported.
+ */
+public class OpenWeatherJsonBenchmark {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int LOCATIONS = 100;
+    private static final int DAYS = 8;
+    private static final int WARMUP_ROUNDS = 10;
+    private static final int MEASURED_ROUNDS = 10;
+
+    private interface Parser {
+        Weather[] parse(byte[] body) throws Exception;
+    }
+
+    @Test
+    public void streamingParserAllocatesLessThanDomParser() throws Exception {
+        com.sun.management.ThreadMXBean threads = threadMXBean();
+        Assume.assumeTrue("Allocation counting isn't available on this JVM", threads != null);
+
+        byte[][] bodies = new byte[LOCATIONS][];
+        long totalBytes = 0;
+        for (int i = 0; i < LOCATIONS; i++) {
+            bodies[i] = OnecallPayloads.forecast(DAYS, i).getBytes(UTF_8);
+            totalBytes += bodies[i].length;
+        }
+
+        Parser dom = body -> OpenWeatherJsonUtils.getWeatherForecastArrayFromJson(
+                new String(body, UTF_8));
+        Parser streaming = body -> {
+            try (Reader reader = new InputStreamReader(new ByteArrayInputStream(body), UTF_8)) {
+                return OpenWeatherJsonUtils.getWeatherForecastArrayFromReader(reader);
+            }
+        };
+
+        Result domResult = measure(threads, dom, bodies);
+        Result streamingResult = measure(threads, streaming, bodies);
+
+        System.out.println(String.format(Locale.US,
+                "%d payloads of %d bytes on average, per payload:%n"
+                        + "  DOM:       %8.1f us %10d bytes allocated%n"
+                        + "  streaming: %8.1f us %10d bytes allocated",
+                LOCATIONS, totalBytes / LOCATIONS,
+                domResult.mMicrosPerPayload, domResult.mBytesPerPayload,
+                streamingResult.mMicrosPerPayload, streamingResult.mBytesPerPayload));
+
+        assertTrue("Streaming parser allocated " + streamingResult.mBytesPerPayload
+                        + " bytes per payload, the DOM parser " + domResult.mBytesPerPayload,
+                streamingResult.mBytesPerPayload < domResult.mBytesPerPayload);
+    }
+
+    private static Result measure(com.sun.management.ThreadMXBean threads, Parser parser,
+                                  byte[][] bodies) throws Exception {
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            parseAll(parser, bodies);
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+        long started = System.nanoTime();
+        for (int round = 0; round < MEASURED_ROUNDS; round++) {
+            parseAll(parser, bodies);
+        }
+        long elapsedNanos = System.nanoTime() - started;
+        long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+        long payloads = (long) MEASURED_ROUNDS * bodies.length;
+        return new Result(elapsedNanos / 1000.0 / payloads, allocated / payloads);
+    }
+
+    private static void parseAll(Parser parser, byte[][] bodies) throws Exception {
+        for (byte[] body : bodies) {
+            assertEquals(DAYS, parser.parse(body).length);
+        }
+    }
+
+    private static com.sun.management.ThreadMXBean threadMXBean() {
+        try {
+            Object bean = ManagementFactory.getThreadMXBean();
+            if (!(bean instanceof com.sun.management.ThreadMXBean)) return null;
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+            return threads.isThreadAllocatedMemorySupported()
+                    && threads.isThreadAllocatedMemoryEnabled() ? threads : null;
+        } catch (NoClassDefFoundError e) {
+            /* Not a HotSpot based JVM */
+            return null;
+        }
+    }
+
+    private static final class Result {
+        final double mMicrosPerPayload;
+        final long mBytesPerPayload;
+
+        Result(double microsPerPayload, long bytesPerPayload) {
+            mMicrosPerPayload = microsPerPayload;
+            mBytesPerPayload = bytesPerPayload;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.technowapps.sunshine.utilities;
+
+import com.google.gson.stream.MalformedJsonException;
+import com.technowapps.sunshine.data.Weather;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class OpenWeatherJsonUtilsTest {
+
+    private static final double DELTA = 1e-9;
+
+    @Test
+    public void streamingParserMatchesDomParser() throws Exception {
+        String json = OnecallPayloads.forecast(8, 3);
+
+        Weather[] expected = OpenWeatherJsonUtils.getWeatherForecastArrayFromJson(json);
+        Weather[] actual = parse(json);
+
+        assertEquals(8, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertTrue("Day " + i + " differs", expected[i].hasSameValuesAs(actual[i]));
+            assertEquals(expected[i].getDate(), actual[i].getDate());
+        }
+    }
+
+    @Test
+    public void readsTheFieldsOfEachDay() throws Exception {
+        Weather day = parse("{\"daily\":[" + OnecallPayloads.day(0, 0) + "]}")[0];
+
+        assertEquals(500, day.getWeatherIdFromServer());
+        assertEquals(10, day.getMinTemp(), DELTA);
+        assertEquals(20, day.getMaxTemp(), DELTA);
+        assertEquals(50, day.getHumidity());
+        assertEquals(1010, day.getPressure(), DELTA);
+        assertEquals(2, day.getSpeed(), DELTA);
+        assertEquals(0, day.getMeteorologicalDegrees(), DELTA);
+    }
+
+    @Test
+    public void returnsNullWhenTheServerReportsAnError() throws Exception {
+        assertNull(parse("{\"cod\":404,\"message\":\"city not found\"}"));
+    }
+
+    @Test
+    public void returnsNullWithoutADailyForecast() throws Exception {
+        assertNull(parse("{\"lat\":1,\"lon\":2,\"current\":{}}"));
+    }
+
+    @Test
+    public void rejectsADayWithoutAMaximum() throws Exception {
+        assertRejected(OnecallPayloads.day(0, 0).replaceFirst("\"max\":[0-9.]+,", ""), "temp.max");
+    }
+
+    @Test
+    public void rejectsADayWithoutAWeatherId() throws Exception {
+        assertRejected(OnecallPayloads.day(0, 0).replaceFirst("\"id\":[0-9]+,", ""),
+                "weather[0].id");
+    }
+
+    @Test
+    public void rejectsADayWithoutPressure() throws Exception {
+        assertRejected(OnecallPayloads.day(0, 0).replaceFirst("\"pressure\":[0-9]+,", ""),
+                "pressure");
+    }
+
+    @Test
+    public void rejectsADayWithAnEmptyWeatherArray() throws Exception {
+        assertRejected(OnecallPayloads.day(0, 0)
+                .replaceFirst("\"weather\":\\[.*?\\]", "\"weather\":[]"), "weather[0].id");
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsATruncatedPayload() throws Exception {
+        String json = OnecallPayloads.forecast(8, 0);
+        parse(json.substring(0, json.length() / 2));
+    }
+
+    private static void assertRejected(String day, String missingField) throws IOException {
+        try {
+            parse("{\"daily\":[" + OnecallPayloads.day(1, 0) + "," + day + "]}");
+            fail("A day without " + missingField + " was accepted");
+        } catch (MalformedJsonException e) {
+            assertEquals("Day 1 of the forecast has no " + missingField, e.getMessage());
+        }
+    }
+
+    private static Weather[] parse(String json) throws IOException {
+        return OpenWeatherJsonUtils.getWeatherForecastArrayFromReader(new StringReader(json));
+    }
+}
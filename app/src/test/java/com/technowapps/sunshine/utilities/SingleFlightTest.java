@@ -0,0 +1,100 @@
+package com.technowapps.sunshine.utilities;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SingleFlightTest {
+
+    private static final String COUNTER = "test.singleflight.coalesced";
+
+    private SingleFlight<String, Integer> mSingleFlight;
+    private ExecutorService mExecutor;
+
+    @Before
+    public void setUp() {
+        mSingleFlight = new SingleFlight<>(COUNTER);
+        mExecutor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+    }
+
+    @Test
+    public void concurrentCallersShareOneRun() throws Exception {
+        final AtomicInteger runs = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        long coalescedBefore = SunshineMetrics.get(COUNTER);
+
+        Future<Integer> first = mExecutor.submit(() -> mSingleFlight.execute("key", () -> {
+            runs.incrementAndGet();
+            started.countDown();
+            release.await();
+            return 42;
+        }));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        Future<Integer> second = mExecutor.submit(() -> mSingleFlight.execute("key", () -> {
+            runs.incrementAndGet();
+            return -1;
+        }));
+        /* The second caller has to be waiting on the first run before it is released */
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (SunshineMetrics.get(COUNTER) == coalescedBefore
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        release.countDown();
+
+        assertEquals(42, (int) first.get(5, TimeUnit.SECONDS));
+        assertEquals(42, (int) second.get(5, TimeUnit.SECONDS));
+        assertEquals(1, runs.get());
+        assertEquals(coalescedBefore + 1, SunshineMetrics.get(COUNTER));
+    }
+
+    @Test
+    public void differentKeysRunIndependently() throws Exception {
+        assertEquals(1, (int) mSingleFlight.execute("a", () -> 1));
+        assertEquals(2, (int) mSingleFlight.execute("b", () -> 2));
+    }
+
+    @Test
+    public void finishedWorkIsNotCached() throws Exception {
+        AtomicInteger runs = new AtomicInteger();
+
+        assertEquals(1, (int) mSingleFlight.execute("key", runs::incrementAndGet));
+        assertEquals(2, (int) mSingleFlight.execute("key", runs::incrementAndGet));
+    }
+
+    @Test
+    public void failureIsRethrownAndNotKept() throws Exception {
+        IOException error = new IOException("offline");
+        try {
+            mSingleFlight.execute("key", () -> {
+                throw error;
+            });
+            fail("Expected an ExecutionException");
+        } catch (ExecutionException e) {
+            assertSame(error, e.getCause());
+        }
+
+        assertEquals(7, (int) mSingleFlight.execute("key", () -> 7));
+    }
+}
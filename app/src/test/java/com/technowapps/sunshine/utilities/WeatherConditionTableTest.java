@@ -0,0 +1,136 @@
+package com.technowapps.sunshine.utilities;
+
+import com.example.android.sunshine.R;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class WeatherConditionTableTest {
+
+    /* Volcanic ash; the only code whose art the table deliberately changed */
+    private static final int VOLCANIC_ASH = 762;
+
+    @Test
+    public void artMatchesTheRangesItReplaced() {
+        for (int weatherId = 0; weatherId <= 1000; weatherId++) {
+            if (weatherId == VOLCANIC_ASH) continue;
+            assertEquals("Small art of " + weatherId, legacySmallArt(weatherId),
+                    WeatherConditionTable.getSmallArtResourceId(weatherId));
+            assertEquals("Large art of " + weatherId, legacyLargeArt(weatherId),
+                    WeatherConditionTable.getLargeArtResourceId(weatherId));
+        }
+    }
+
+    @Test
+    public void volcanicAshGetsStormArt() {
+        assertEquals(R.drawable.ic_storm, WeatherConditionTable.getSmallArtResourceId(VOLCANIC_ASH));
+        assertEquals(R.drawable.art_storm, WeatherConditionTable.getLargeArtResourceId(VOLCANIC_ASH));
+    }
+
+    @Test
+    public void groupsFollowTheCodeRanges() {
+        assertEquals(WeatherConditionTable.GROUP_THUNDERSTORM, WeatherConditionTable.getGroup(211));
+        assertEquals(WeatherConditionTable.GROUP_DRIZZLE, WeatherConditionTable.getGroup(300));
+        assertEquals(WeatherConditionTable.GROUP_RAIN, WeatherConditionTable.getGroup(511));
+        assertEquals(WeatherConditionTable.GROUP_SNOW, WeatherConditionTable.getGroup(622));
+        assertEquals(WeatherConditionTable.GROUP_ATMOSPHERE, WeatherConditionTable.getGroup(781));
+        assertEquals(WeatherConditionTable.GROUP_CLEAR, WeatherConditionTable.getGroup(800));
+        assertEquals(WeatherConditionTable.GROUP_CLOUDS, WeatherConditionTable.getGroup(804));
+        assertEquals(WeatherConditionTable.GROUP_EXTREME, WeatherConditionTable.getGroup(906));
+        assertEquals(WeatherConditionTable.GROUP_WIND, WeatherConditionTable.getGroup(962));
+    }
+
+    @Test
+    public void narrowerRangesOverrideSeverity() {
+        assertEquals(WeatherConditionTable.SEVERITY_MILD, WeatherConditionTable.getSeverity(500));
+        assertEquals(WeatherConditionTable.SEVERITY_SIGNIFICANT,
+                WeatherConditionTable.getSeverity(501));
+        assertEquals(WeatherConditionTable.SEVERITY_MILD, WeatherConditionTable.getSeverity(600));
+        assertEquals(WeatherConditionTable.SEVERITY_SEVERE, WeatherConditionTable.getSeverity(602));
+        assertEquals(WeatherConditionTable.SEVERITY_CALM, WeatherConditionTable.getSeverity(951));
+        assertEquals(WeatherConditionTable.SEVERITY_MILD, WeatherConditionTable.getSeverity(956));
+        assertEquals(WeatherConditionTable.SEVERITY_SEVERE, WeatherConditionTable.getSeverity(958));
+    }
+
+    @Test
+    public void unknownCodesAreCalmAndUngrouped() {
+        for (int weatherId : new int[]{-1, 0, 199, 400, 700, 850, 963, Integer.MAX_VALUE}) {
+            assertEquals(WeatherConditionTable.GROUP_UNKNOWN,
+                    WeatherConditionTable.getGroup(weatherId));
+            assertEquals(WeatherConditionTable.SEVERITY_CALM,
+                    WeatherConditionTable.getSeverity(weatherId));
+            assertEquals(R.drawable.ic_storm,
+                    WeatherConditionTable.getSmallArtResourceId(weatherId));
+            assertEquals(R.drawable.art_storm,
+                    WeatherConditionTable.getLargeArtResourceId(weatherId));
+        }
+    }
+
+    /* The chain of range checks SunshineWeatherUtils used before the table */
+    private static int legacySmallArt(int weatherId) {
+        if (weatherId >= 200 && weatherId <= 232) {
+            return R.drawable.ic_storm;
+        } else if (weatherId >= 300 && weatherId <= 321) {
+            return R.drawable.ic_light_rain;
+        } else if (weatherId >= 500 && weatherId <= 504) {
+            return R.drawable.ic_rain;
+        } else if (weatherId == 511) {
+            return R.drawable.ic_snow;
+        } else if (weatherId >= 520 && weatherId <= 531) {
+            return R.drawable.ic_rain;
+        } else if (weatherId >= 600 && weatherId <= 622) {
+            return R.drawable.ic_snow;
+        } else if (weatherId >= 701 && weatherId <= 761) {
+            return R.drawable.ic_fog;
+        } else if (weatherId == 771 || weatherId == 781) {
+            return R.drawable.ic_storm;
+        } else if (weatherId == 800) {
+            return R.drawable.ic_clear;
+        } else if (weatherId == 801) {
+            return R.drawable.ic_light_clouds;
+        } else if (weatherId >= 802 && weatherId <= 804) {
+            return R.drawable.ic_cloudy;
+        } else if (weatherId >= 900 && weatherId <= 906) {
+            return R.drawable.ic_storm;
+        } else if (weatherId >= 958 && weatherId <= 962) {
+            return R.drawable.ic_storm;
+        } else if (weatherId >= 951 && weatherId <= 957) {
+            return R.drawable.ic_clear;
+        }
+        return R.drawable.ic_storm;
+    }
+
+    private static int legacyLargeArt(int weatherId) {
+        if (weatherId >= 200 && weatherId <= 232) {
+            return R.drawable.art_storm;
+        } else if (weatherId >= 300 && weatherId <= 321) {
+            return R.drawable.art_light_rain;
+        } else if (weatherId >= 500 && weatherId <= 504) {
+            return R.drawable.art_rain;
+        } else if (weatherId == 511) {
+            return R.drawable.art_snow;
+        } else if (weatherId >= 520 && weatherId <= 531) {
+            return R.drawable.art_rain;
+        } else if (weatherId >= 600 && weatherId <= 622) {
+            return R.drawable.art_snow;
+        } else if (weatherId >= 701 && weatherId <= 761) {
+            return R.drawable.art_fog;
+        } else if (weatherId == 771 || weatherId == 781) {
+            return R.drawable.art_storm;
+        } else if (weatherId == 800) {
+            return R.drawable.art_clear;
+        } else if (weatherId == 801) {
+            return R.drawable.art_light_clouds;
+        } else if (weatherId >= 802 && weatherId <= 804) {
+            return R.drawable.art_clouds;
+        } else if (weatherId >= 900 && weatherId <= 906) {
+            return R.drawable.art_storm;
+        } else if (weatherId >= 958 && weatherId <= 962) {
+            return R.drawable.art_storm;
+        } else if (weatherId >= 951 && weatherId <= 957) {
+            return R.drawable.art_clear;
+        }
+        return R.drawable.art_storm;
+    }
+}